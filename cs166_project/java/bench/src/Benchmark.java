@@ -0,0 +1,72 @@
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A small benchmark harness: each case is warmed up, then timed call by
+ * call, and the latency distribution is reported.  Settings come from system
+ * properties so runs are easy to repeat:
+ *    bench.warmup      warmup calls per case (default 200)
+ *    bench.iterations  measured calls per case (default 2000)
+ *    bench.filter      only run cases whose name contains this text
+ */
+public class Benchmark {
+
+   /**
+    * One operation being measured.
+    */
+   public interface Case {
+      /**
+       * @param iteration the call number, useful for picking inputs
+       */
+      void run(int iteration) throws Exception;
+   }
+
+   private final int _warmup = Integer.getInteger("bench.warmup", 200);
+   private final int _iterations = Integer.getInteger("bench.iterations", 2000);
+   private final String _filter = System.getProperty("bench.filter", "");
+
+   public Benchmark() {
+      System.out.println(String.format(Locale.ROOT, "%-28s %8s %10s %10s %10s %10s %10s",
+         "benchmark", "calls", "ops/s", "mean(us)", "p50(us)", "p99(us)", "max(us)"));
+   }
+
+   /**
+    * Warms up and measures a case, then prints one result line.
+    *
+    * @param name the name printed for the case
+    * @param c the operation to measure
+    * @throws java.lang.Exception when the operation fails
+    */
+   public void measure(String name, Case c) throws Exception {
+      if (!name.contains(this._filter))
+         return;
+      for (int i = 0; i < this._warmup; ++i)
+         c.run(i);
+
+      long[] nanos = new long[this._iterations];
+      long start = System.nanoTime();
+      for (int i = 0; i < this._iterations; ++i) {
+         long t0 = System.nanoTime();
+         c.run(this._warmup + i);
+         nanos[i] = System.nanoTime() - t0;
+      }
+      long elapsed = System.nanoTime() - start;
+
+      Arrays.sort(nanos);
+      long sum = 0;
+      for (long n : nanos)
+         sum += n;
+      System.out.println(String.format(Locale.ROOT, "%-28s %8d %10.1f %10.1f %10.1f %10.1f %10.1f",
+         name, this._iterations,
+         this._iterations / (elapsed / 1e9),
+         sum / 1e3 / this._iterations,
+         percentile(nanos, 0.50) / 1e3,
+         percentile(nanos, 0.99) / 1e3,
+         nanos[nanos.length - 1] / 1e3));
+   }//end measure
+
+   private static long percentile(long[] sorted, double p) {
+      int i = (int) Math.ceil(p * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+   }
+}//end Benchmark
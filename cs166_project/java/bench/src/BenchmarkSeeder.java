@@ -0,0 +1,187 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Rebuilds the benchmark database from data/*.csv at a scale factor.  Users
+ * and stores are copied scale times (copies get a login suffix and shifted
+ * storeIDs), the menu is loaded as is, and ordersPerScale * scale synthetic
+ * orders with one to five items each are generated over the last five years.
+ *
+ * Every table is truncated first, so only point this at a benchmark database.
+ */
+public class BenchmarkSeeder {
+
+   private static final int BATCH = 1000;
+
+   private final PizzaStore _esql;
+   private final File _dataDir;
+   private final int _scale;
+   private final int _ordersPerScale;
+   private final Random _random = new Random(42);
+
+   /**
+    * @param esql the store to seed
+    * @param dataDir the directory holding the CSV files
+    * @param scale how many copies of users and stores to load
+    * @param ordersPerScale synthetic orders generated per scale step
+    */
+   public BenchmarkSeeder(PizzaStore esql, File dataDir, int scale, int ordersPerScale) {
+      this._esql = esql;
+      this._dataDir = dataDir;
+      this._scale = scale;
+      this._ordersPerScale = ordersPerScale;
+   }
+
+   /**
+    * Truncates every table and loads the scaled data set.
+    *
+    * @throws java.lang.Exception when a file cannot be read or a load fails
+    */
+   public void seed() throws Exception {
+      this._esql.executeUpdate("TRUNCATE UserItemStats, ItemsInOrder, OrderIds, FoodOrder, Store, Items, Users");
+
+      final List<List<String>> users = read("users.csv");
+      final List<List<String>> items = read("items.csv");
+      final List<List<String>> stores = read("store.csv");
+      int maxStoreID = 0;
+      for (List<String> store : stores)
+         maxStoreID = Math.max(maxStoreID, Integer.parseInt(store.get(0)));
+      final int storeStride = maxStoreID;
+
+      final List<String> logins = new ArrayList<String>();
+      final List<Integer> storeIDs = new ArrayList<Integer>();
+      for (int k = 0; k < this._scale; ++k) {
+         for (List<String> user : users)
+            logins.add(k == 0 ? user.get(0) : user.get(0) + "_" + k);
+         for (List<String> store : stores)
+            storeIDs.add(Integer.parseInt(store.get(0)) + k * storeStride);
+      }
+
+      this._esql.executeInTransaction(new PizzaStore.Transaction<Void>() {
+         public Void run(ConnectionPool.PooledConnection pc) throws SQLException {
+            PreparedStatement ps = pc.statements().prepare(
+               "INSERT INTO Items (itemName, ingredients, typeOfItem, price, description) VALUES (?, ?, ?, ?, ?)");
+            for (List<String> item : items) {
+               ps.setString(1, item.get(0));
+               ps.setString(2, item.get(1));
+               ps.setString(3, item.get(2));
+               ps.setBigDecimal(4, new BigDecimal(item.get(3)));
+               ps.setString(5, item.get(4));
+               ps.addBatch();
+            }
+            ps.executeBatch();
+
+            ps = pc.statements().prepare(
+               "INSERT INTO Users (login, password, role, favoriteItems, phoneNum) VALUES (?, ?, ?, ?, ?)");
+            int n = 0;
+            for (int i = 0; i < logins.size(); ++i) {
+               List<String> user = users.get(i % users.size());
+               ps.setString(1, logins.get(i));
+               ps.setString(2, user.get(1));
+               ps.setString(3, user.get(2));
+               ps.setString(4, user.get(3));
+               ps.setString(5, user.get(4));
+               ps.addBatch();
+               if (++n % BATCH == 0)
+                  ps.executeBatch();
+            }
+            ps.executeBatch();
+
+            ps = pc.statements().prepare(
+               "INSERT INTO Store (storeID, address, city, state, isOpen, reviewScore) VALUES (?, ?, ?, ?, ?, ?)");
+            n = 0;
+            for (int i = 0; i < storeIDs.size(); ++i) {
+               List<String> store = stores.get(i % stores.size());
+               ps.setInt(1, storeIDs.get(i));
+               ps.setString(2, store.get(1));
+               ps.setString(3, store.get(2));
+               ps.setString(4, store.get(3));
+               ps.setString(5, store.get(4));
+               ps.setDouble(6, Double.parseDouble(store.get(5)));
+               ps.addBatch();
+               if (++n % BATCH == 0)
+                  ps.executeBatch();
+            }
+            ps.executeBatch();
+            return null;
+         }
+      });
+
+      seedOrders(logins, storeIDs, items);
+      System.out.println("Seeded " + logins.size() + " users, " + storeIDs.size() + " stores, "
+                         + items.size() + " items and " + (this._ordersPerScale * this._scale) + " orders");
+   }//end seed
+
+   private void seedOrders(final List<String> logins, final List<Integer> storeIDs,
+                           final List<List<String>> items) throws SQLException {
+      final long now = System.currentTimeMillis();
+      final long fiveYears = 5L * 365 * 24 * 3600 * 1000;
+      final int total = this._ordersPerScale * this._scale;
+      for (int first = 0; first < total; first += BATCH) {
+         final int from = first;
+         final int to = Math.min(total, first + BATCH);
+         this._esql.executeInTransaction(new PizzaStore.Transaction<Void>() {
+            public Void run(ConnectionPool.PooledConnection pc) throws SQLException {
+               PreparedStatement orders = pc.statements().prepare(
+                  "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) " +
+                  "VALUES (?, ?, ?, ?, ?, ?)");
+               PreparedStatement lines = pc.statements().prepare(
+                  "INSERT INTO ItemsInOrder (orderID, itemName, quantity) VALUES (?, ?, ?)");
+               for (int orderID = from + 1; orderID <= to; ++orderID) {
+                  int count = 1 + _random.nextInt(5);
+                  int firstItem = _random.nextInt(items.size());
+                  BigDecimal totalPrice = BigDecimal.ZERO;
+                  for (int k = 0; k < count; ++k) {
+                     List<String> item = items.get((firstItem + k) % items.size());
+                     int quantity = 1 + _random.nextInt(3);
+                     totalPrice = totalPrice.add(new BigDecimal(item.get(3)).multiply(BigDecimal.valueOf(quantity)));
+                     lines.setInt(1, orderID);
+                     lines.setString(2, item.get(0));
+                     lines.setInt(3, quantity);
+                     lines.addBatch();
+                  }
+                  orders.setInt(1, orderID);
+                  orders.setString(2, logins.get(_random.nextInt(logins.size())));
+                  orders.setInt(3, storeIDs.get(_random.nextInt(storeIDs.size())));
+                  orders.setBigDecimal(4, totalPrice);
+                  orders.setTimestamp(5, new Timestamp(now - (long) (_random.nextDouble() * fiveYears)));
+                  orders.setString(6, _random.nextInt(10) == 0 ? "incomplete" : "complete");
+                  orders.addBatch();
+               }
+               orders.executeBatch();
+               lines.executeBatch();
+               return null;
+            }
+         });
+      }
+      this._esql.executeQueryAndReturnResult(
+         "SELECT setval('FoodOrder_orderID_seq', (SELECT COALESCE(MAX(orderID), 0) + 1 FROM FoodOrder), false)");
+      // the orders above bypass submitOrder, so their item counts are built once here
+      this._esql.executeUpdate(
+         "INSERT INTO UserItemStats (login, itemName, timesOrdered, totalQuantity, lastOrdered) " +
+         "SELECT O.login, I.itemName, COUNT(*), SUM(I.quantity), MAX(O.orderTimestamp) " +
+         "FROM FoodOrder O JOIN ItemsInOrder I ON I.orderID = O.orderID GROUP BY O.login, I.itemName");
+   }//end seedOrders
+
+   private List<List<String>> read(String name) throws IOException {
+      List<List<String>> rows = new ArrayList<List<String>>();
+      CsvReader csv = new CsvReader(new FileReader(new File(this._dataDir, name)));
+      try {
+         csv.next(); // header
+         List<String> row;
+         while ((row = csv.next()) != null)
+            rows.add(row);
+      } finally {
+         csv.close();
+      }
+      return rows;
+   }
+}//end BenchmarkSeeder
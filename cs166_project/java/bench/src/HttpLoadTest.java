@@ -0,0 +1,151 @@
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load-test client for the HTTP front end (PizzaStore ... --serve <port>).
+ * Each simulated customer signs up, logs in, then loops over browsing the
+ * menu and stores, placing an order and checking its order history until
+ * the run ends.  Settings:
+ *    load.users      concurrent customers (default 200)
+ *    load.duration   seconds to run (default 30)
+ *    load.thinkMs    pause between a customer's requests (default 0)
+ *
+ * Usage: java HttpLoadTest http://localhost:8080
+ */
+public class HttpLoadTest {
+
+   private final String _base;
+   private final HttpClient _client;
+   private final LatencyReport _report = new LatencyReport();
+   private final int _thinkMs = Integer.getInteger("load.thinkMs", 0);
+   private volatile boolean _running = true;
+
+   HttpLoadTest(String base, ExecutorService executor) {
+      this._base = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+      this._client = HttpClient.newBuilder().executor(executor).connectTimeout(Duration.ofSeconds(10)).build();
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length != 1) {
+         System.err.println("Usage: java [-classpath <classpath>] HttpLoadTest <baseUrl>");
+         return;
+      }
+      int users = Integer.getInteger("load.users", 200);
+      int duration = Integer.getInteger("load.duration", 30);
+
+      ExecutorService executor = PizzaStoreServer.newRequestExecutor();
+      final HttpLoadTest test = new HttpLoadTest(args[0], executor);
+      final String run = Long.toString(System.currentTimeMillis(), 36);
+
+      long start = System.nanoTime();
+      for (int u = 0; u < users; ++u) {
+         final int user = u;
+         executor.execute(new Runnable() {
+            public void run() {
+               test.customer("load_" + run + "_" + user, new Random(user));
+            }
+         });
+      }
+      Thread.sleep(duration * 1000L);
+      test._running = false;
+      executor.shutdown();
+      executor.awaitTermination(30, TimeUnit.SECONDS);
+      test._report.print(System.nanoTime() - start);
+   }//end main
+
+   @SuppressWarnings("unchecked")
+   private void customer(String login, Random random) {
+      try {
+         if (call("signup", "POST", "/users", null, body("login", login, "password", "pw", "phoneNum", "555-0100")) == null)
+            return;
+         Map<String, Object> session = call("login", "POST", "/login", null, body("login", login, "password", "pw"));
+         if (session == null)
+            return;
+         String token = (String) session.get("session");
+
+         while (this._running) {
+            Map<String, Object> menu = call("menu", "GET", "/menu", token, null);
+            Map<String, Object> stores = call("stores", "GET", "/stores?limit=50", token, null);
+            if (menu == null || stores == null)
+               continue;
+
+            List<String> items = new ArrayList<String>();
+            for (Object type : menu.values())
+               for (Object item : (List<Object>) type)
+                  items.add((String) ((Map<String, Object>) item).get("itemName"));
+            List<Integer> open = new ArrayList<Integer>();
+            for (Object store : (List<Object>) stores.get("stores"))
+               if (Boolean.TRUE.equals(((Map<String, Object>) store).get("isOpen")))
+                  open.add(((BigDecimal) ((Map<String, Object>) store).get("storeID")).intValue());
+            if (items.isEmpty() || open.isEmpty())
+               continue;
+
+            Map<String, Object> quantities = new LinkedHashMap<String, Object>();
+            for (int i = 1 + random.nextInt(4); i > 0; --i)
+               quantities.put(items.get(random.nextInt(items.size())), 1 + random.nextInt(3));
+            Map<String, Object> order = new LinkedHashMap<String, Object>();
+            order.put("storeID", open.get(random.nextInt(open.size())));
+            order.put("items", quantities);
+            Map<String, Object> receipt = call("placeOrder", "POST", "/orders", token, order);
+
+            call("recentOrders", "GET", "/orders/recent", token, null);
+            call("orderHistory", "GET", "/orders?limit=10", token, null);
+            if (receipt != null)
+               call("orderInfo", "GET", "/orders/" + receipt.get("orderID"), token, null);
+         }
+         call("logout", "POST", "/logout", token, body());
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }//end customer
+
+   /*
+    * Sends one request and records its latency; returns the parsed response
+    * or null when it failed.
+    */
+   @SuppressWarnings("unchecked")
+   private Map<String, Object> call(String op, String method, String path, String token, Map<String, Object> body)
+         throws InterruptedException {
+      HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(this._base + path))
+         .timeout(Duration.ofSeconds(30))
+         .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                                      : HttpRequest.BodyPublishers.ofString(Json.write(body)));
+      if (token != null)
+         request.header(PizzaStoreServer.SESSION_HEADER, token);
+      long t0 = System.nanoTime();
+      try {
+         HttpResponse<String> response = this._client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+         long nanos = System.nanoTime() - t0;
+         if (response.statusCode() >= 300) {
+            this._report.error(op);
+            return null;
+         }
+         this._report.record(op, nanos);
+         return (Map<String, Object>) Json.parse(response.body());
+      } catch (java.io.IOException e) {
+         this._report.error(op);
+         return null;
+      } finally {
+         if (this._thinkMs > 0)
+            Thread.sleep(this._thinkMs);
+      }
+   }//end call
+
+   private static Map<String, Object> body(Object... pairs) {
+      Map<String, Object> map = new LinkedHashMap<String, Object>();
+      for (int i = 0; i < pairs.length; i += 2)
+         map.put((String) pairs[i], pairs[i + 1]);
+      return map;
+   }
+}//end HttpLoadTest
@@ -0,0 +1,86 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects per-operation latencies from many threads at once and prints
+ * throughput and the latency distribution of each operation.  Every sample
+ * is kept, which is fine for load tests of minutes.
+ */
+public class LatencyReport {
+
+   private static final class Samples {
+      long[] nanos = new long[1024];
+      int count = 0;
+      int errors = 0;
+   }
+
+   private final Map<String, Samples> _ops = new TreeMap<String, Samples>();
+
+   /**
+    * Records one successful call.
+    *
+    * @param op the operation name
+    * @param nanos how long the call took
+    */
+   public void record(String op, long nanos) {
+      synchronized (this._ops) {
+         Samples s = samples(op);
+         if (s.count == s.nanos.length)
+            s.nanos = Arrays.copyOf(s.nanos, s.count * 2);
+         s.nanos[s.count++] = nanos;
+      }
+   }
+
+   /**
+    * Records one failed call.
+    *
+    * @param op the operation name
+    */
+   public void error(String op) {
+      synchronized (this._ops) {
+         ++samples(op).errors;
+      }
+   }
+
+   private Samples samples(String op) {
+      Samples s = this._ops.get(op);
+      if (s == null) {
+         s = new Samples();
+         this._ops.put(op, s);
+      }
+      return s;
+   }
+
+   /**
+    * Prints one line per operation.
+    *
+    * @param elapsedNanos the wall-clock length of the run, for throughput
+    */
+   public void print(long elapsedNanos) {
+      System.out.println(String.format(Locale.ROOT, "%-24s %9s %7s %10s %10s %10s %10s %10s",
+         "operation", "calls", "errors", "ops/s", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)"));
+      synchronized (this._ops) {
+         for (Map.Entry<String, Samples> entry : this._ops.entrySet()) {
+            Samples s = entry.getValue();
+            long[] sorted = Arrays.copyOf(s.nanos, s.count);
+            Arrays.sort(sorted);
+            System.out.println(String.format(Locale.ROOT, "%-24s %9d %7d %10.1f %10.2f %10.2f %10.2f %10.2f",
+               entry.getKey(), s.count, s.errors,
+               s.count / (elapsedNanos / 1e9),
+               percentile(sorted, 0.50) / 1e6,
+               percentile(sorted, 0.99) / 1e6,
+               percentile(sorted, 0.999) / 1e6,
+               sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6));
+         }
+      }
+   }//end print
+
+   static long percentile(long[] sorted, double p) {
+      if (sorted.length == 0)
+         return 0;
+      int i = (int) Math.ceil(p * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+   }
+}//end LatencyReport
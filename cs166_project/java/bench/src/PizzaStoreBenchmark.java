@@ -0,0 +1,121 @@
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the core PizzaStore operations against a local database: login,
+ * menu rendering, placing orders of 1, 5 and 20 items, order info, recent
+ * orders and the store listing.
+ *
+ * Usage: PizzaStoreBenchmark <dbname> <port> <user>
+ *
+ * With -Dbench.seed=true the database is first rebuilt from data/*.csv at
+ * -Dbench.scale (default 1) with -Dbench.ordersPerScale synthetic orders per
+ * scale step (default 10000).  Seeding truncates every table.  The order
+ * placement cases insert real orders.
+ */
+public class PizzaStoreBenchmark {
+
+   public static void main(String[] args) throws Exception {
+      if (args.length != 3) {
+         System.err.println("Usage: java [-classpath <classpath>] PizzaStoreBenchmark <dbname> <port> <user>");
+         return;
+      }
+      Class.forName("org.postgresql.Driver");
+      final PizzaStore esql = new PizzaStore(args[0], args[1], args[2], "");
+      try {
+         if (Boolean.getBoolean("bench.seed")) {
+            new BenchmarkSeeder(esql, new File(System.getProperty("bench.data", "../data")),
+                                Integer.getInteger("bench.scale", 1),
+                                Integer.getInteger("bench.ordersPerScale", 10000)).seed();
+            esql.menu().refresh();
+         }
+         run(esql);
+      } finally {
+         esql.cleanup();
+      }
+   }//end main
+
+   private static void run(final PizzaStore esql) throws Exception {
+      final Random random = new Random(7);
+
+      // inputs sampled from whatever is in the database
+      final List<List<String>> users = esql.executeQueryAndReturnResult(
+         "SELECT login, password FROM Users ORDER BY login LIMIT 1000");
+      final List<List<String>> orders = esql.executeQueryAndReturnResult(
+         "SELECT orderID FROM FoodOrder ORDER BY orderID DESC LIMIT 1000");
+      final List<List<String>> openStores = esql.executeQueryAndReturnResult(
+         "SELECT storeID FROM Store WHERE isOpen = 'yes' LIMIT 100");
+      final List<String> itemNames = new ArrayList<String>();
+      for (String type : Arrays.asList("entree", "sides", "drinks"))
+         for (Item item : esql.menu().byType(type))
+            itemNames.add(item.itemName());
+      if (users.isEmpty() || orders.isEmpty() || openStores.isEmpty() || itemNames.isEmpty())
+         throw new IllegalStateException("Benchmark database is empty; run with -Dbench.seed=true");
+
+      final PizzaStoreService service = new DefaultPizzaStoreService(esql);
+      Benchmark bench = new Benchmark();
+
+      bench.measure("login", new Benchmark.Case() {
+         public void run(int i) throws Exception {
+            List<String> user = users.get(i % users.size());
+            service.logOut(service.logIn(user.get(0), user.get(1)));
+         }
+      });
+
+      bench.measure("viewMenu", new Benchmark.Case() {
+         public void run(int i) throws Exception {
+            StringBuilder out = new StringBuilder();
+            for (String type : Arrays.asList("entree", "sides", "drinks"))
+               for (Item item : esql.menu().byType(type))
+                  out.append(item.itemName()).append("------------------------$").append(item.price()).append('\n');
+         }
+      });
+
+      for (final int lineCount : new int[] { 1, 5, 20 }) {
+         bench.measure("placeOrder/" + lineCount + "items", new Benchmark.Case() {
+            public void run(int i) throws Exception {
+               List<String> names = new ArrayList<String>();
+               for (int k = 0; k < lineCount; ++k)
+                  names.add(itemNames.get((i + k) % itemNames.size()));
+               List<OrderLine> lines = new ArrayList<OrderLine>();
+               for (Map.Entry<String, BigDecimal> e : esql.priceItems(names).entrySet())
+                  lines.add(new OrderLine(e.getKey(), 1 + random.nextInt(3), e.getValue()));
+               int storeID = Integer.parseInt(openStores.get(i % openStores.size()).get(0));
+               esql.submitOrder(users.get(i % users.size()).get(0), storeID, lines);
+            }
+         });
+      }
+
+      bench.measure("viewOrderInfo", new Benchmark.Case() {
+         public void run(int i) throws Exception {
+            int orderID = Integer.parseInt(orders.get(i % orders.size()).get(0));
+            esql.findOrder(orderID);
+            esql.orderLines(orderID);
+         }
+      });
+
+      bench.measure("viewRecentOrders", new Benchmark.Case() {
+         public void run(int i) throws Exception {
+            esql.recentOrders(users.get(i % users.size()).get(0), 5);
+         }
+      });
+
+      bench.measure("viewStores/page", new Benchmark.Case() {
+         public void run(int i) throws Exception {
+            esql.storePage(null, true, PizzaStore.PAGE_SIZE + 1);
+         }
+      });
+
+      bench.measure("viewStores/all", new Benchmark.Case() {
+         public void run(int i) throws Exception {
+            esql.executeQueryStreaming("SELECT " + Store.COLUMNS + " FROM Store ORDER BY storeID",
+                                       new StoreColumns(1024));
+         }
+      });
+   }//end run
+}//end PizzaStoreBenchmark
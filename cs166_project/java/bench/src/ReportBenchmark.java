@@ -0,0 +1,153 @@
+import java.io.File;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Times the manager reports both ways, Reports.run (one streamed scan
+ * summed with fork/join) against Reports.runWithSql (a GROUP BY query per
+ * section), checks that the two agree, and measures what a running report
+ * does to the latency of a point lookup on the order path.
+ *
+ * Usage: ReportBenchmark <dbname> <port> <user>
+ *
+ * Settings:
+ *    bench.days       days covered, ending on the day of the newest order (default 30)
+ *    bench.runs       timed runs of each path after one warmup (default 5)
+ *    bench.topItems   items in the top items section (default 10)
+ *    bench.seed       rebuild the database first, see PizzaStoreBenchmark
+ */
+public class ReportBenchmark {
+
+   private interface Path {
+      Reports.Report run() throws Exception;
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length != 3) {
+         System.err.println("Usage: java [-classpath <classpath>] ReportBenchmark <dbname> <port> <user>");
+         return;
+      }
+      Class.forName("org.postgresql.Driver");
+      final PizzaStore esql = new PizzaStore(args[0], args[1], args[2], "");
+      try {
+         if (Boolean.getBoolean("bench.seed")) {
+            new BenchmarkSeeder(esql, new File(System.getProperty("bench.data", "../data")),
+                                Integer.getInteger("bench.scale", 1),
+                                Integer.getInteger("bench.ordersPerScale", 10000)).seed();
+            esql.stores().refresh();
+         }
+         run(esql);
+      } finally {
+         esql.cleanup();
+      }
+   }//end main
+
+   private static void run(final PizzaStore esql) throws Exception {
+      final int runs = Integer.getInteger("bench.runs", 5);
+      final int topItems = Integer.getInteger("bench.topItems", 10);
+      List<List<String>> newest = esql.executeQueryAndReturnResult(
+         "SELECT to_char(MAX(orderTimestamp), 'YYYY-MM-DD') FROM FoodOrder");
+      if (newest.get(0).get(0) == null)
+         throw new IllegalStateException("Benchmark database is empty; run with -Dbench.seed=true");
+      final LocalDate last = LocalDate.parse(newest.get(0).get(0));
+      final LocalDate first = last.minusDays(Integer.getInteger("bench.days", 30) - 1);
+      final Reports reports = esql.reports();
+
+      Path parallel = new Path() {
+         public Reports.Report run() throws Exception {
+            return reports.run(first, last, topItems);
+         }
+      };
+      Path sql = new Path() {
+         public Reports.Report run() throws Exception {
+            return reports.runWithSql(first, last, topItems);
+         }
+      };
+
+      System.out.println("Reports from " + first + " to " + last);
+      Reports.Report a = parallel.run();
+      Reports.Report b = sql.run();
+      System.out.println(String.format(Locale.ROOT, "sections: revenue %s, top items %s, averages %s, completion %s",
+         same(a.revenue(), b.revenue()), same(a.topItems(), b.topItems()),
+         same(a.averages(), b.averages()), same(a.completion(), b.completion())));
+
+      System.out.println(String.format(Locale.ROOT, "%-28s %8s %10s %10s %10s",
+         "report", "runs", "min(ms)", "p50(ms)", "max(ms)"));
+      time("reports/forkJoin", parallel, runs);
+      time("reports/sqlGroupBy", sql, runs);
+
+      // a point lookup on the order path, alone and beside a running report
+      List<List<String>> orders = esql.executeQueryAndReturnResult(
+         "SELECT orderID FROM FoodOrder ORDER BY orderID DESC LIMIT 1000");
+      final int[] orderIDs = new int[orders.size()];
+      for (int i = 0; i < orderIDs.length; ++i)
+         orderIDs[i] = Integer.parseInt(orders.get(i).get(0));
+      System.out.println(String.format(Locale.ROOT, "%-28s %8s %10s %10s %10s",
+         "findOrder", "calls", "p50(us)", "p99(us)", "max(us)"));
+      long busy = probe(esql, orderIDs, "findOrder/duringReports", parallel, runs, 0);
+      probe(esql, orderIDs, "findOrder/idle", null, 0, busy);
+   }//end run
+
+   private static String same(List<?> a, List<?> b) {
+      return a.equals(b) ? "agree (" + a.size() + " rows)" : "DIFFER (" + a.size() + " vs " + b.size() + " rows)";
+   }
+
+   private static void time(String name, Path path, int runs) throws Exception {
+      long[] millis = new long[runs];
+      for (int i = 0; i < runs; ++i) {
+         long start = System.nanoTime();
+         path.run();
+         millis[i] = (System.nanoTime() - start) / 1000000;
+      }
+      Arrays.sort(millis);
+      System.out.println(String.format(Locale.ROOT, "%-28s %8d %10d %10d %10d",
+         name, runs, millis[0], millis[runs / 2], millis[runs - 1]));
+   }
+
+   /*
+    * Looks orders up on another thread while the reports run, or for the
+    * given time when there are none; returns how long that took in ms.
+    */
+   private static long probe(final PizzaStore esql, final int[] orderIDs, String name, Path reports,
+                             int runs, long millis) throws Exception {
+      final LatencyHistogram latency = new LatencyHistogram();
+      final boolean[] stop = new boolean[1];
+      final List<Exception> failures = new ArrayList<Exception>();
+      Thread lookups = new Thread(new Runnable() {
+         public void run() {
+            try {
+               for (int i = 0; ; ++i) {
+                  synchronized (stop) {
+                     if (stop[0])
+                        return;
+                  }
+                  long start = System.nanoTime();
+                  esql.findOrder(orderIDs[i % orderIDs.length]);
+                  latency.record(System.nanoTime() - start);
+               }
+            } catch (Exception e) {
+               failures.add(e);
+            }
+         }
+      }, "probe");
+      long start = System.currentTimeMillis();
+      lookups.start();
+      if (reports == null)
+         Thread.sleep(millis);
+      for (int i = 0; i < runs; ++i)
+         reports.run();
+      long elapsed = System.currentTimeMillis() - start;
+      synchronized (stop) {
+         stop[0] = true;
+      }
+      lookups.join();
+      if (!failures.isEmpty())
+         throw failures.get(0);
+      System.out.println(String.format(Locale.ROOT, "%-28s %8d %10.1f %10.1f %10.1f", name, latency.count(),
+         latency.percentile(0.50) / 1e3, latency.percentile(0.99) / 1e3, latency.max() / 1e3));
+      return elapsed;
+   }//end probe
+}//end ReportBenchmark
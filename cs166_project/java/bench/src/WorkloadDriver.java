@@ -0,0 +1,282 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a mix of customer, driver and manager sessions against a
+ * PizzaStore database from many threads and reports throughput and
+ * p50/p99/p999 latency per operation.  Sessions are started on a fixed
+ * schedule (open loop), and each one's "session" latency counts from its
+ * scheduled start, so time spent queued behind a saturated database shows
+ * up in the numbers instead of silently lowering the offered load.
+ * Settings:
+ *    workload.threads    concurrent sessions (default 64)
+ *    workload.rate       sessions started per second, 0 for as fast as possible (default 200)
+ *    workload.duration   seconds to run (default 60)
+ *    workload.mix        percent of customer,driver,manager sessions (default 80,15,5)
+ *    workload.skew       Zipf exponent for which users log in (default 1.0)
+ *
+ * Usage: java WorkloadDriver <dbname> <port> <user>
+ */
+public class WorkloadDriver {
+
+   private final PizzaStoreService _service;
+   private final LatencyReport _report = new LatencyReport();
+   private final List<String[]> _customers;
+   private final List<String[]> _drivers;
+   private final List<String[]> _managers;
+   private final List<Integer> _openStores = new ArrayList<Integer>();
+   private final List<Integer> _incompleteOrders = new ArrayList<Integer>();
+   private final List<String> _itemNames = new ArrayList<String>();
+   private final int[] _mix = new int[3];
+   private final Zipf _customerSkew;
+   private final Zipf _driverSkew;
+   private final Zipf _managerSkew;
+
+   WorkloadDriver(PizzaStore esql) throws Exception {
+      this._service = new DefaultPizzaStoreService(esql);
+      double skew = Double.parseDouble(System.getProperty("workload.skew", "1.0"));
+      this._customers = users(esql, "customer");
+      this._drivers = users(esql, "driver");
+      this._managers = users(esql, "manager");
+      for (List<String> row : esql.executeQueryAndReturnResult("SELECT storeID FROM Store WHERE isOpen = 'yes' LIMIT 1000"))
+         this._openStores.add(Integer.parseInt(row.get(0)));
+      for (List<String> row : esql.executeQueryAndReturnResult(
+            "SELECT orderID FROM FoodOrder WHERE orderStatus <> 'complete' ORDER BY orderID DESC LIMIT 10000"))
+         this._incompleteOrders.add(Integer.parseInt(row.get(0)));
+      for (String type : DefaultPizzaStoreService.ITEM_TYPES)
+         for (Item item : this._service.viewMenu(type))
+            this._itemNames.add(item.itemName());
+      if (this._customers.isEmpty() || this._openStores.isEmpty() || this._itemNames.isEmpty())
+         throw new IllegalStateException("Workload database is empty; load a generated dataset first");
+
+      String[] mix = System.getProperty("workload.mix", "80,15,5").split(",");
+      for (int i = 0; i < 3; ++i)
+         this._mix[i] = Integer.parseInt(mix[i].trim());
+      this._customerSkew = new Zipf(this._customers.size(), skew);
+      this._driverSkew = this._drivers.isEmpty() ? null : new Zipf(this._drivers.size(), skew);
+      this._managerSkew = this._managers.isEmpty() ? null : new Zipf(this._managers.size(), skew);
+   }//end WorkloadDriver
+
+   public static void main(String[] args) throws Exception {
+      if (args.length != 3) {
+         System.err.println("Usage: java [-classpath <classpath>] WorkloadDriver <dbname> <port> <user>");
+         return;
+      }
+      Class.forName("org.postgresql.Driver");
+      PizzaStore esql = new PizzaStore(args[0], args[1], args[2], "");
+      try {
+         new WorkloadDriver(esql).run(Integer.getInteger("workload.threads", 64),
+                                      Integer.getInteger("workload.rate", 200),
+                                      Integer.getInteger("workload.duration", 60));
+      } finally {
+         esql.cleanup();
+      }
+   }//end main
+
+   /**
+    * Runs the workload and prints the report.
+    *
+    * @param threads concurrent sessions
+    * @param rate sessions started per second, 0 for as fast as possible
+    * @param duration seconds to run
+    * @throws java.lang.InterruptedException when interrupted while waiting
+    */
+   public void run(int threads, int rate, int duration) throws InterruptedException {
+      final long start = System.nanoTime();
+      final long end = start + duration * 1000000000L;
+      final long interval = rate > 0 ? 1000000000L / rate : 0;
+      final AtomicLong scheduled = new AtomicLong();
+
+      ExecutorService workers = Executors.newFixedThreadPool(threads);
+      for (int t = 0; t < threads; ++t) {
+         final Random random = new Random(t);
+         workers.execute(new Runnable() {
+            public void run() {
+               while (true) {
+                  long due = start + scheduled.getAndIncrement() * interval;
+                  if (due >= end)
+                     return;
+                  long wait = due - System.nanoTime();
+                  if (wait > 0) {
+                     try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                     } catch (InterruptedException e) {
+                        return;
+                     }
+                  }
+                  if (interval == 0)
+                     due = System.nanoTime();
+                  session(random, due);
+               }
+            }
+         });
+      }
+      workers.shutdown();
+      workers.awaitTermination(duration + 60L, TimeUnit.SECONDS);
+      this._report.print(System.nanoTime() - start);
+   }//end run
+
+   private void session(Random random, long due) {
+      int r = random.nextInt(this._mix[0] + this._mix[1] + this._mix[2]);
+      String kind = "customer";
+      if (r >= this._mix[0] + this._mix[1] && this._managerSkew != null)
+         kind = "manager";
+      else if (r >= this._mix[0] && r < this._mix[0] + this._mix[1] && this._driverSkew != null)
+         kind = "driver";
+
+      try {
+         if (kind.equals("customer"))
+            customer(random, this._customers.get(this._customerSkew.next(random)));
+         else if (kind.equals("driver"))
+            driver(random, this._drivers.get(this._driverSkew.next(random)));
+         else
+            manager(random, this._managers.get(this._managerSkew.next(random)));
+         this._report.record("session/" + kind, System.nanoTime() - due);
+      } catch (Exception e) {
+         this._report.error("session/" + kind);
+      }
+   }//end session
+
+   private void customer(Random random, String[] user) throws Exception {
+      final Session session = logIn(user);
+      try {
+         time("viewMenu", new Op() {
+            public Object call() throws Exception {
+               List<Item> all = new ArrayList<Item>();
+               for (String type : DefaultPizzaStoreService.ITEM_TYPES)
+                  all.addAll(WorkloadDriver.this._service.viewMenu(type));
+               return all;
+            }
+         });
+         time("viewStores", new Op() {
+            public Object call() throws Exception {
+               return WorkloadDriver.this._service.storePage(null, true, PizzaStore.PAGE_SIZE + 1);
+            }
+         });
+
+         final Map<String, Integer> quantities = new LinkedHashMap<String, Integer>();
+         for (int i = 1 + random.nextInt(4); i > 0; --i)
+            quantities.put(this._itemNames.get(random.nextInt(this._itemNames.size())), 1 + random.nextInt(3));
+         final int storeID = this._openStores.get(random.nextInt(this._openStores.size()));
+         final OrderReceipt receipt = (OrderReceipt) time("placeOrder", new Op() {
+            public Object call() throws Exception {
+               return WorkloadDriver.this._service.placeOrder(session, storeID, quantities);
+            }
+         });
+
+         time("viewRecentOrders", new Op() {
+            public Object call() throws Exception {
+               return WorkloadDriver.this._service.recentOrders(session);
+            }
+         });
+         time("viewAllOrders", new Op() {
+            public Object call() throws Exception {
+               return WorkloadDriver.this._service.orderHistoryPage(session, null, true, PizzaStore.PAGE_SIZE + 1);
+            }
+         });
+         time("viewOrderInfo", new Op() {
+            public Object call() throws Exception {
+               return WorkloadDriver.this._service.orderInfo(session, receipt.orderID());
+            }
+         });
+      } finally {
+         this._service.logOut(session);
+      }
+   }//end customer
+
+   private void driver(Random random, String[] user) throws Exception {
+      final Session session = logIn(user);
+      try {
+         if (this._incompleteOrders.isEmpty())
+            return;
+         final int orderID = this._incompleteOrders.get(random.nextInt(this._incompleteOrders.size()));
+         time("viewOrderInfo", new Op() {
+            public Object call() throws Exception {
+               return WorkloadDriver.this._service.orderInfo(session, orderID);
+            }
+         });
+         time("updateOrderStatus", new Op() {
+            public Object call() throws Exception {
+               WorkloadDriver.this._service.updateOrderStatus(session, orderID, "complete");
+               return null;
+            }
+         });
+      } finally {
+         this._service.logOut(session);
+      }
+   }//end driver
+
+   private void manager(Random random, String[] user) throws Exception {
+      final Session session = logIn(user);
+      try {
+         Store boundary = null;
+         for (int page = 0; page < 3; ++page) {
+            final Store from = boundary;
+            @SuppressWarnings("unchecked")
+            List<Store> stores = (List<Store>) time("viewStores", new Op() {
+               public Object call() throws Exception {
+                  return WorkloadDriver.this._service.storePage(from, true, PizzaStore.PAGE_SIZE + 1);
+               }
+            });
+            if (stores.isEmpty())
+               break;
+            boundary = stores.get(stores.size() - 1);
+         }
+         final String itemName = this._itemNames.get(random.nextInt(this._itemNames.size()));
+         time("findItem", new Op() {
+            public Object call() throws Exception {
+               return WorkloadDriver.this._service.findItem(session, itemName);
+            }
+         });
+         time("viewMenuByPrice", new Op() {
+            public Object call() throws Exception {
+               return WorkloadDriver.this._service.viewMenuByPrice("entree", false);
+            }
+         });
+      } finally {
+         this._service.logOut(session);
+      }
+   }//end manager
+
+   private Session logIn(final String[] user) throws Exception {
+      return (Session) time("login", new Op() {
+         public Object call() throws Exception {
+            return WorkloadDriver.this._service.logIn(user[0], user[1]);
+         }
+      });
+   }
+
+   private interface Op {
+      Object call() throws Exception;
+   }
+
+   /*
+    * Runs one operation and records its latency, or an error if it threw.
+    */
+   private Object time(String name, Op op) throws Exception {
+      long t0 = System.nanoTime();
+      try {
+         Object result = op.call();
+         this._report.record(name, System.nanoTime() - t0);
+         return result;
+      } catch (Exception e) {
+         this._report.error(name);
+         throw e;
+      }
+   }
+
+   private static List<String[]> users(PizzaStore esql, String role) throws Exception {
+      List<String[]> users = new ArrayList<String[]>();
+      for (List<String> row : esql.executeQueryAndReturnResult(
+            "SELECT login, password FROM Users WHERE role = ? ORDER BY login LIMIT 10000", role))
+         users.add(new String[] { row.get(0), row.get(1) });
+      return users;
+   }
+}//end WorkloadDriver
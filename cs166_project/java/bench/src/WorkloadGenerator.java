@@ -0,0 +1,220 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a scaled dataset in the format of data/*.csv, so it loads with the
+ * same COPY statements.  Users, stores and items are picked for orders with
+ * Zipf-skewed popularity: a few customers order constantly, most rarely, and
+ * a few items make up most line items.  Menu items are taken from
+ * items.csv; store cities and states are sampled from store.csv.
+ * Settings:
+ *    workload.users    number of users (default 100000)
+ *    workload.stores   number of stores (default 10000)
+ *    workload.orders   number of orders (default 1000000)
+ *    workload.days     orders are spread over this many days up to now (default 365)
+ *    workload.skew     Zipf exponent for user, store and item popularity (default 1.0)
+ *    workload.seed     random seed (default 1)
+ *    workload.data     directory holding the sample CSVs (default ../data)
+ *
+ * Usage: java WorkloadGenerator <outputDir>
+ */
+public class WorkloadGenerator {
+
+   private static final String[] ROLES = { "customer", "driver", "manager" };
+   private static final String[] STREETS = { "Main Street", "Oak Avenue", "Hallows Center", "Bunker Hill Avenue",
+                                             "Sunset Boulevard", "Park Place", "Elm Court", "Lake Drive" };
+
+   private final int _users = Integer.getInteger("workload.users", 100000);
+   private final int _stores = Integer.getInteger("workload.stores", 10000);
+   private final int _orders = Integer.getInteger("workload.orders", 1000000);
+   private final int _days = Integer.getInteger("workload.days", 365);
+   private final double _skew = Double.parseDouble(System.getProperty("workload.skew", "1.0"));
+   private final Random _random = new Random(Long.getLong("workload.seed", 1L));
+   private final File _data = new File(System.getProperty("workload.data", "../data"));
+
+   public static void main(String[] args) throws IOException {
+      if (args.length != 1) {
+         System.err.println("Usage: java [-classpath <classpath>] WorkloadGenerator <outputDir>");
+         return;
+      }
+      File out = new File(args[0]);
+      if (!out.isDirectory() && !out.mkdirs())
+         throw new IOException("Cannot create " + out);
+      new WorkloadGenerator().generate(out);
+   }
+
+   /**
+    * Writes users.csv, items.csv, store.csv, foodorder.csv and
+    * itemsinorder.csv into a directory.
+    *
+    * @param out the directory to write to
+    * @throws java.io.IOException when a file cannot be read or written
+    */
+   public void generate(File out) throws IOException {
+      long start = System.nanoTime();
+
+      // the menu is the sample menu; popularity follows menu order
+      List<List<String>> items = read(new File(this._data, "items.csv"));
+      List<List<String>> places = read(new File(this._data, "store.csv"));
+      copyItems(items, new File(out, "items.csv"));
+
+      writeUsers(new File(out, "users.csv"));
+      writeStores(places, new File(out, "store.csv"));
+      long lines = writeOrders(items, new File(out, "foodorder.csv"), new File(out, "itemsinorder.csv"));
+
+      double seconds = (System.nanoTime() - start) / 1e9;
+      long rows = this._users + this._stores + this._orders + lines + items.size();
+      System.out.println(String.format("Wrote %d users, %d stores, %d items, %d orders, %d order lines to %s in %.1fs (%.0f rows/s)",
+         this._users, this._stores, items.size(), this._orders, lines, out, seconds, rows / seconds));
+   }//end generate
+
+   private void copyItems(List<List<String>> items, File file) throws IOException {
+      Writer w = open(file);
+      try {
+         w.write("itemName,\"ingredients\",typeOfItem,price,\"description\"\n");
+         for (List<String> item : items)
+            row(w, item.get(0), item.get(1), item.get(2), item.get(3), item.get(4));
+      } finally {
+         w.close();
+      }
+   }
+
+   private void writeUsers(File file) throws IOException {
+      Writer w = open(file);
+      try {
+         w.write("login,password,role,favoriteItems,phoneNum\n");
+         for (int i = 0; i < this._users; ++i) {
+            // 2% managers, 8% drivers, the rest customers
+            int r = this._random.nextInt(100);
+            String role = ROLES[r < 90 ? 0 : r < 98 ? 1 : 2];
+            String phone = String.format("%03d-%03d-%04d", 200 + this._random.nextInt(800),
+                                         this._random.nextInt(1000), this._random.nextInt(10000));
+            row(w, login(i), "pw" + i, role, "", phone);
+         }
+      } finally {
+         w.close();
+      }
+   }//end writeUsers
+
+   private void writeStores(List<List<String>> places, File file) throws IOException {
+      Writer w = open(file);
+      try {
+         w.write("storeID,address,city,state,isOpen,reviewScore\n");
+         for (int i = 1; i <= this._stores; ++i) {
+            List<String> place = places.get(this._random.nextInt(places.size()));
+            String address = (1 + this._random.nextInt(99999)) + " " + STREETS[this._random.nextInt(STREETS.length)];
+            String open = this._random.nextInt(100) < 85 ? "yes" : "no";
+            String score = this._random.nextInt(10) == 0 ? "" : String.valueOf(1 + this._random.nextInt(5));
+            row(w, String.valueOf(i), address, place.get(2), place.get(3), open, score);
+         }
+      } finally {
+         w.close();
+      }
+   }//end writeStores
+
+   private long writeOrders(List<List<String>> items, File orderFile, File lineFile) throws IOException {
+      Zipf users = new Zipf(this._users, this._skew);
+      Zipf stores = new Zipf(this._stores, this._skew);
+      Zipf menu = new Zipf(items.size(), this._skew);
+      BigDecimal[] prices = new BigDecimal[items.size()];
+      for (int i = 0; i < prices.length; ++i)
+         prices[i] = new BigDecimal(items.get(i).get(3));
+
+      SimpleDateFormat timestamps = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+      long now = System.currentTimeMillis();
+      long span = this._days * 86400000L;
+      long lines = 0;
+      Writer orders = open(orderFile);
+      Writer lineItems = open(lineFile);
+      try {
+         orders.write("orderID,login,storeID,totalPrice,\"orderTimestamp\",orderStatus\n");
+         lineItems.write("orderID,itemName,quantity\n");
+         boolean[] picked = new boolean[items.size()];
+         for (int orderID = 1; orderID <= this._orders; ++orderID) {
+            // orders arrive in orderID order across the whole span
+            long time = now - span + (long) ((double) orderID / this._orders * span) - this._random.nextInt(60000);
+            // anything older than a day has been delivered
+            String status = now - time > 86400000L ? "complete" : "incomplete";
+
+            BigDecimal total = BigDecimal.ZERO;
+            int count = 1 + Math.min(items.size() - 1, this._random.nextInt(5));
+            Arrays.fill(picked, false);
+            for (int k = 0; k < count; ++k) {
+               int item = menu.next(this._random);
+               if (picked[item])
+                  continue;
+               picked[item] = true;
+               int quantity = 1 + this._random.nextInt(3);
+               total = total.add(prices[item].multiply(BigDecimal.valueOf(quantity)));
+               row(lineItems, String.valueOf(orderID), items.get(item).get(0), String.valueOf(quantity));
+               ++lines;
+            }
+            row(orders, String.valueOf(orderID), login(users.next(this._random)),
+                String.valueOf(1 + stores.next(this._random)),
+                total.setScale(2, RoundingMode.HALF_UP).toPlainString(),
+                timestamps.format(new Date(time)), status);
+         }
+      } finally {
+         orders.close();
+         lineItems.close();
+      }
+      return lines;
+   }//end writeOrders
+
+   /**
+    * @param i the user number
+    * @return the login generated for that user
+    */
+   static String login(int i) {
+      return "user" + i;
+   }
+
+   private static List<List<String>> read(File file) throws IOException {
+      List<List<String>> rows = new ArrayList<List<String>>();
+      CsvReader in = new CsvReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+      try {
+         in.next(); // header
+         List<String> row;
+         while ((row = in.next()) != null)
+            rows.add(row);
+      } finally {
+         in.close();
+      }
+      return rows;
+   }
+
+   private static Writer open(File file) throws IOException {
+      return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+   }
+
+   private static void row(Writer w, String... fields) throws IOException {
+      for (int i = 0; i < fields.length; ++i) {
+         if (i > 0)
+            w.write(',');
+         String f = fields[i];
+         if (f.indexOf(',') >= 0 || f.indexOf('"') >= 0) {
+            w.write('"');
+            w.write(f.replace("\"", "\"\""));
+            w.write('"');
+         } else {
+            w.write(f);
+         }
+      }
+      w.write('\n');
+   }
+}//end WorkloadGenerator
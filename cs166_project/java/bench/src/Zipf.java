@@ -0,0 +1,45 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Draws ranks 0..n-1 with Zipf-distributed popularity: rank k is picked in
+ * proportion to 1 / (k + 1)^s.  s = 0 is uniform; around 1 a few ranks take
+ * most of the draws, which is how users and menu items behave in practice.
+ */
+public class Zipf {
+
+   private final double[] _cdf;
+
+   /**
+    * @param n the number of ranks
+    * @param s the skew exponent, 0 for uniform
+    */
+   public Zipf(int n, double s) {
+      if (n < 1)
+         throw new IllegalArgumentException("n must be positive");
+      this._cdf = new double[n];
+      double sum = 0;
+      for (int k = 0; k < n; ++k) {
+         sum += 1.0 / Math.pow(k + 1, s);
+         this._cdf[k] = sum;
+      }
+      for (int k = 0; k < n; ++k)
+         this._cdf[k] /= sum;
+   }
+
+   /**
+    * @param random the source of randomness
+    * @return a rank in 0..n-1
+    */
+   public int next(Random random) {
+      int i = Arrays.binarySearch(this._cdf, random.nextDouble());
+      return Math.min(i < 0 ? -i - 1 : i, this._cdf.length - 1);
+   }
+
+   /**
+    * @return the number of ranks
+    */
+   public int size() {
+      return this._cdf.length;
+   }
+}//end Zipf
@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program together with the benchmarks
+mkdir -p $DIR/../bench/classes
+javac -d $DIR/../bench/classes $DIR/../src/*.java $DIR/../bench/src/*.java
+
+#run the benchmarks
+#Use your database name, port number and login
+#Pass settings through BENCH_OPTS, e.g.
+#  BENCH_OPTS="-Dbench.seed=true -Dbench.scale=10 -Dbench.iterations=5000" ./bench.sh
+java $BENCH_OPTS -Dbench.data=$DIR/../../data -cp $DIR/../bench/classes:$DIR/../lib/pg73jdbc3.jar PizzaStoreBenchmark $USER"_project_phase_3_DB" $PGPORT $USER
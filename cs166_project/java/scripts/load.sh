@@ -0,0 +1,15 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#bulk load a dataset into a database created by create_tables.sql
+#Use your database name, port number and login; the data directory defaults to data/
+#Pass settings through LOAD_OPTS, e.g.
+#  LOAD_OPTS="-Dload.threads=8 -Dload.truncate=true" ./load.sh /tmp/pizza
+java $LOAD_OPTS -Dload.indexes=$DIR/../../sql/src/create_indexes.sql -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar BulkLoader $USER"_project_phase_3_DB" $PGPORT $USER ${1:-$DIR/../../data}
+
+#move the loaded orders out of FoodOrder_default into monthly partitions
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PartitionMaintenance $USER"_project_phase_3_DB" $PGPORT $USER
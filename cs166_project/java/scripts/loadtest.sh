@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program together with the benchmarks
+mkdir -p $DIR/../bench/classes
+javac -d $DIR/../bench/classes $DIR/../src/*.java $DIR/../bench/src/*.java
+
+#load test a server started with serve.sh
+#Pass settings through LOAD_OPTS, e.g.
+#  LOAD_OPTS="-Dload.users=2000 -Dload.duration=60" ./loadtest.sh
+java $LOAD_OPTS -cp $DIR/../bench/classes HttpLoadTest http://localhost:${HTTP_PORT:-8080}
@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#create upcoming monthly FoodOrder partitions and archive old ones; run daily from cron
+#Use your database name, port number and login
+#Pass settings through PARTITION_OPTS, e.g.
+#  PARTITION_OPTS="-Dpartitions.ahead=6 -Dpartitions.keep=24" ./partitions.sh
+java $PARTITION_OPTS -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PartitionMaintenance $USER"_project_phase_3_DB" $PGPORT $USER
@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#run the HTTP front end
+#Use your database name, port number and login; HTTP_PORT defaults to 8080
+#Per-operation latencies are written to stderr every METRICS_SECONDS (default 60)
+#and are also readable over JMX, e.g. with jconsole
+java -Dpizzastore.metrics.dumpSeconds=${METRICS_SECONDS:-60} -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PizzaStore $USER"_project_phase_3_DB" $PGPORT $USER --serve ${HTTP_PORT:-8080}
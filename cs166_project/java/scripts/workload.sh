@@ -0,0 +1,19 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program together with the benchmarks
+mkdir -p $DIR/../bench/classes
+javac -d $DIR/../bench/classes $DIR/../src/*.java $DIR/../bench/src/*.java
+
+#generate a dataset:   ./workload.sh generate <outputDir>
+#replay sessions:      ./workload.sh drive
+#Pass settings through WORKLOAD_OPTS, e.g.
+#  WORKLOAD_OPTS="-Dworkload.orders=5000000 -Dworkload.skew=1.2" ./workload.sh generate /tmp/pizza
+#  WORKLOAD_OPTS="-Dworkload.rate=500 -Dworkload.threads=128" ./workload.sh drive
+CP=$DIR/../bench/classes:$DIR/../lib/pg73jdbc3.jar
+case "$1" in
+   generate) java $WORKLOAD_OPTS -Dworkload.data=$DIR/../../data -cp $CP WorkloadGenerator $2 ;;
+   drive) java $WORKLOAD_OPTS -cp $CP WorkloadDriver $USER"_project_phase_3_DB" $PGPORT $USER ;;
+   *) echo "Usage: $0 generate <outputDir> | drive" ;;
+esac
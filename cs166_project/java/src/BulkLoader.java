@@ -0,0 +1,536 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads data/*.csv (or a generated dataset in the same format) into a
+ * PizzaStore database, replacing load_data.sql for large datasets.
+ *
+ *  - Files are read with positioned NIO reads and split into line-aligned
+ *    chunks, each streamed to the server on its own connection, so a big
+ *    foodorder.csv loads on every thread at once.
+ *  - Tables that do not reference each other load in parallel: Users, Items
+ *    and Store first, then FoodOrder, then ItemsInOrder.
+ *  - The secondary indexes of create_indexes.sql are dropped before the
+ *    load and built afterwards, also in parallel, followed by ANALYZE.
+ *
+ * A load is not one transaction: each chunk commits on its own, so a load
+ * that fails leaves the rows of the chunks that finished.  The indexes are
+ * rebuilt either way; truncate and load again to start over.
+ *  - Rows go through the driver's COPY FROM STDIN API when it has one
+ *    (PGConnection.getCopyAPI, pgjdbc 8.4+).  The bundled pg73 driver does
+ *    not, so with it chunks are sent as batched multi-row INSERTs instead.
+ *
+ * Settings:
+ *    load.threads     connections loading at once (default 4)
+ *    load.chunkMb     target chunk size in MB (default 64)
+ *    load.truncate    empty the tables first (default false)
+ *    load.indexes     the index script (default ../../sql/src/create_indexes.sql)
+ *    load.insertRows  rows per INSERT when COPY is unavailable (default 500)
+ *
+ * Quoted CSV fields may not span lines, as with CsvReader.
+ *
+ * Usage: java BulkLoader <dbname> <port> <user> <dataDir>
+ */
+public class BulkLoader {
+
+   // tables in load order; a table only references tables in earlier groups
+   private static final String[][] LEVELS = {
+      { "Users", "Items", "Store" },
+      { "FoodOrder" },
+      { "ItemsInOrder" }
+   };
+
+   private static final Pattern CREATE_INDEX = Pattern.compile("(?i)CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+(\\w+)");
+
+   private final ConnectionPool _pool;
+   private final File _dataDir;
+   private final int _threads = Integer.getInteger("load.threads", 4);
+   private final long _chunkBytes = Integer.getInteger("load.chunkMb", 64) * 1024L * 1024L;
+   private final int _insertRows = Integer.getInteger("load.insertRows", 500);
+
+   /**
+    * @param url the JDBC connection URL
+    * @param user the database user
+    * @param dataDir the directory holding the CSV files
+    */
+   public BulkLoader(String url, String user, File dataDir) {
+      // one connection per loading thread; a chunk may hold one for minutes
+      this._pool = new ConnectionPool(url, user, "", this._threads, 60L * 60 * 1000,
+                                      ConnectionPool.DEFAULT_IDLE_TIMEOUT_MS, 24L * 60 * 60 * 1000,
+                                      ConnectionPool.DEFAULT_VALIDATE_AFTER_MS);
+      this._dataDir = dataDir;
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length != 4) {
+         System.err.println("Usage: java [-classpath <classpath>] BulkLoader <dbname> <port> <user> <dataDir>");
+         return;
+      }
+      Class.forName("org.postgresql.Driver");
+      BulkLoader loader = new BulkLoader("jdbc:postgresql://localhost:" + args[1] + "/" + args[0], args[2],
+                                         new File(args[3]));
+      try {
+         loader.load(new File(System.getProperty("load.indexes", "../../sql/src/create_indexes.sql")),
+                     Boolean.getBoolean("load.truncate"));
+      } finally {
+         loader.close();
+      }
+   }//end main
+
+   /**
+    * Loads every table, then builds the indexes.  When the load fails the
+    * indexes are still rebuilt over the rows loaded so far, and the tables
+    * are left partly loaded.
+    *
+    * @param indexScript create_indexes.sql, or a missing file to skip indexes
+    * @param truncate true to empty the tables first
+    * @throws java.lang.Exception when a file cannot be read or a statement fails
+    */
+   public void load(File indexScript, boolean truncate) throws Exception {
+      long start = System.nanoTime();
+      List<String> indexes = indexScript.isFile() ? statements(indexScript) : new ArrayList<String>();
+
+      // indexes are cheaper to build once than to maintain row by row
+      List<String> drops = new ArrayList<String>();
+      for (String ddl : indexes) {
+         Matcher m = CREATE_INDEX.matcher(ddl);
+         if (m.find())
+            drops.add("DROP INDEX IF EXISTS " + m.group(1));
+      }
+      if (truncate)
+         drops.add("TRUNCATE Users, Items, Store, FoodOrder, OrderIds, ItemsInOrder, UserItemStats CASCADE");
+
+      // orderIDs handed out by the application must follow the loaded ones
+      List<String> after = new ArrayList<String>();
+      after.add("SELECT setval('FoodOrder_orderID_seq', (SELECT COALESCE(MAX(orderID), 0) + 1 FROM FoodOrder), false)");
+      // the application keeps UserItemStats current order by order; a load rebuilds it once
+      after.add("DELETE FROM UserItemStats");
+      after.add("INSERT INTO UserItemStats (login, itemName, timesOrdered, totalQuantity, lastOrdered) " +
+                "SELECT O.login, I.itemName, COUNT(*), SUM(I.quantity), MAX(O.orderTimestamp) " +
+                "FROM FoodOrder O JOIN ItemsInOrder I ON I.orderID = O.orderID GROUP BY O.login, I.itemName");
+
+      long rows;
+      double loadSeconds;
+      long indexStart;
+      boolean indexed = false;
+      try {
+         execute(drops);
+         rows = loadTables();
+         loadSeconds = (System.nanoTime() - start) / 1e9;
+         execute(after);
+
+         indexStart = System.nanoTime();
+         executeParallel(indexes);
+         indexed = true;
+      } finally {
+         if (!indexed)
+            restoreIndexes(indexScript, indexes);
+      }
+      List<String> analyze = new ArrayList<String>();
+      for (String[] level : LEVELS)
+         for (String table : level)
+            analyze.add("ANALYZE " + table);
+      executeParallel(analyze);
+      double indexSeconds = (System.nanoTime() - indexStart) / 1e9;
+
+      System.out.println(String.format("Loaded %d rows in %.1fs (%.0f rows/s); %d indexes and ANALYZE took %.1fs",
+                                       rows, loadSeconds, rows / loadSeconds, indexes.size(), indexSeconds));
+   }//end load
+
+   /*
+    * Loads the CSV files level by level; returns the rows loaded.
+    */
+   private long loadTables() throws Exception {
+      boolean copy = copyApi(null) != null;
+      System.out.println("Loading " + this._dataDir + " on " + this._threads + " connections using "
+                         + (copy ? "COPY FROM STDIN" : "batched INSERT (driver has no COPY API)"));
+      long rows = 0;
+      ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+      try {
+         for (String[] level : LEVELS) {
+            List<TableLoad> loads = new ArrayList<TableLoad>();
+            for (String table : level) {
+               File file = new File(this._dataDir, table.toLowerCase() + ".csv");
+               if (file.isFile())
+                  loads.add(new TableLoad(table, file, workers));
+               else
+                  System.out.println(table + ": no " + file.getName() + ", skipped");
+            }
+            for (TableLoad load : loads)
+               rows += load.await();
+         }
+      } finally {
+         // after a failure, let the other chunks stop before the indexes go back
+         workers.shutdownNow();
+         workers.awaitTermination(1, TimeUnit.HOURS);
+      }
+      return rows;
+   }//end loadTables
+
+   /*
+    * Puts the dropped indexes back after a failed load, one at a time so
+    * that one that was never dropped does not stop the rest.  What cannot
+    * be rebuilt is printed along with how to do it by hand.
+    */
+   private void restoreIndexes(File indexScript, List<String> indexes) {
+      System.err.println("Load failed; the tables hold a partial load. Rebuilding indexes.");
+      int failed = 0;
+      for (String ddl : indexes) {
+         try {
+            List<String> one = new ArrayList<String>();
+            one.add(ddl);
+            execute(one);
+         } catch (SQLException e) {
+            ++failed;
+            System.err.println(ddl + ": " + e.getMessage());
+         }
+      }
+      if (failed > 0)
+         System.err.println(failed + " indexes were not rebuilt; run psql -f " + indexScript + " to restore them");
+   }//end restoreIndexes
+
+   /**
+    * Closes the connections.
+    */
+   public void close() {
+      this._pool.close();
+   }
+
+   /*
+    * The chunks of one table, loading on the shared workers.
+    */
+   private class TableLoad {
+      private final String _table;
+      private final long _start = System.nanoTime();
+      private final List<Future<Long>> _chunks = new ArrayList<Future<Long>>();
+
+      TableLoad(final String table, final File file, ExecutorService workers) throws IOException {
+         this._table = table;
+         final List<long[]> ranges = chunks(file);
+         for (int i = 0; i < ranges.size(); ++i) {
+            final long[] range = ranges.get(i);
+            final boolean header = i == 0;
+            this._chunks.add(workers.submit(new Callable<Long>() {
+               public Long call() throws Exception {
+                  return loadChunk(table, file, range[0], range[1], header);
+               }
+            }));
+         }
+      }
+
+      long await() throws InterruptedException, ExecutionException {
+         long rows = 0;
+         for (Future<Long> chunk : this._chunks)
+            rows += chunk.get();
+         double seconds = (System.nanoTime() - this._start) / 1e9;
+         System.out.println(String.format("%-13s %12d rows %4d chunks %8.1fs %12.0f rows/s",
+                                          this._table, rows, this._chunks.size(), seconds, rows / seconds));
+         return rows;
+      }
+   }//end TableLoad
+
+   /*
+    * Splits a file into byte ranges of about load.chunkMb that start at
+    * the beginning of a line.
+    */
+   private List<long[]> chunks(File file) throws IOException {
+      List<long[]> ranges = new ArrayList<long[]>();
+      FileChannel channel = new FileInputStream(file).getChannel();
+      try {
+         long size = channel.size();
+         long start = 0;
+         ByteBuffer one = ByteBuffer.allocate(1);
+         while (start < size) {
+            long end = Math.min(size, start + this._chunkBytes);
+            // move the split just past the next newline
+            while (end < size) {
+               one.clear();
+               channel.read(one, end++);
+               if (one.get(0) == '\n')
+                  break;
+            }
+            ranges.add(new long[] { start, end });
+            start = end;
+         }
+      } finally {
+         channel.close();
+      }
+      return ranges;
+   }//end chunks
+
+   /*
+    * Streams one chunk of a CSV file into a table in its own transaction.
+    */
+   private long loadChunk(String table, File file, long start, long end, boolean header) throws Exception {
+      FileChannel channel = new FileInputStream(file).getChannel();
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      boolean broken = true;
+      try {
+         Connection connection = pc.connection();
+         Reader in = new BufferedReader(Channels.newReader(new RangeChannel(channel, start, end),
+                                                           StandardCharsets.UTF_8.newDecoder(), 1 << 16), 1 << 16);
+         connection.setAutoCommit(false);
+         long rows;
+         try {
+            Object api = copyApi(connection);
+            if (api != null)
+               rows = copy(api, table, in, header);
+            else
+               rows = insert(connection, table, in, header);
+            connection.commit();
+         } catch (Exception e) {
+            connection.rollback();
+            throw e;
+         } finally {
+            connection.setAutoCommit(true);
+         }
+         broken = false;
+         return rows;
+      } finally {
+         pc.release(broken);
+         channel.close();
+      }
+   }//end loadChunk
+
+   private static long copy(Object api, String table, Reader in, boolean header) throws Exception {
+      String sql = "COPY " + table + " FROM STDIN WITH DELIMITER ',' CSV" + (header ? " HEADER" : "");
+      Method copyIn = api.getClass().getMethod("copyIn", String.class, Reader.class, int.class);
+      return ((Number) copyIn.invoke(api, sql, in, 1 << 16)).longValue();
+   }
+
+   /*
+    * Fallback for drivers without COPY: multi-row INSERTs, sent in JDBC
+    * batches, with every value cast from text to its column's type.  Fields
+    * keep their surrounding whitespace so both paths load the same values.
+    */
+   private long insert(Connection connection, String table, Reader reader, boolean header) throws SQLException, IOException {
+      CsvReader in = new CsvReader(reader, false);
+      if (header)
+         in.next();
+
+      String[] types = columnTypes(connection, table);
+      StringBuilder row = new StringBuilder("(");
+      for (int c = 0; c < types.length; ++c)
+         row.append(c == 0 ? "" : ", ").append("CAST(? AS ").append(types[c]).append(')');
+      row.append(')');
+      StringBuilder sql = new StringBuilder("INSERT INTO " + table + " VALUES ");
+      for (int r = 0; r < this._insertRows; ++r)
+         sql.append(r == 0 ? "" : ", ").append(row);
+
+      long rows = 0;
+      PreparedStatement full = connection.prepareStatement(sql.toString());
+      try {
+         List<List<String>> pending = new ArrayList<List<String>>(this._insertRows);
+         int batched = 0;
+         List<String> fields;
+         while ((fields = in.next()) != null) {
+            pending.add(fields);
+            if (pending.size() == this._insertRows) {
+               bind(full, pending, types.length);
+               full.addBatch();
+               pending.clear();
+               if (++batched == 20) {
+                  full.executeBatch();
+                  batched = 0;
+               }
+            }
+            ++rows;
+         }
+         if (batched > 0)
+            full.executeBatch();
+         if (!pending.isEmpty()) {
+            StringBuilder tail = new StringBuilder("INSERT INTO " + table + " VALUES ");
+            for (int r = 0; r < pending.size(); ++r)
+               tail.append(r == 0 ? "" : ", ").append(row);
+            PreparedStatement last = connection.prepareStatement(tail.toString());
+            try {
+               bind(last, pending, types.length);
+               last.executeUpdate();
+            } finally {
+               last.close();
+            }
+         }
+      } finally {
+         full.close();
+      }
+      return rows;
+   }//end insert
+
+   private static void bind(PreparedStatement stmt, List<List<String>> rows, int columns) throws SQLException {
+      int p = 1;
+      for (List<String> fields : rows) {
+         for (int c = 0; c < columns; ++c) {
+            // like COPY ... CSV, an empty field is NULL
+            String value = c < fields.size() ? fields.get(c) : "";
+            if (value.isEmpty())
+               stmt.setNull(p++, java.sql.Types.VARCHAR);
+            else
+               stmt.setString(p++, value);
+         }
+      }
+   }
+
+   private static String[] columnTypes(Connection connection, String table) throws SQLException {
+      Statement stmt = connection.createStatement();
+      try {
+         ResultSetMetaData meta = stmt.executeQuery("SELECT * FROM " + table + " WHERE false").getMetaData();
+         String[] types = new String[meta.getColumnCount()];
+         for (int c = 0; c < types.length; ++c)
+            types[c] = meta.getColumnTypeName(c + 1);
+         return types;
+      } finally {
+         stmt.close();
+      }
+   }
+
+   /*
+    * The driver's CopyManager for a connection, or null when the driver has
+    * none.  With a null connection only checks that the API exists.
+    */
+   private static Object copyApi(Connection connection) {
+      try {
+         Class<?> pgConnection = Class.forName("org.postgresql.PGConnection");
+         Method getCopyAPI = pgConnection.getMethod("getCopyAPI");
+         if (connection == null)
+            return getCopyAPI;
+         if (!pgConnection.isInstance(connection))
+            connection = (Connection) connection.unwrap(pgConnection);
+         return getCopyAPI.invoke(connection);
+      } catch (Exception e) {
+         return null;
+      } catch (AbstractMethodError e) {
+         // unwrap is missing from pre-JDBC 4 drivers
+         return null;
+      }
+   }
+
+   private void execute(List<String> statements) throws SQLException {
+      if (statements.isEmpty())
+         return;
+      ConnectionPool.PooledConnection pc = this._pool.borrow();
+      boolean broken = false;
+      try {
+         Statement stmt = pc.connection().createStatement();
+         try {
+            for (String sql : statements)
+               stmt.execute(sql);
+         } finally {
+            stmt.close();
+         }
+      } catch (SQLException e) {
+         broken = PizzaStore.isConnectionError(e);
+         throw e;
+      } finally {
+         pc.release(broken);
+      }
+   }
+
+   private void executeParallel(List<String> statements) throws Exception {
+      ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+      try {
+         List<Future<Object>> done = new ArrayList<Future<Object>>();
+         for (final String sql : statements) {
+            done.add(workers.submit(new Callable<Object>() {
+               public Object call() throws Exception {
+                  List<String> one = new ArrayList<String>();
+                  one.add(sql);
+                  execute(one);
+                  return null;
+               }
+            }));
+         }
+         for (Future<Object> f : done)
+            f.get();
+      } finally {
+         workers.shutdown();
+      }
+   }
+
+   /*
+    * The statements of a SQL script, without -- comments.
+    */
+   private static List<String> statements(File script) throws IOException {
+      StringBuilder text = new StringBuilder();
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(script), StandardCharsets.UTF_8));
+      try {
+         String line;
+         while ((line = in.readLine()) != null) {
+            int comment = line.indexOf("--");
+            text.append(comment >= 0 ? line.substring(0, comment) : line).append('\n');
+         }
+      } finally {
+         in.close();
+      }
+      List<String> statements = new ArrayList<String>();
+      for (String s : text.toString().split(";"))
+         if (!s.trim().isEmpty())
+            statements.add(s.trim());
+      return statements;
+   }
+
+   /*
+    * Reads the bytes [start, end) of a file with positioned reads, so several
+    * chunks of one file can be read at once.
+    */
+   private static final class RangeChannel implements ReadableByteChannel {
+      private final FileChannel _channel;
+      private long _position;
+      private final long _end;
+
+      RangeChannel(FileChannel channel, long start, long end) {
+         this._channel = channel;
+         this._position = start;
+         this._end = end;
+      }
+
+      public int read(ByteBuffer dst) throws IOException {
+         long remaining = this._end - this._position;
+         if (remaining <= 0)
+            return -1;
+         int limit = dst.limit();
+         if (dst.remaining() > remaining)
+            dst.limit(dst.position() + (int) remaining);
+         try {
+            int n = this._channel.read(dst, this._position);
+            if (n > 0)
+               this._position += n;
+            return n;
+         } finally {
+            dst.limit(limit);
+         }
+      }
+
+      public boolean isOpen() {
+         return this._channel.isOpen();
+      }
+
+      public void close() {
+         // the file channel is closed by its owner
+      }
+   }//end RangeChannel
+}//end BulkLoader
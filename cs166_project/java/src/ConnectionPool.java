@@ -0,0 +1,305 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small bounded pool of physical database connections.  Every pooled
+ * connection carries its own StatementCache so prepared statements survive
+ * between borrows.
+ *
+ * Connections are validated with a cheap query before being handed out if
+ * they have been idle for a while, closed once they exceed their maximum
+ * lifetime, and evicted in the background when idle for too long.  Borrowers
+ * wait at most the borrow timeout for a free connection.
+ *
+ * The pool settings can be overridden with the following system properties:
+ *    pizzastore.pool.maxSize         maximum number of open connections
+ *    pizzastore.pool.borrowTimeoutMs how long to wait for a free connection
+ *    pizzastore.pool.idleTimeoutMs   idle time before a connection is closed
+ *    pizzastore.pool.maxLifetimeMs   age after which a connection is retired
+ *    pizzastore.pool.validateAfterMs idle time before a connection is re-checked
+ */
+public class ConnectionPool {
+
+   public static final int DEFAULT_MAX_SIZE = 10;
+   public static final long DEFAULT_BORROW_TIMEOUT_MS = 5000;
+   public static final long DEFAULT_IDLE_TIMEOUT_MS = 10 * 60 * 1000;
+   public static final long DEFAULT_MAX_LIFETIME_MS = 30 * 60 * 1000;
+   public static final long DEFAULT_VALIDATE_AFTER_MS = 5000;
+
+   // statement run to check that an idle connection is still usable
+   private static final String VALIDATION_QUERY = "SELECT 1";
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+
+   private final int _maxSize;
+   private final long _borrowTimeoutMs;
+   private final long _idleTimeoutMs;
+   private final long _maxLifetimeMs;
+   private final long _validateAfterMs;
+
+   // one permit per connection that may be open at the same time
+   private final Semaphore _permits;
+   // idle connections, most recently returned first so caches stay warm
+   private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+   private final ScheduledExecutorService _evictor;
+   private volatile boolean _closed = false;
+
+   /**
+    * A physical connection checked out of the pool.  Call release() exactly
+    * once when done with it.
+    */
+   public final class PooledConnection {
+      private final Connection _connection;
+      private final StatementCache _statements;
+      private final long _createdAt;
+      private long _lastUsed;
+
+      private PooledConnection(Connection connection) {
+         this._connection = connection;
+         this._statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+         this._createdAt = System.currentTimeMillis();
+         this._lastUsed = this._createdAt;
+      }
+
+      /**
+       * @return the physical connection
+       */
+      public Connection connection() {
+         return this._connection;
+      }
+
+      /**
+       * @return the prepared statement cache of this connection
+       */
+      public StatementCache statements() {
+         return this._statements;
+      }
+
+      /**
+       * Returns the connection to the pool.
+       *
+       * @param broken true when the connection failed in a way that makes it
+       *               unsafe to reuse; it is then closed instead of pooled
+       */
+      public void release(boolean broken) {
+         ConnectionPool.this.giveBack(this, broken);
+      }
+
+      private boolean expired(long now) {
+         return now - this._createdAt >= ConnectionPool.this._maxLifetimeMs;
+      }
+
+      private void close() {
+         this._statements.close();
+         try {
+            this._connection.close();
+         } catch (SQLException e) {
+            // ignored.
+         }
+      }
+   }//end PooledConnection
+
+   /**
+    * Creates a pool configured from the pizzastore.pool.* system properties
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    */
+   public ConnectionPool(String url, String user, String passwd) {
+      this(url, user, passwd,
+           Integer.getInteger("pizzastore.pool.maxSize", DEFAULT_MAX_SIZE),
+           Long.getLong("pizzastore.pool.borrowTimeoutMs", DEFAULT_BORROW_TIMEOUT_MS),
+           Long.getLong("pizzastore.pool.idleTimeoutMs", DEFAULT_IDLE_TIMEOUT_MS),
+           Long.getLong("pizzastore.pool.maxLifetimeMs", DEFAULT_MAX_LIFETIME_MS),
+           Long.getLong("pizzastore.pool.validateAfterMs", DEFAULT_VALIDATE_AFTER_MS));
+   }
+
+   /**
+    * Creates a pool with explicit settings
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param maxSize maximum number of open connections
+    * @param borrowTimeoutMs how long borrow() waits for a free connection
+    * @param idleTimeoutMs idle time after which a connection is closed
+    * @param maxLifetimeMs age after which a connection is retired
+    * @param validateAfterMs idle time after which a connection is re-checked
+    */
+   public ConnectionPool(String url, String user, String passwd, int maxSize,
+                         long borrowTimeoutMs, long idleTimeoutMs,
+                         long maxLifetimeMs, long validateAfterMs) {
+      if (maxSize < 1)
+         throw new IllegalArgumentException("pool size must be at least 1");
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxSize = maxSize;
+      this._borrowTimeoutMs = borrowTimeoutMs;
+      this._idleTimeoutMs = idleTimeoutMs;
+      this._maxLifetimeMs = maxLifetimeMs;
+      this._validateAfterMs = validateAfterMs;
+      this._permits = new Semaphore(maxSize, true);
+
+      this._evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "pizzastore-pool-evictor");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      long period = Math.max(1000, Math.min(idleTimeoutMs, maxLifetimeMs) / 2);
+      this._evictor.scheduleWithFixedDelay(new Runnable() {
+         public void run() {
+            evictIdle();
+         }
+      }, period, period, TimeUnit.MILLISECONDS);
+   }//end ConnectionPool
+
+   /**
+    * Checks out a connection, opening a new one if no healthy idle
+    * connection is available.
+    *
+    * @return a connection that must be released by the caller
+    * @throws java.sql.SQLException when the pool is exhausted for longer than
+    *         the borrow timeout or a new connection cannot be opened
+    */
+   public PooledConnection borrow() throws SQLException {
+      if (this._closed)
+         throw new SQLException("Connection pool is closed");
+      try {
+         if (!this._permits.tryAcquire(this._borrowTimeoutMs, TimeUnit.MILLISECONDS))
+            throw new SQLException("Timed out after " + this._borrowTimeoutMs
+                                   + " ms waiting for a database connection");
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a database connection");
+      }
+
+      try {
+         PooledConnection pc;
+         while ((pc = pollIdle()) != null) {
+            long now = System.currentTimeMillis();
+            if (!pc.expired(now)
+                && (now - pc._lastUsed < this._validateAfterMs || isHealthy(pc))) {
+               pc._lastUsed = now;
+               return pc;
+            }
+            pc.close();
+         }
+         return new PooledConnection(DriverManager.getConnection(this._url, this._user, this._passwd));
+      } catch (SQLException e) {
+         this._permits.release();
+         throw e;
+      } catch (RuntimeException e) {
+         this._permits.release();
+         throw e;
+      }
+   }//end borrow
+
+   /**
+    * @return the number of idle connections currently pooled
+    */
+   public synchronized int idleCount() {
+      return this._idle.size();
+   }
+
+   /**
+    * @return the maximum number of open connections
+    */
+   public int maxSize() {
+      return this._maxSize;
+   }
+
+   /**
+    * Closes every idle connection and stops the evictor.  Connections still
+    * checked out are closed as they are released.
+    */
+   public void close() {
+      this._closed = true;
+      this._evictor.shutdownNow();
+      for (PooledConnection pc : drainIdle())
+         pc.close();
+   }//end close
+
+   private void giveBack(PooledConnection pc, boolean broken) {
+      try {
+         pc._lastUsed = System.currentTimeMillis();
+         if (broken || this._closed || pc.expired(pc._lastUsed) || pc._connection.isClosed()) {
+            pc.close();
+            return;
+         }
+         synchronized (this) {
+            this._idle.addFirst(pc);
+         }
+      } catch (SQLException e) {
+         pc.close();
+      } finally {
+         this._permits.release();
+      }
+   }//end giveBack
+
+   private synchronized PooledConnection pollIdle() {
+      return this._idle.pollFirst();
+   }
+
+   private synchronized List<PooledConnection> drainIdle() {
+      List<PooledConnection> drained = new ArrayList<PooledConnection>(this._idle);
+      this._idle.clear();
+      return drained;
+   }
+
+   /*
+    * Closes idle connections that have outlived the idle timeout or their
+    * maximum lifetime.  Runs on the evictor thread.
+    */
+   private void evictIdle() {
+      long now = System.currentTimeMillis();
+      List<PooledConnection> evicted = new ArrayList<PooledConnection>();
+      synchronized (this) {
+         Iterator<PooledConnection> it = this._idle.iterator();
+         while (it.hasNext()) {
+            PooledConnection pc = it.next();
+            if (pc.expired(now) || now - pc._lastUsed >= this._idleTimeoutMs) {
+               it.remove();
+               evicted.add(pc);
+            }
+         }
+      }
+      for (PooledConnection pc : evicted)
+         pc.close();
+   }//end evictIdle
+
+   private static boolean isHealthy(PooledConnection pc) {
+      Statement stmt = null;
+      try {
+         stmt = pc._connection.createStatement();
+         stmt.executeQuery(VALIDATION_QUERY).close();
+         return true;
+      } catch (SQLException e) {
+         return false;
+      } finally {
+         if (stmt != null) {
+            try {
+               stmt.close();
+            } catch (SQLException e) {
+               // ignored.
+            }
+         }
+      }
+   }//end isHealthy
+}//end ConnectionPool
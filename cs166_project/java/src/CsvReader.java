@@ -0,0 +1,110 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal reader for the CSV files under data/.  Fields are separated by
+ * commas, may be wrapped in double quotes (with "" as an escaped quote), and
+ * surrounding whitespace is dropped, matching how the hand-written
+ * items.csv is laid out.  Quoted fields may not span lines.
+ *
+ * A reader that does not trim keeps whitespace outside quotes as part of
+ * the field, the way COPY ... CSV reads the same file.
+ */
+public class CsvReader implements Closeable {
+
+   private final BufferedReader _in;
+   private final boolean _trim;
+
+   /**
+    * @param in the CSV text
+    */
+   public CsvReader(Reader in) {
+      this(in, true);
+   }
+
+   /**
+    * @param in the CSV text
+    * @param trim true to drop whitespace around fields, false to keep it
+    */
+   public CsvReader(Reader in, boolean trim) {
+      this._in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in, 1 << 16);
+      this._trim = trim;
+   }
+
+   /**
+    * Reads the next record, skipping blank lines.
+    *
+    * @return the fields of the record, or null at end of input
+    * @throws java.io.IOException when the input cannot be read
+    */
+   public List<String> next() throws IOException {
+      String line;
+      do {
+         line = this._in.readLine();
+         if (line == null)
+            return null;
+      } while (line.trim().isEmpty());
+      return parse(line, this._trim);
+   }//end next
+
+   /**
+    * Splits one CSV line into trimmed, unquoted fields.
+    *
+    * @param line a CSV line without its line terminator
+    * @return the fields
+    */
+   public static List<String> parse(String line) {
+      return parse(line, true);
+   }
+
+   /**
+    * Splits one CSV line into unquoted fields.
+    *
+    * @param line a CSV line without its line terminator
+    * @param trim true to drop whitespace around fields, false to keep it
+    * @return the fields
+    */
+   public static List<String> parse(String line, boolean trim) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      boolean wasQuoted = false;
+      for (int i = 0; i < line.length(); ++i) {
+         char c = line.charAt(i);
+         if (quoted) {
+            if (c == '"') {
+               if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                  field.append('"');
+                  ++i;
+               } else {
+                  quoted = false;
+               }
+            } else {
+               field.append(c);
+            }
+         } else if (c == '"') {
+            // text before the opening quote is whitespace we drop
+            if (trim)
+               field.setLength(0);
+            quoted = true;
+            wasQuoted = true;
+         } else if (c == ',') {
+            fields.add(wasQuoted || !trim ? field.toString() : field.toString().trim());
+            field.setLength(0);
+            wasQuoted = false;
+         } else if (!wasQuoted || !trim) {
+            field.append(c);
+         }
+      }
+      fields.add(wasQuoted || !trim ? field.toString() : field.toString().trim());
+      return fields;
+   }//end parse
+
+   public void close() throws IOException {
+      this._in.close();
+   }
+}//end CsvReader
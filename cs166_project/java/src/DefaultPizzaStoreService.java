@@ -0,0 +1,428 @@
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * PizzaStoreService on top of a PizzaStore database.  The service holds no
+ * per-request state; everything it shares (connection pool, caches, open
+ * sessions) lives in the thread-safe PizzaStore, so one instance can serve
+ * any number of concurrent callers.
+ */
+public class DefaultPizzaStoreService implements PizzaStoreService {
+
+   // the item types the menu is organized by
+   public static final List<String> ITEM_TYPES = Arrays.asList("entree", "sides", "drinks");
+
+   private static final List<String> ROLES = Arrays.asList("customer", "driver", "manager");
+   private static final List<String> ORDER_STATUSES = Arrays.asList("incomplete", "complete");
+
+   // most items in a usual order, and how often an item must have been
+   // ordered, as a share of the favorite's count, to be part of it
+   private static final int USUAL_MAX_ITEMS = Integer.getInteger("pizzastore.usual.maxItems", 5);
+   private static final double USUAL_MIN_SHARE = 0.5;
+
+   // most orders one bulk status update may name
+   private static final int MAX_BULK_ORDERS = Integer.getInteger("pizzastore.bulk.maxOrders", 10000);
+
+   private final PizzaStore _esql;
+
+   /**
+    * @param esql the database the service runs against
+    */
+   public DefaultPizzaStoreService(PizzaStore esql) {
+      this._esql = esql;
+   }
+
+   // ---- accounts ----
+
+   public void createUser(String login, String password, String phoneNum) throws ServiceException, SQLException {
+      if (isBlank(login) || isBlank(password))
+         throw new ServiceException(ServiceException.Reason.INVALID, "Login and password are required");
+      if (this._esql.executeQuery("SELECT U.login FROM Users U WHERE U.login = ?", login) > 0)
+         throw new ServiceException(ServiceException.Reason.CONFLICT, "entered login already exists");
+      this._esql.executeUpdate("INSERT INTO Users (login, password, role, phoneNum) VALUES (?, ?, ?, ?)",
+                               login, password, "customer", phoneNum);
+   }//end createUser
+
+   public Session logIn(String login, String password) throws ServiceException, SQLException {
+      // a single round trip fetches the credentials and everything the session caches
+      List<List<String>> user = this._esql.executeQueryAndReturnResult(PizzaStore.CREDENTIALS_QUERY, login);
+      if (user.isEmpty())
+         throw new ServiceException(ServiceException.Reason.NOT_FOUND, "Login was not found");
+      if (!user.get(0).get(0).equals(password))
+         throw new ServiceException(ServiceException.Reason.DENIED, "Incorrect password");
+      return this._esql.openSession(login, user.get(0).get(1).trim(), user.get(0).get(2), user.get(0).get(3));
+   }//end logIn
+
+   public void logOut(Session session) {
+      this._esql.closeSession(session);
+   }
+
+   public User viewProfile(Session session) throws ServiceException, SQLException {
+      requireSession(session);
+      User user = this._esql.executeQueryForObject("SELECT " + User.COLUMNS + " FROM Users WHERE login = ?",
+                                                   User.MAPPER, session.login());
+      if (user == null)
+         throw new ServiceException(ServiceException.Reason.NOT_FOUND, "User not found.");
+      return user;
+   }//end viewProfile
+
+   public void changePassword(Session session, String currentPassword, String newPassword) throws ServiceException, SQLException {
+      User user = viewProfile(session);
+      if (!user.password().equals(currentPassword))
+         throw new ServiceException(ServiceException.Reason.DENIED, "Current password does not match");
+      this._esql.executeUpdate("UPDATE Users SET password = ? WHERE login = ?", newPassword, session.login());
+   }//end changePassword
+
+   public void changePhoneNum(Session session, String currentPhoneNum, String newPhoneNum) throws ServiceException, SQLException {
+      User user = viewProfile(session);
+      if (!user.phoneNum().equals(currentPhoneNum))
+         throw new ServiceException(ServiceException.Reason.DENIED, "Current phone number does not match");
+      this._esql.executeUpdate("UPDATE Users SET phoneNum = ? WHERE login = ?", newPhoneNum, session.login());
+      // the session caches the phone number
+      this._esql.invalidateSessions(session.login());
+   }//end changePhoneNum
+
+   public void updateFavoriteItems(Session session, String favoriteItems) throws ServiceException, SQLException {
+      requireSession(session);
+      this._esql.executeUpdate("UPDATE Users SET favoriteItems = ? WHERE login = ?", favoriteItems, session.login());
+      // the session caches the favorites
+      this._esql.invalidateSessions(session.login());
+   }//end updateFavoriteItems
+
+   // ---- menu ----
+
+   public List<Item> viewMenu(String type) throws SQLException {
+      return this._esql.menu().byType(type);
+   }
+
+   public List<Item> viewMenuByPrice(String type, boolean ascending) throws SQLException {
+      return ascending ? this._esql.menu().byPriceAscending(type) : this._esql.menu().byPriceDescending(type);
+   }
+
+   public List<Item> viewMenuUnderPrice(String type, BigDecimal maxPrice) throws SQLException {
+      return this._esql.menu().underPrice(type, maxPrice);
+   }
+
+   public List<Item> searchMenu(String query) throws SQLException {
+      return this._esql.menu().search(query);
+   }
+
+   public Item findItem(String itemName) throws SQLException {
+      return this._esql.menu().find(itemName);
+   }
+
+   // ---- orders ----
+
+   public OrderReceipt placeOrder(Session session, int storeID, Map<String, Integer> quantities) throws ServiceException, SQLException {
+      requireSession(session);
+      // checked against the store index, without a round trip
+      Store store = this._esql.stores().find(storeID);
+      if (store == null || !store.open())
+         throw new ServiceException(ServiceException.Reason.INVALID, "Cannot place order. The selected store is closed.");
+
+      // price every item in one lookup
+      Map<String, BigDecimal> prices = this._esql.priceItems(quantities.keySet());
+      List<OrderLine> lines = new ArrayList<OrderLine>();
+      List<String> unknownItems = new ArrayList<String>();
+      for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+         BigDecimal price = prices.get(entry.getKey());
+         if (price == null)
+            unknownItems.add(entry.getKey());
+         else if (entry.getValue() <= 0)
+            throw new ServiceException(ServiceException.Reason.INVALID, "Quantity must be positive: " + entry.getKey());
+         else
+            lines.add(new OrderLine(entry.getKey(), entry.getValue(), price));
+      }
+      if (lines.isEmpty())
+         throw new ServiceException(ServiceException.Reason.INVALID, "No items selected. Order cancelled.");
+
+      int orderID;
+      try {
+         orderID = this._esql.submitOrder(session.login(), storeID, lines);
+      } catch (RejectedExecutionException e) {
+         throw new ServiceException(ServiceException.Reason.BUSY, "Too many orders right now. Please try again.");
+      }
+      return new OrderReceipt(orderID, OrderLine.total(lines), lines, unknownItems);
+   }//end placeOrder
+
+   public OrderReceipt repeatOrder(Session session, int orderID, int storeID) throws ServiceException, SQLException {
+      requireSession(session);
+      FoodOrder order = this._esql.findOrder(orderID);
+      // someone else's order is reported the same as a missing one
+      if (order == null || !order.login().equals(session.login()))
+         throw new ServiceException(ServiceException.Reason.NOT_FOUND, "Order not found.");
+      Map<String, Integer> quantities = new LinkedHashMap<String, Integer>();
+      for (OrderLine line : this._esql.orderLines(orderID))
+         quantities.put(line.itemName(), line.quantity());
+      return placeOrder(session, storeID == 0 ? order.storeID() : storeID, quantities);
+   }//end repeatOrder
+
+   public List<OrderLine> usualOrder(Session session) throws ServiceException, SQLException {
+      requireSession(session);
+      // read from the counts every order keeps current, not from the history
+      List<ItemStats> stats = this._esql.itemStats(session.login(), USUAL_MAX_ITEMS);
+      List<String> names = new ArrayList<String>();
+      for (ItemStats s : stats)
+         if (s.timesOrdered() >= stats.get(0).timesOrdered() * USUAL_MIN_SHARE)
+            names.add(s.itemName());
+      Map<String, BigDecimal> prices = this._esql.priceItems(names);
+      List<OrderLine> lines = new ArrayList<OrderLine>();
+      for (ItemStats s : stats) {
+         BigDecimal price = prices.get(s.itemName());
+         if (price != null && names.contains(s.itemName()))
+            lines.add(new OrderLine(s.itemName(), s.usualQuantity(), price));
+      }
+      return lines;
+   }//end usualOrder
+
+   public OrderReceipt orderUsual(Session session, int storeID) throws ServiceException, SQLException {
+      List<OrderLine> usual = usualOrder(session);
+      if (usual.isEmpty())
+         throw new ServiceException(ServiceException.Reason.NOT_FOUND, "No usual order yet. Place an order first.");
+      if (storeID == 0) {
+         List<FoodOrder> recent = this._esql.recentOrderCache().recentOrders(session.login());
+         if (recent.isEmpty())
+            throw new ServiceException(ServiceException.Reason.INVALID, "Choose a store for the order.");
+         storeID = recent.get(0).storeID();
+      }
+      Map<String, Integer> quantities = new LinkedHashMap<String, Integer>();
+      for (OrderLine line : usual)
+         quantities.put(line.itemName(), line.quantity());
+      return placeOrder(session, storeID, quantities);
+   }//end orderUsual
+
+   public List<FoodOrder> orderHistoryPage(Session session, FoodOrder boundary, boolean forward, int limit) throws ServiceException, SQLException {
+      requireSession(session);
+      return this._esql.orderHistoryPage(session.login(), boundary, forward, limit);
+   }
+
+   public int orderHistory(Session session, final Consumer<FoodOrder> sink) throws ServiceException, SQLException {
+      requireSession(session);
+      return this._esql.executeQueryStreaming(
+         "SELECT " + FoodOrder.COLUMNS + " FROM FoodOrder WHERE login = ? ORDER BY orderTimestamp DESC, orderID",
+         new PizzaStore.RowCallback() {
+            public void row(ResultSet rs) throws SQLException {
+               sink.accept(FoodOrder.MAPPER.map(rs));
+            }
+         }, session.login());
+   }//end orderHistory
+
+   public List<FoodOrder> recentOrders(Session session) throws ServiceException, SQLException {
+      requireSession(session);
+      return this._esql.recentOrderCache().recentOrders(session.login());
+   }
+
+   public OrderDetails orderInfo(Session session, int orderID) throws ServiceException, SQLException {
+      requireSession(session);
+      FoodOrder order = this._esql.findOrder(orderID);
+      // as in repeatOrder, someone else's order is reported the same as a missing one
+      if (order == null || (!session.canUpdateOrderStatus() && !order.login().equals(session.login())))
+         throw new ServiceException(ServiceException.Reason.NOT_FOUND, "Order not found.");
+      return new OrderDetails(order, this._esql.orderLines(orderID));
+   }
+
+   public void updateOrderStatus(Session session, int orderID, String status) throws ServiceException, SQLException {
+      requireStatusUpdater(session);
+      status = orderStatus(status);
+      if (!this._esql.updateOrderStatus(orderID, status))
+         throw new ServiceException(ServiceException.Reason.NOT_FOUND, "Order not found.");
+   }//end updateOrderStatus
+
+   public List<StatusChange> updateOrderStatuses(Session session, Collection<Integer> orderIDs, String expectedStatus,
+                                                 String status) throws ServiceException, SQLException {
+      requireStatusUpdater(session);
+      expectedStatus = orderStatus(expectedStatus);
+      status = orderStatus(status);
+      if (orderIDs.isEmpty())
+         throw new ServiceException(ServiceException.Reason.INVALID, "No orders given.");
+      if (orderIDs.size() > MAX_BULK_ORDERS)
+         throw new ServiceException(ServiceException.Reason.INVALID,
+                                    "At most " + MAX_BULK_ORDERS + " orders can be updated at once.");
+      return this._esql.updateOrderStatuses(orderIDs, expectedStatus, status);
+   }//end updateOrderStatuses
+
+   public List<StatusChange> updateOrderStatuses(Session session, int storeID, Timestamp from, Timestamp to,
+                                                 String currentStatus, String status) throws ServiceException, SQLException {
+      requireStatusUpdater(session);
+      currentStatus = orderStatus(currentStatus);
+      status = orderStatus(status);
+      if (from == null || to == null || !from.before(to))
+         throw new ServiceException(ServiceException.Reason.INVALID, "The time window must start before it ends.");
+      if (this._esql.stores().find(storeID) == null)
+         throw new ServiceException(ServiceException.Reason.NOT_FOUND, "Store not found.");
+      return this._esql.updateOrderStatuses(storeID, from, to, currentStatus, status);
+   }//end updateOrderStatuses
+
+   // ---- stores ----
+
+   public List<Store> storePage(Store boundary, boolean forward, int limit) throws SQLException {
+      return this._esql.storePage(boundary, forward, limit);
+   }
+
+   public int stores(final Consumer<Store> sink) throws SQLException {
+      return this._esql.executeQueryStreaming("SELECT " + Store.COLUMNS + " FROM Store ORDER BY storeID",
+         new PizzaStore.RowCallback() {
+            public void row(ResultSet rs) throws SQLException {
+               sink.accept(Store.MAPPER.map(rs));
+            }
+         });
+   }//end stores
+
+   public List<Store> findStores(String state, String city, boolean openOnly) throws SQLException {
+      return this._esql.stores().search(state, city, openOnly);
+   }
+
+   // ---- management ----
+
+   public Item findItem(Session session, String itemName) throws ServiceException, SQLException {
+      requireManager(session, "Access Denied. Only managers can update the Menu.");
+      Item item = this._esql.executeQueryForObject("SELECT " + Item.COLUMNS + " FROM Items WHERE itemName = ?",
+                                                   Item.MAPPER, itemName);
+      if (item == null)
+         throw new ServiceException(ServiceException.Reason.NOT_FOUND, "Item Not Found");
+      return item;
+   }//end findItem
+
+   public void addItem(Session session, Item item) throws ServiceException, SQLException {
+      requireManager(session, "Access Denied. Only managers can update the Menu.");
+      validateItem(item);
+      if (this._esql.executeQuery("SELECT itemName FROM Items WHERE itemName = ?", item.itemName()) != 0)
+         throw new ServiceException(ServiceException.Reason.CONFLICT, "Item exists in data base");
+      this._esql.executeUpdate("INSERT INTO Items (" + Item.COLUMNS + ") VALUES (?, ?, ?, ?, ?)",
+                               item.itemName(), item.ingredients(), item.typeOfItem(), item.price(), item.description());
+      this._esql.menu().refresh();
+   }//end addItem
+
+   public void updateItem(Session session, final String itemName, final Item updated) throws ServiceException, SQLException {
+      findItem(session, itemName);
+      validateItem(updated);
+      boolean rename = !updated.itemName().equals(itemName);
+      if (rename && this._esql.executeQuery("SELECT itemName FROM Items WHERE itemName = ?", updated.itemName()) != 0)
+         throw new ServiceException(ServiceException.Reason.CONFLICT, "Item exists in data base");
+
+      // one statement: the ItemsInOrder and UserItemStats keys are ON UPDATE
+      // CASCADE, so a rename carries over to past orders instead of the
+      // ON DELETE CASCADE of a delete and insert taking them away
+      try {
+         this._esql.executeUpdate("UPDATE Items SET itemName = ?, ingredients = ?, typeOfItem = ?, price = ?, description = ? " +
+                                  "WHERE itemName = ?", updated.itemName(), updated.ingredients(), updated.typeOfItem(),
+                                  updated.price(), updated.description(), itemName);
+      } catch (SQLException e) {
+         // taken by someone else since the check above
+         if ("23505".equals(e.getSQLState()))
+            throw new ServiceException(ServiceException.Reason.CONFLICT, "Item exists in data base");
+         throw e;
+      }
+      this._esql.menu().refresh();
+   }//end updateItem
+
+   public void renameUser(Session session, String oldLogin, String newLogin) throws ServiceException, SQLException {
+      requireManager(session, "Access Denied. Only managers can update a user.");
+      if (this._esql.executeQuery("SELECT login FROM Users WHERE login = ?", newLogin) != 0)
+         throw new ServiceException(ServiceException.Reason.CONFLICT,
+                                    "New login '" + newLogin + "' already exists. Choose another.");
+
+      // one statement: foodorder_login_fkey is ON UPDATE CASCADE, so the
+      // user's orders follow within the same short transaction, locking
+      // only that user's rows
+      int renamed;
+      try {
+         renamed = this._esql.executeUpdate("UPDATE Users SET login = ? WHERE login = ?", newLogin, oldLogin);
+      } catch (SQLException e) {
+         // taken by someone else since the check above
+         if ("23505".equals(e.getSQLState()))
+            throw new ServiceException(ServiceException.Reason.CONFLICT,
+                                       "New login '" + newLogin + "' already exists. Choose another.");
+         throw e;
+      }
+      if (renamed == 0)
+         throw new ServiceException(ServiceException.Reason.NOT_FOUND, "User '" + oldLogin + "' does not exist.");
+
+      // sessions and cached orders under the old login no longer match a user
+      this._esql.invalidateSessions(oldLogin);
+      this._esql.recentOrderCache().invalidate(oldLogin);
+      this._esql.recentOrderCache().invalidate(newLogin);
+   }//end renameUser
+
+   public void changeRole(Session session, String login, String role) throws ServiceException, SQLException {
+      requireManager(session, "Access Denied. Only managers can update a user.");
+      if (!ROLES.contains(role))
+         throw new ServiceException(ServiceException.Reason.INVALID,
+                                    "Invalid role. Choose from: 'manager', 'driver', or 'customer'.");
+      if (this._esql.executeUpdate("UPDATE Users SET role = ? WHERE login = ?", role, login) == 0)
+         throw new ServiceException(ServiceException.Reason.NOT_FOUND, "User '" + login + "' does not exist.");
+      this._esql.invalidateSessions(login);
+   }//end changeRole
+
+   public Reports.Report reports(Session session, LocalDate first, LocalDate last, int topItems) throws ServiceException, SQLException {
+      requireManager(session, "Access Denied. Only managers can view reports.");
+      if (first == null || last == null || last.isBefore(first))
+         throw new ServiceException(ServiceException.Reason.INVALID, "The first day must not be after the last.");
+      if (ChronoUnit.DAYS.between(first, last) >= Reports.maxDays())
+         throw new ServiceException(ServiceException.Reason.INVALID,
+                                    "A report can cover at most " + Reports.maxDays() + " days.");
+      if (topItems <= 0)
+         throw new ServiceException(ServiceException.Reason.INVALID, "The number of top items must be positive.");
+      try {
+         return this._esql.reports().run(first, last, topItems);
+      } catch (RejectedExecutionException e) {
+         throw new ServiceException(ServiceException.Reason.BUSY, "Another report is running. Please try again shortly.");
+      }
+   }//end reports
+
+   // ---- helpers ----
+
+   /*
+    * Returns the up to date session, or refuses the request if it has ended.
+    */
+   private Session requireSession(Session session) throws ServiceException, SQLException {
+      if (session == null || this._esql.checkSession(session) == null)
+         throw new ServiceException(ServiceException.Reason.DENIED, "Session has ended. Please log in again.");
+      return session;
+   }
+
+   private void requireManager(Session session, String message) throws ServiceException, SQLException {
+      if (!requireSession(session).isManager())
+         throw new ServiceException(ServiceException.Reason.DENIED, message);
+   }
+
+   private void requireStatusUpdater(Session session) throws ServiceException, SQLException {
+      if (!requireSession(session).canUpdateOrderStatus())
+         throw new ServiceException(ServiceException.Reason.DENIED,
+                                    "Access denied. Only drivers and managers can update order status.");
+   }
+
+   private static String orderStatus(String status) throws ServiceException {
+      status = status == null ? "" : status.trim().toLowerCase();
+      if (!ORDER_STATUSES.contains(status))
+         throw new ServiceException(ServiceException.Reason.INVALID,
+                                    "Invalid status. Status must be 'incomplete' or 'complete'.");
+      return status;
+   }
+
+   private static void validateItem(Item item) throws ServiceException {
+      if (isBlank(item.itemName()))
+         throw new ServiceException(ServiceException.Reason.INVALID, "Item name is required");
+      if (!ITEM_TYPES.contains(item.typeOfItem()))
+         throw new ServiceException(ServiceException.Reason.INVALID, "Invalid type of Item");
+      if (item.price() == null || item.price().signum() < 0)
+         throw new ServiceException(ServiceException.Reason.INVALID, "Invalid price");
+   }
+
+   private static boolean isBlank(String s) {
+      return s == null || s.trim().isEmpty();
+   }
+}//end DefaultPizzaStoreService
@@ -0,0 +1,39 @@
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * A row of the FoodOrder table.
+ *
+ * @param orderID the order ID, primary key of FoodOrder
+ * @param login the user who placed the order
+ * @param storeID the store the order was placed at
+ * @param totalPrice the order total
+ * @param orderTimestamp when the order was placed
+ * @param orderStatus complete or incomplete, without the char(50) padding
+ */
+public record FoodOrder(int orderID, String login, int storeID, BigDecimal totalPrice,
+                        Timestamp orderTimestamp, String orderStatus) {
+
+   // column list MAPPER expects, in order
+   public static final String COLUMNS = "orderID, login, storeID, totalPrice, orderTimestamp, orderStatus";
+
+   // maps a row selected with COLUMNS
+   public static final PizzaStore.RowMapper<FoodOrder> MAPPER = new PizzaStore.RowMapper<FoodOrder>() {
+      public FoodOrder map(ResultSet rs) throws SQLException {
+         String status = rs.getString(6);
+         return new FoodOrder(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getBigDecimal(4),
+                              rs.getTimestamp(5), status == null ? null : status.trim());
+      }
+   };
+
+   /**
+    * @return the columns in table order, formatted like a list, e.g.
+    *         [10000, lbeldom3, 967, 32.96, 2014-05-07 07:01:29.0, complete]
+    */
+   public String toRowString() {
+      return "[" + this.orderID + ", " + this.login + ", " + this.storeID + ", " + this.totalPrice
+             + ", " + this.orderTimestamp + ", " + this.orderStatus + "]";
+   }
+}//end FoodOrder
@@ -0,0 +1,84 @@
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * Column-oriented copy of many FoodOrder rows.  Prices are kept in cents and
+ * timestamps in epoch milliseconds, so a long order history costs a few
+ * primitive arrays instead of a BigDecimal and a Timestamp per row.  Fill it
+ * by streaming a query that selects FoodOrder.COLUMNS into it.
+ */
+public class FoodOrderColumns implements PizzaStore.RowCallback {
+
+   private int _size = 0;
+   private int[] _orderID;
+   private String[] _login;
+   private int[] _storeID;
+   private long[] _totalPriceCents;
+   private long[] _orderTimestamp;
+   private boolean[] _complete;
+
+   public FoodOrderColumns() {
+      this(64);
+   }
+
+   /**
+    * @param capacity the number of rows to allocate room for up front
+    */
+   public FoodOrderColumns(int capacity) {
+      capacity = Math.max(1, capacity);
+      this._orderID = new int[capacity];
+      this._login = new String[capacity];
+      this._storeID = new int[capacity];
+      this._totalPriceCents = new long[capacity];
+      this._orderTimestamp = new long[capacity];
+      this._complete = new boolean[capacity];
+   }
+
+   /**
+    * Appends the current row of a result set selected with FoodOrder.COLUMNS.
+    */
+   public void row(ResultSet rs) throws SQLException {
+      if (this._size == this._orderID.length)
+         grow();
+      int i = this._size++;
+      this._orderID[i] = rs.getInt(1);
+      this._login[i] = rs.getString(2);
+      this._storeID[i] = rs.getInt(3);
+      this._totalPriceCents[i] = rs.getBigDecimal(4).movePointRight(2).longValue();
+      this._orderTimestamp[i] = rs.getTimestamp(5).getTime();
+      String status = rs.getString(6);
+      this._complete[i] = status != null && status.trim().equalsIgnoreCase("complete");
+   }//end row
+
+   public int size() { return this._size; }
+   public int orderID(int i) { return this._orderID[i]; }
+   public String login(int i) { return this._login[i]; }
+   public int storeID(int i) { return this._storeID[i]; }
+   public long totalPriceCents(int i) { return this._totalPriceCents[i]; }
+   public long orderTimestamp(int i) { return this._orderTimestamp[i]; }
+   public boolean complete(int i) { return this._complete[i]; }
+
+   /**
+    * @param i the row index
+    * @return row i as a FoodOrder record
+    */
+   public FoodOrder get(int i) {
+      return new FoodOrder(this._orderID[i], this._login[i], this._storeID[i],
+                           BigDecimal.valueOf(this._totalPriceCents[i], 2),
+                           new Timestamp(this._orderTimestamp[i]),
+                           this._complete[i] ? "complete" : "incomplete");
+   }
+
+   private void grow() {
+      int capacity = this._orderID.length * 2;
+      this._orderID = Arrays.copyOf(this._orderID, capacity);
+      this._login = Arrays.copyOf(this._login, capacity);
+      this._storeID = Arrays.copyOf(this._storeID, capacity);
+      this._totalPriceCents = Arrays.copyOf(this._totalPriceCents, capacity);
+      this._orderTimestamp = Arrays.copyOf(this._orderTimestamp, capacity);
+      this._complete = Arrays.copyOf(this._complete, capacity);
+   }
+}//end FoodOrderColumns
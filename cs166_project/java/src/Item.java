@@ -0,0 +1,28 @@
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A row of the Items table.
+ *
+ * @param itemName the item name, primary key of Items
+ * @param ingredients comma separated list of ingredients
+ * @param typeOfItem entree, sides or drinks
+ * @param price the price of one item
+ * @param description free text description, may be null
+ */
+public record Item(String itemName, String ingredients, String typeOfItem,
+                   BigDecimal price, String description) {
+
+   // column list MAPPER expects, in order
+   public static final String COLUMNS = "itemName, ingredients, typeOfItem, price, description";
+
+   // maps a row selected with COLUMNS; text columns lose the padding left by the CSV load
+   public static final PizzaStore.RowMapper<Item> MAPPER = new PizzaStore.RowMapper<Item>() {
+      public Item map(ResultSet rs) throws SQLException {
+         String description = rs.getString(5);
+         return new Item(rs.getString(1).trim(), rs.getString(2).trim(), rs.getString(3).trim(),
+                         rs.getBigDecimal(4), description == null ? null : description.trim());
+      }
+   };
+}//end Item
@@ -0,0 +1,31 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * A row of the UserItemStats table: how often one user has ordered one item.
+ *
+ * @param itemName the Items.itemName ordered
+ * @param timesOrdered how many of the user's orders included the item
+ * @param totalQuantity how many of the item the user ordered in all
+ * @param lastOrdered when the user last ordered the item
+ */
+public record ItemStats(String itemName, int timesOrdered, int totalQuantity, Timestamp lastOrdered) {
+
+   // column list MAPPER expects, in order
+   public static final String COLUMNS = "itemName, timesOrdered, totalQuantity, lastOrdered";
+
+   // maps a row selected with COLUMNS
+   public static final PizzaStore.RowMapper<ItemStats> MAPPER = new PizzaStore.RowMapper<ItemStats>() {
+      public ItemStats map(ResultSet rs) throws SQLException {
+         return new ItemStats(rs.getString(1), rs.getInt(2), rs.getInt(3), rs.getTimestamp(4));
+      }
+   };
+
+   /**
+    * @return the quantity the user usually orders, at least 1
+    */
+   public int usualQuantity() {
+      return Math.max(1, Math.round((float) this.totalQuantity / this.timesOrdered));
+   }
+}//end ItemStats
@@ -0,0 +1,264 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the HTTP front end, so the project keeps depending on
+ * nothing but the JDBC driver.  Objects are read into LinkedHashMaps, arrays
+ * into ArrayLists and numbers into BigDecimals; the writer accepts those
+ * types plus any other Number, Boolean, CharSequence and null.
+ */
+public final class Json {
+
+   private Json() {
+   }
+
+   /**
+    * @param value the value to write
+    * @return the value as JSON text
+    * @throws java.lang.IllegalArgumentException for types JSON cannot hold
+    */
+   public static String write(Object value) {
+      StringBuilder out = new StringBuilder();
+      write(out, value);
+      return out.toString();
+   }
+
+   /**
+    * Appends a value as JSON text.
+    *
+    * @param out the buffer to append to
+    * @param value the value to write
+    * @throws java.lang.IllegalArgumentException for types JSON cannot hold
+    */
+   public static void write(StringBuilder out, Object value) {
+      if (value == null) {
+         out.append("null");
+      } else if (value instanceof CharSequence) {
+         writeString(out, value.toString());
+      } else if (value instanceof Double || value instanceof Float) {
+         double d = ((Number) value).doubleValue();
+         // JSON has no NaN or infinity
+         out.append(Double.isNaN(d) || Double.isInfinite(d) ? "null" : value.toString());
+      } else if (value instanceof BigDecimal) {
+         out.append(((BigDecimal) value).toPlainString());
+      } else if (value instanceof Number || value instanceof Boolean) {
+         out.append(value);
+      } else if (value instanceof Map) {
+         out.append('{');
+         Iterator<? extends Map.Entry<?, ?>> entries = ((Map<?, ?>) value).entrySet().iterator();
+         while (entries.hasNext()) {
+            Map.Entry<?, ?> entry = entries.next();
+            writeString(out, String.valueOf(entry.getKey()));
+            out.append(':');
+            write(out, entry.getValue());
+            if (entries.hasNext())
+               out.append(',');
+         }
+         out.append('}');
+      } else if (value instanceof Iterable) {
+         out.append('[');
+         Iterator<?> items = ((Iterable<?>) value).iterator();
+         while (items.hasNext()) {
+            write(out, items.next());
+            if (items.hasNext())
+               out.append(',');
+         }
+         out.append(']');
+      } else {
+         throw new IllegalArgumentException("Cannot write " + value.getClass().getName() + " as JSON");
+      }
+   }//end write
+
+   private static void writeString(StringBuilder out, String s) {
+      out.append('"');
+      for (int i = 0; i < s.length(); ++i) {
+         char c = s.charAt(i);
+         switch (c) {
+            case '"': out.append("\\\""); break;
+            case '\\': out.append("\\\\"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            case '\t': out.append("\\t"); break;
+            default:
+               if (c < 0x20)
+                  out.append(String.format("\\u%04x", (int) c));
+               else
+                  out.append(c);
+         }
+      }
+      out.append('"');
+   }//end writeString
+
+   /**
+    * Parses one JSON value.
+    *
+    * @param text the JSON text
+    * @return the value
+    * @throws java.lang.IllegalArgumentException when the text is not valid JSON
+    */
+   public static Object parse(String text) {
+      Parser parser = new Parser(text);
+      Object value = parser.value();
+      parser.skipWhitespace();
+      if (parser._pos != text.length())
+         throw parser.error("Unexpected trailing characters");
+      return value;
+   }
+
+   private static final class Parser {
+
+      private final String _text;
+      private int _pos = 0;
+
+      Parser(String text) {
+         this._text = text;
+      }
+
+      Object value() {
+         skipWhitespace();
+         if (this._pos >= this._text.length())
+            throw error("Unexpected end of input");
+         char c = this._text.charAt(this._pos);
+         switch (c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+               if (c == '-' || (c >= '0' && c <= '9'))
+                  return number();
+               throw error("Unexpected character '" + c + "'");
+         }
+      }//end value
+
+      private Map<String, Object> object() {
+         Map<String, Object> map = new LinkedHashMap<String, Object>();
+         ++this._pos;
+         skipWhitespace();
+         if (peek() == '}') {
+            ++this._pos;
+            return map;
+         }
+         while (true) {
+            skipWhitespace();
+            if (peek() != '"')
+               throw error("Expected a member name");
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            map.put(key, value());
+            skipWhitespace();
+            if (peek() == ',') {
+               ++this._pos;
+            } else {
+               expect('}');
+               return map;
+            }
+         }
+      }//end object
+
+      private List<Object> array() {
+         List<Object> list = new ArrayList<Object>();
+         ++this._pos;
+         skipWhitespace();
+         if (peek() == ']') {
+            ++this._pos;
+            return list;
+         }
+         while (true) {
+            list.add(value());
+            skipWhitespace();
+            if (peek() == ',') {
+               ++this._pos;
+            } else {
+               expect(']');
+               return list;
+            }
+         }
+      }//end array
+
+      private String string() {
+         StringBuilder s = new StringBuilder();
+         ++this._pos;
+         while (true) {
+            if (this._pos >= this._text.length())
+               throw error("Unterminated string");
+            char c = this._text.charAt(this._pos++);
+            if (c == '"')
+               return s.toString();
+            if (c != '\\') {
+               s.append(c);
+               continue;
+            }
+            if (this._pos >= this._text.length())
+               throw error("Unterminated string");
+            char e = this._text.charAt(this._pos++);
+            switch (e) {
+               case '"': s.append('"'); break;
+               case '\\': s.append('\\'); break;
+               case '/': s.append('/'); break;
+               case 'b': s.append('\b'); break;
+               case 'f': s.append('\f'); break;
+               case 'n': s.append('\n'); break;
+               case 'r': s.append('\r'); break;
+               case 't': s.append('\t'); break;
+               case 'u':
+                  if (this._pos + 4 > this._text.length())
+                     throw error("Bad unicode escape");
+                  try {
+                     s.append((char) Integer.parseInt(this._text.substring(this._pos, this._pos + 4), 16));
+                  } catch (NumberFormatException ex) {
+                     throw error("Bad unicode escape");
+                  }
+                  this._pos += 4;
+                  break;
+               default:
+                  throw error("Bad escape '\\" + e + "'");
+            }
+         }
+      }//end string
+
+      private BigDecimal number() {
+         int start = this._pos;
+         while (this._pos < this._text.length() && "+-0123456789.eE".indexOf(this._text.charAt(this._pos)) >= 0)
+            ++this._pos;
+         try {
+            return new BigDecimal(this._text.substring(start, this._pos));
+         } catch (NumberFormatException e) {
+            throw error("Bad number");
+         }
+      }
+
+      private Object literal(String word, Object value) {
+         if (!this._text.startsWith(word, this._pos))
+            throw error("Unexpected token");
+         this._pos += word.length();
+         return value;
+      }
+
+      private char peek() {
+         return this._pos < this._text.length() ? this._text.charAt(this._pos) : '\0';
+      }
+
+      private void expect(char c) {
+         if (peek() != c)
+            throw error("Expected '" + c + "'");
+         ++this._pos;
+      }
+
+      void skipWhitespace() {
+         while (this._pos < this._text.length() && Character.isWhitespace(this._text.charAt(this._pos)))
+            ++this._pos;
+      }
+
+      IllegalArgumentException error(String message) {
+         return new IllegalArgumentException(message + " at position " + this._pos);
+      }
+   }//end Parser
+}//end Json
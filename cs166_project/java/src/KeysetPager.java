@@ -0,0 +1,111 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Page-at-a-time browsing of a query result using keyset pagination.
+ * Instead of OFFSET, each page is fetched relative to the sort key of the
+ * first or last row of the page on screen, so every page costs one index
+ * range scan no matter how far the user has scrolled.
+ */
+public class KeysetPager<T> {
+
+   /**
+    * Fetches one page of rows next to a boundary row.
+    */
+   public interface PageQuery<T> {
+      /**
+       * @param boundary the row to page from, or null for the first page
+       * @param forward true for rows after the boundary in display order,
+       *                false for rows before it, nearest first
+       * @param limit the maximum number of rows to return
+       * @return the rows, in display order when forward and in reverse
+       *         display order otherwise
+       */
+      List<T> fetch(T boundary, boolean forward, int limit) throws SQLException;
+   }
+
+   private final PageQuery<T> _query;
+   private final int _pageSize;
+   private List<T> _page = Collections.emptyList();
+   private boolean _hasNext = false;
+   private boolean _hasPrevious = false;
+
+   /**
+    * @param query fetches the rows on either side of a boundary row
+    * @param pageSize the number of rows per page
+    */
+   public KeysetPager(PageQuery<T> query, int pageSize) {
+      this._query = query;
+      this._pageSize = pageSize;
+   }
+
+   /**
+    * Loads the first page.
+    *
+    * @return the rows of the first page
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<T> first() throws SQLException {
+      List<T> rows = this._query.fetch(null, true, this._pageSize + 1);
+      this._hasPrevious = false;
+      this._hasNext = rows.size() > this._pageSize;
+      this._page = trim(rows);
+      return this._page;
+   }
+
+   /**
+    * Moves to the page after the current one; stays put on the last page.
+    *
+    * @return the rows of the page now shown
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<T> next() throws SQLException {
+      if (!this._hasNext)
+         return this._page;
+      T last = this._page.get(this._page.size() - 1);
+      List<T> rows = this._query.fetch(last, true, this._pageSize + 1);
+      this._hasPrevious = true;
+      this._hasNext = rows.size() > this._pageSize;
+      this._page = trim(rows);
+      return this._page;
+   }
+
+   /**
+    * Moves to the page before the current one; stays put on the first page.
+    *
+    * @return the rows of the page now shown
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<T> previous() throws SQLException {
+      if (!this._hasPrevious)
+         return this._page;
+      T first = this._page.get(0);
+      List<T> rows = this._query.fetch(first, false, this._pageSize + 1);
+      this._hasNext = true;
+      this._hasPrevious = rows.size() > this._pageSize;
+      List<T> page = trim(rows);
+      Collections.reverse(page);
+      this._page = page;
+      return this._page;
+   }
+
+   /**
+    * @return true when there are rows after the current page
+    */
+   public boolean hasNext() {
+      return this._hasNext;
+   }
+
+   /**
+    * @return true when there are rows before the current page
+    */
+   public boolean hasPrevious() {
+      return this._hasPrevious;
+   }
+
+   private List<T> trim(List<T> rows) {
+      return new ArrayList<T>(rows.subList(0, Math.min(rows.size(), this._pageSize)));
+   }
+}//end KeysetPager
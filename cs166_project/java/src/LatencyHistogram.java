@@ -0,0 +1,102 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram cheap enough to sit on every database call.  Buckets
+ * are log-linear: each power of two is split into SUB_BUCKETS equal slices,
+ * so any value is placed within about 6% of itself and the whole range of
+ * a long fits in under a thousand counters.  Recording is one atomic
+ * increment plus a compare-and-set only when a new maximum is seen; there
+ * are no locks, and readers never block writers.
+ *
+ * Percentiles are read from a moment-by-moment copy of the counters, so a
+ * value read while other threads record may be off by those few samples.
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BITS = 4;
+   private static final int SUB_BUCKETS = 1 << SUB_BITS;
+   // values below SUB_BUCKETS get a bucket each, then 16 per power of two
+   private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+   private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong _max = new AtomicLong();
+
+   /**
+    * Records one value.
+    *
+    * @param value the value, e.g. nanoseconds; negative values count as 0
+    */
+   public void record(long value) {
+      if (value < 0)
+         value = 0;
+      this._counts.incrementAndGet(bucket(value));
+      long max = this._max.get();
+      while (value > max && !this._max.compareAndSet(max, value))
+         max = this._max.get();
+   }
+
+   /**
+    * @return the number of values recorded
+    */
+   public long count() {
+      long count = 0;
+      for (int i = 0; i < BUCKETS; ++i)
+         count += this._counts.get(i);
+      return count;
+   }
+
+   /**
+    * @return the largest value recorded, exactly
+    */
+   public long max() {
+      return this._max.get();
+   }
+
+   /**
+    * @param p the fraction of values to cover, e.g. 0.99
+    * @return the smallest bucket bound at or above that fraction of the
+    *         recorded values, or 0 when nothing was recorded
+    */
+   public long percentile(double p) {
+      long[] counts = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; ++i)
+         total += counts[i] = this._counts.get(i);
+      if (total == 0)
+         return 0;
+      long rank = Math.max(1, (long) Math.ceil(p * total));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += counts[i];
+         if (seen >= rank)
+            return Math.min(upperBound(i), max());
+      }
+      return max();
+   }//end percentile
+
+   /**
+    * Forgets every value.  Values recorded while this runs may be kept or
+    * lost.
+    */
+   public void reset() {
+      for (int i = 0; i < BUCKETS; ++i)
+         this._counts.set(i, 0);
+      this._max.set(0);
+   }
+
+   static int bucket(long value) {
+      if (value < SUB_BUCKETS)
+         return (int) value;
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+      return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+   }
+
+   static long upperBound(int bucket) {
+      if (bucket < SUB_BUCKETS)
+         return bucket;
+      int shift = bucket / SUB_BUCKETS - 1;
+      long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+      return lower + (1L << shift) - 1;
+   }
+}//end LatencyHistogram
@@ -0,0 +1,217 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process copy of the Items table used to draw the menu without going to
+ * the database.  Items are grouped by typeOfItem and kept pre-sorted by price
+ * in both directions, so every viewMenu filter is answered from memory and
+ * "under price X" is a binary search.
+ *
+ * The menu is loaded on first use and replaced wholesale by refresh(), which
+ * updateMenu calls after every change.  Readers always see a complete,
+ * immutable snapshot.  Refreshes run one at a time, from the query through
+ * the swap, so a refresh that read the table earlier can never install its
+ * menu over one that read it later.  A MenuIndex of the same items answers
+ * free-text searches; refresh() updates it for just the items that changed.
+ */
+public class MenuCache {
+
+   private static final String MENU_QUERY = "SELECT " + Item.COLUMNS + " FROM Items";
+
+   private static final Comparator<Item> BY_PRICE = new Comparator<Item>() {
+      public int compare(Item a, Item b) {
+         int c = a.price().compareTo(b.price());
+         return c != 0 ? c : a.itemName().compareTo(b.itemName());
+      }
+   };
+
+   /*
+    * The items of one typeOfItem, in table order and sorted by price.
+    */
+   private static final class Group {
+      final List<Item> items;
+      final List<Item> ascending;
+      final List<Item> descending;
+
+      Group(List<Item> items) {
+         Item[] sorted = items.toArray(new Item[0]);
+         Arrays.sort(sorted, BY_PRICE);
+         Item[] reversed = new Item[sorted.length];
+         for (int i = 0; i < sorted.length; ++i)
+            reversed[i] = sorted[sorted.length - 1 - i];
+         this.items = Collections.unmodifiableList(new ArrayList<Item>(items));
+         this.ascending = Collections.unmodifiableList(Arrays.asList(sorted));
+         this.descending = Collections.unmodifiableList(Arrays.asList(reversed));
+      }
+   }
+
+   private static final Group EMPTY = new Group(Collections.<Item>emptyList());
+
+   private final PizzaStore _esql;
+   private volatile Map<String, Group> _groups = null;
+   private volatile MenuIndex _index = MenuIndex.EMPTY;
+
+   /**
+    * Creates an empty cache; the menu is loaded on first use.
+    *
+    * @param esql the store the menu is loaded from
+    */
+   public MenuCache(PizzaStore esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * Reloads the whole menu from the Items table.
+    *
+    * @throws java.sql.SQLException when the menu cannot be read
+    */
+   public synchronized void refresh() throws SQLException {
+      Map<String, List<Item>> byType = new HashMap<String, List<Item>>();
+      for (Item item : this._esql.executeQueryForList(MENU_QUERY, Item.MAPPER)) {
+         List<Item> items = byType.get(item.typeOfItem());
+         if (items == null) {
+            items = new ArrayList<Item>();
+            byType.put(item.typeOfItem(), items);
+         }
+         items.add(item);
+      }
+
+      Map<String, Group> groups = new HashMap<String, Group>();
+      for (Map.Entry<String, List<Item>> entry : byType.entrySet())
+         groups.put(entry.getKey(), new Group(entry.getValue()));
+      this._index = reindex(this._groups, groups);
+      this._groups = groups;
+   }//end refresh
+
+   /*
+    * Brings the search index from the old menu to the new one.  After an
+    * edit only the items that differ are reindexed; a first load, or a
+    * change to much of the menu, builds the index from scratch.
+    */
+   private MenuIndex reindex(Map<String, Group> before, Map<String, Group> after) {
+      Map<String, Item> now = items(after);
+      if (before == null || this._index.size() == 0)
+         return MenuIndex.of(now.values());
+      Map<String, Item> was = items(before);
+      List<Item[]> changes = new ArrayList<Item[]>();
+      for (Item item : was.values())
+         if (!item.equals(now.get(item.itemName())))
+            changes.add(new Item[] { item, now.get(item.itemName()) });
+      for (Item item : now.values())
+         if (!was.containsKey(item.itemName()))
+            changes.add(new Item[] { null, item });
+      if (changes.size() > now.size() / 4 + 1)
+         return MenuIndex.of(now.values());
+
+      MenuIndex index = this._index;
+      for (Item[] change : changes)
+         index = index.with(change[0], change[1]);
+      return index;
+   }//end reindex
+
+   private static Map<String, Item> items(Map<String, Group> groups) {
+      Map<String, Item> items = new HashMap<String, Item>();
+      for (Group group : groups.values())
+         for (Item item : group.items)
+            items.put(item.itemName(), item);
+      return items;
+   }
+
+   /**
+    * Drops the cached menu; the next lookup reloads it.
+    */
+   public void invalidate() {
+      this._groups = null;
+   }
+
+   /**
+    * @param type a typeOfItem such as entree, sides or drinks
+    * @return the items of that type in table order
+    * @throws java.sql.SQLException when the menu has to be loaded and cannot be
+    */
+   public List<Item> byType(String type) throws SQLException {
+      return group(type).items;
+   }
+
+   /**
+    * @param type a typeOfItem such as entree, sides or drinks
+    * @return the items of that type from lowest to highest price
+    * @throws java.sql.SQLException when the menu has to be loaded and cannot be
+    */
+   public List<Item> byPriceAscending(String type) throws SQLException {
+      return group(type).ascending;
+   }
+
+   /**
+    * @param type a typeOfItem such as entree, sides or drinks
+    * @return the items of that type from highest to lowest price
+    * @throws java.sql.SQLException when the menu has to be loaded and cannot be
+    */
+   public List<Item> byPriceDescending(String type) throws SQLException {
+      return group(type).descending;
+   }
+
+   /**
+    * @param type a typeOfItem such as entree, sides or drinks
+    * @param maxPrice the highest price to include
+    * @return the items of that type priced at most maxPrice, cheapest first
+    * @throws java.sql.SQLException when the menu has to be loaded and cannot be
+    */
+   public List<Item> underPrice(String type, BigDecimal maxPrice) throws SQLException {
+      List<Item> ascending = group(type).ascending;
+      // find the first item priced above maxPrice
+      int lo = 0, hi = ascending.size();
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (ascending.get(mid).price().compareTo(maxPrice) <= 0)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }
+      return ascending.subList(0, lo);
+   }//end underPrice
+
+   /**
+    * Searches the names, ingredients and descriptions of every item; see
+    * MenuIndex for the query syntax.
+    *
+    * @param query e.g. "cheese pepperoni no onions under 15"
+    * @return the matching items, cheapest first
+    * @throws java.sql.SQLException when the menu has to be loaded and cannot be
+    */
+   public List<Item> search(String query) throws SQLException {
+      // loads the menu, and with it the index, on first use
+      group(null);
+      return this._index.search(query);
+   }
+
+   /**
+    * @param itemName an item name, exactly as on the menu
+    * @return the item, or null when it is not on the menu
+    * @throws java.sql.SQLException when the menu has to be loaded and cannot be
+    */
+   public Item find(String itemName) throws SQLException {
+      group(null);
+      return this._index.find(itemName);
+   }
+
+   private Group group(String type) throws SQLException {
+      Map<String, Group> groups = this._groups;
+      if (groups == null) {
+         synchronized (this) {
+            if (this._groups == null)
+               refresh();
+            groups = this._groups;
+         }
+      }
+      Group group = groups.get(type);
+      return group == null ? EMPTY : group;
+   }
+}//end MenuCache
@@ -0,0 +1,224 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Inverted index over the words of every item's name, ingredients and
+ * description, for free-text menu search without a query.  A search is a
+ * few sorted-map lookups and set intersections.
+ *
+ * Searches understand:
+ *    cheese pepperoni     items matching every word
+ *    no onions            leave out items matching a word; also "without x" and "-x"
+ *    under 10             a price cap; also "under $10", "max 10", "$10", "&lt;10", "&lt;= 10"
+ * A word matches any indexed word it starts, so "onion" finds "onions".
+ *
+ * Like MenuCache's groups the index is an immutable snapshot that readers
+ * use without locking.  A change to one item produces a new snapshot that
+ * shares every posting list except those of the item's own words.
+ */
+public class MenuIndex {
+
+   // words left out of searches and the index
+   private static final Set<String> STOP_WORDS = new HashSet<String>(Arrays.asList(
+      "a", "an", "and", "the", "with", "of", "in", "on", "or", "for", "some", "any"));
+
+   private static final Comparator<Item> BY_PRICE = new Comparator<Item>() {
+      public int compare(Item a, Item b) {
+         int c = a.price().compareTo(b.price());
+         return c != 0 ? c : a.itemName().compareTo(b.itemName());
+      }
+   };
+
+   /**
+    * An empty index.
+    */
+   public static final MenuIndex EMPTY = new MenuIndex(new TreeMap<String, Set<String>>(), new HashMap<String, Item>());
+
+   // word -> names of the items containing it
+   private final NavigableMap<String, Set<String>> _postings;
+   private final Map<String, Item> _items;
+
+   private MenuIndex(NavigableMap<String, Set<String>> postings, Map<String, Item> items) {
+      this._postings = postings;
+      this._items = items;
+   }
+
+   /**
+    * @param items the whole menu
+    * @return an index of those items
+    */
+   public static MenuIndex of(Collection<Item> items) {
+      NavigableMap<String, Set<String>> postings = new TreeMap<String, Set<String>>();
+      Map<String, Item> byName = new HashMap<String, Item>();
+      for (Item item : items) {
+         byName.put(item.itemName(), item);
+         for (String word : words(item)) {
+            Set<String> names = postings.get(word);
+            if (names == null) {
+               names = new TreeSet<String>();
+               postings.put(word, names);
+            }
+            names.add(item.itemName());
+         }
+      }
+      for (Map.Entry<String, Set<String>> entry : postings.entrySet())
+         entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+      return new MenuIndex(postings, byName);
+   }//end of
+
+   /**
+    * Returns an index with one item replaced, added or removed; this index
+    * is left as it was.
+    *
+    * @param removed the item's old version, or null when it is new
+    * @param added the item's new version, or null when it was deleted
+    * @return the updated index
+    */
+   public MenuIndex with(Item removed, Item added) {
+      NavigableMap<String, Set<String>> postings = new TreeMap<String, Set<String>>(this._postings);
+      Map<String, Item> items = new HashMap<String, Item>(this._items);
+      if (removed != null) {
+         items.remove(removed.itemName());
+         for (String word : words(removed)) {
+            Set<String> names = new TreeSet<String>(postings.get(word));
+            names.remove(removed.itemName());
+            if (names.isEmpty())
+               postings.remove(word);
+            else
+               postings.put(word, Collections.unmodifiableSet(names));
+         }
+      }
+      if (added != null) {
+         items.put(added.itemName(), added);
+         for (String word : words(added)) {
+            Set<String> names = postings.containsKey(word) ? new TreeSet<String>(postings.get(word))
+                                                           : new TreeSet<String>();
+            names.add(added.itemName());
+            postings.put(word, Collections.unmodifiableSet(names));
+         }
+      }
+      return new MenuIndex(postings, items);
+   }//end with
+
+   /**
+    * @param itemName an item name, exactly as on the menu
+    * @return the item, or null when it is not on the menu
+    */
+   public Item find(String itemName) {
+      return this._items.get(itemName);
+   }
+
+   /**
+    * @return the number of items indexed
+    */
+   public int size() {
+      return this._items.size();
+   }
+
+   /**
+    * @param query words to match, words to exclude and a price cap
+    * @return the matching items, cheapest first; every item when the query
+    *         has no words and no cap
+    */
+   public List<Item> search(String query) {
+      List<String> required = new ArrayList<String>();
+      List<String> excluded = new ArrayList<String>();
+      BigDecimal maxPrice = null;
+
+      String[] tokens = query.toLowerCase(Locale.ROOT).trim().split("\\s+");
+      for (int i = 0; i < tokens.length; ++i) {
+         String t = tokens[i];
+         if (t.isEmpty())
+            continue;
+         if ((t.equals("no") || t.equals("without") || t.equals("-")) && i + 1 < tokens.length) {
+            excluded.addAll(split(tokens[++i]));
+         } else if (t.startsWith("-") && t.length() > 1) {
+            excluded.addAll(split(t.substring(1)));
+         } else if ((t.equals("under") || t.equals("max") || t.equals("below") || t.equals("<") || t.equals("<="))
+                    && i + 1 < tokens.length && price(tokens[i + 1]) != null) {
+            maxPrice = price(tokens[++i]);
+         } else if (price(t) != null && (t.startsWith("$") || t.startsWith("<"))) {
+            maxPrice = price(t);
+         } else {
+            required.addAll(split(t));
+         }
+      }
+
+      Set<String> names = null;
+      for (String word : required) {
+         Set<String> matches = matching(word);
+         if (names == null)
+            names = new HashSet<String>(matches);
+         else
+            names.retainAll(matches);
+         if (names.isEmpty())
+            return Collections.emptyList();
+      }
+      if (names == null)
+         names = new HashSet<String>(this._items.keySet());
+      for (String word : excluded)
+         names.removeAll(matching(word));
+
+      List<Item> result = new ArrayList<Item>(names.size());
+      for (String name : names) {
+         Item item = this._items.get(name);
+         if (maxPrice == null || item.price().compareTo(maxPrice) <= 0)
+            result.add(item);
+      }
+      Collections.sort(result, BY_PRICE);
+      return result;
+   }//end search
+
+   // the items containing a word that starts with prefix
+   private Set<String> matching(String prefix) {
+      NavigableMap<String, Set<String>> range = this._postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+      if (range.isEmpty())
+         return Collections.emptySet();
+      if (range.size() == 1)
+         return range.firstEntry().getValue();
+      Set<String> names = new HashSet<String>();
+      for (Set<String> posting : range.values())
+         names.addAll(posting);
+      return names;
+   }
+
+   private static Set<String> words(Item item) {
+      Set<String> words = new HashSet<String>();
+      words.addAll(split(item.itemName()));
+      words.addAll(split(item.ingredients()));
+      if (item.description() != null)
+         words.addAll(split(item.description()));
+      return words;
+   }
+
+   private static List<String> split(String text) {
+      List<String> words = new ArrayList<String>();
+      for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+         if (!word.isEmpty() && !STOP_WORDS.contains(word))
+            words.add(word);
+      return words;
+   }
+
+   // a price like 10, 9.99, $10 or <10, or null
+   private static BigDecimal price(String token) {
+      String t = token;
+      while (t.startsWith("<") || t.startsWith("=") || t.startsWith("$"))
+         t = t.substring(1);
+      if (!t.matches("\\d+(\\.\\d{1,2})?"))
+         return null;
+      return new BigDecimal(t);
+   }
+}//end MenuIndex
@@ -0,0 +1,267 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Latency, error and row counts per named operation, kept for the life of
+ * the process.  Database calls are recorded as "sql.<method>" by PizzaStore
+ * and every service call as "service.<method>" by instrument(), which wraps
+ * the service the CLI and the HTTP server use.
+ *
+ * Each operation is registered as an MBean named
+ * PizzaStore:type=Operation,name=<operation>, readable with jconsole or any
+ * JMX client (start the JVM with -Dcom.sun.management.jmxremote.port=... to
+ * reach it remotely).  When pizzastore.metrics.dumpSeconds is set, a table
+ * of every operation is also written that often to the file named by
+ * pizzastore.metrics.file, or to standard error.
+ */
+public class Metrics {
+
+   /**
+    * What JMX shows of one operation.  Latencies are in milliseconds.
+    */
+   public interface OperationMBean {
+      long getCalls();
+      long getErrors();
+      long getRejected();
+      long getRows();
+      double getMeanMillis();
+      double getP50Millis();
+      double getP99Millis();
+      double getP999Millis();
+      double getMaxMillis();
+      void reset();
+   }
+
+   /**
+    * The counters of one operation.  Every method may be called from any
+    * thread without locking.
+    */
+   public static final class Operation implements OperationMBean {
+      private final String _name;
+      private final LatencyHistogram _nanos = new LatencyHistogram();
+      private final LongAdder _calls = new LongAdder();
+      private final LongAdder _totalNanos = new LongAdder();
+      private final LongAdder _errors = new LongAdder();
+      private final LongAdder _rejected = new LongAdder();
+      private final LongAdder _rows = new LongAdder();
+
+      Operation(String name) {
+         this._name = name;
+      }
+
+      /**
+       * @return the operation name
+       */
+      public String name() {
+         return this._name;
+      }
+
+      /**
+       * Records a call that completed.
+       *
+       * @param nanos how long the call took
+       * @param rows the rows it returned or changed, 0 if none
+       */
+      public void record(long nanos, long rows) {
+         this._nanos.record(nanos);
+         this._calls.increment();
+         this._totalNanos.add(nanos);
+         this._rows.add(rows);
+      }
+
+      /**
+       * Records a call that failed, e.g. with an SQLException.
+       */
+      public void error() {
+         this._errors.increment();
+      }
+
+      /**
+       * Records a call the service refused with a ServiceException.
+       */
+      public void rejected() {
+         this._rejected.increment();
+      }
+
+      public long getCalls() {
+         return this._calls.sum();
+      }
+
+      public long getErrors() {
+         return this._errors.sum();
+      }
+
+      public long getRejected() {
+         return this._rejected.sum();
+      }
+
+      public long getRows() {
+         return this._rows.sum();
+      }
+
+      public double getMeanMillis() {
+         long calls = this._calls.sum();
+         return calls == 0 ? 0 : this._totalNanos.sum() / (calls * 1e6);
+      }
+
+      public double getP50Millis() {
+         return this._nanos.percentile(0.50) / 1e6;
+      }
+
+      public double getP99Millis() {
+         return this._nanos.percentile(0.99) / 1e6;
+      }
+
+      public double getP999Millis() {
+         return this._nanos.percentile(0.999) / 1e6;
+      }
+
+      public double getMaxMillis() {
+         return this._nanos.max() / 1e6;
+      }
+
+      public void reset() {
+         this._nanos.reset();
+         this._calls.reset();
+         this._totalNanos.reset();
+         this._errors.reset();
+         this._rejected.reset();
+         this._rows.reset();
+      }
+   }//end Operation
+
+   private static final ConcurrentMap<String, Operation> OPERATIONS = new ConcurrentHashMap<String, Operation>();
+   private static ScheduledExecutorService _dumper = null;
+
+   private Metrics() {
+   }
+
+   /**
+    * Returns the counters of an operation, creating and registering them
+    * with JMX on first use.  Callers on a hot path should keep the result.
+    *
+    * @param name the operation name, e.g. "sql.executeQuery"
+    * @return the operation's counters
+    */
+   public static Operation operation(String name) {
+      Operation op = OPERATIONS.get(name);
+      if (op != null)
+         return op;
+      Operation created = new Operation(name);
+      op = OPERATIONS.putIfAbsent(name, created);
+      if (op != null)
+         return op;
+      try {
+         ManagementFactory.getPlatformMBeanServer().registerMBean(
+            new StandardMBean(created, OperationMBean.class),
+            new ObjectName("PizzaStore:type=Operation,name=" + name));
+      } catch (JMException e) {
+         System.err.println("Warning - Unable to register metrics for " + name + ": " + e.getMessage());
+      }
+      return created;
+   }//end operation
+
+   /**
+    * Wraps a service so every call is recorded as "service.<method>".  A
+    * ServiceException counts as rejected, any other exception as an error,
+    * and a returned list counts its size as rows.
+    *
+    * @param service the service to measure
+    * @return a service that behaves exactly like the one given
+    */
+   public static PizzaStoreService instrument(final PizzaStoreService service) {
+      final Map<Method, Operation> ops = new ConcurrentHashMap<Method, Operation>();
+      for (Method method : PizzaStoreService.class.getMethods())
+         ops.put(method, operation("service." + method.getName()));
+      return (PizzaStoreService) Proxy.newProxyInstance(
+         PizzaStoreService.class.getClassLoader(), new Class<?>[] { PizzaStoreService.class },
+         new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+               // null for the methods of Object, which are not recorded
+               Operation op = ops.get(method);
+               long start = System.nanoTime();
+               try {
+                  Object result = method.invoke(service, args);
+                  if (op != null)
+                     op.record(System.nanoTime() - start,
+                               result instanceof Collection ? ((Collection<?>) result).size() : 0);
+                  return result;
+               } catch (InvocationTargetException e) {
+                  if (op != null && e.getCause() instanceof ServiceException)
+                     op.rejected();
+                  else if (op != null)
+                     op.error();
+                  throw e.getCause();
+               }
+            }
+         });
+   }//end instrument
+
+   /**
+    * Starts writing the table every pizzastore.metrics.dumpSeconds seconds,
+    * if that is set; does nothing otherwise or when already started.
+    *
+    * @throws java.io.IOException when pizzastore.metrics.file cannot be opened
+    */
+   public static synchronized void startDump() throws IOException {
+      long seconds = Long.getLong("pizzastore.metrics.dumpSeconds", 0L);
+      if (seconds <= 0 || _dumper != null)
+         return;
+      String file = System.getProperty("pizzastore.metrics.file");
+      final PrintStream out = file == null ? System.err : new PrintStream(new FileOutputStream(file, true), true);
+      _dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      _dumper.scheduleAtFixedRate(new Runnable() {
+         public void run() {
+            dump(out);
+         }
+      }, seconds, seconds, TimeUnit.SECONDS);
+   }//end startDump
+
+   /**
+    * Writes one line per operation that has been called.
+    *
+    * @param out where to write the table
+    */
+   public static void dump(PrintStream out) {
+      StringBuilder s = new StringBuilder();
+      s.append("-- metrics at ").append(new Date()).append('\n');
+      s.append(String.format(Locale.ROOT, "%-36s %10s %7s %8s %10s %9s %9s %9s %9s %9s%n",
+         "operation", "calls", "errors", "rejected", "rows", "mean(ms)", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)"));
+      for (Operation op : new TreeMap<String, Operation>(OPERATIONS).values()) {
+         if (op.getCalls() + op.getErrors() + op.getRejected() == 0)
+            continue;
+         s.append(String.format(Locale.ROOT, "%-36s %10d %7d %8d %10d %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+            op.name(), op.getCalls(), op.getErrors(), op.getRejected(), op.getRows(), op.getMeanMillis(),
+            op.getP50Millis(), op.getP99Millis(), op.getP999Millis(), op.getMaxMillis()));
+      }
+      out.print(s);
+      out.flush();
+   }//end dump
+}//end Metrics
@@ -0,0 +1,10 @@
+import java.util.List;
+
+/**
+ * An order together with its line items.
+ *
+ * @param order the FoodOrder row
+ * @param lines the ItemsInOrder rows of the order
+ */
+public record OrderDetails(FoodOrder order, List<OrderLine> lines) {
+}//end OrderDetails
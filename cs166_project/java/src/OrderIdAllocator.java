@@ -0,0 +1,91 @@
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out FoodOrder.orderID values without a round trip per order.
+ *
+ * IDs are reserved from the database in blocks (hi/lo style): the
+ * FoodOrder_orderID_seq sequence is created with INCREMENT BY BLOCK_SIZE, so
+ * each nextval() call owns the range [value, value + BLOCK_SIZE).  IDs inside
+ * a block are handed out from an in-process atomic counter, and only the
+ * thread that exhausts a block goes back to the database for the next one.
+ *
+ * IDs left in a block when the process exits are simply skipped; orderID
+ * only needs to be unique, not gapless.
+ */
+public class OrderIdAllocator {
+
+   // must match INCREMENT BY of FoodOrder_orderID_seq in create_tables.sql
+   public static final int BLOCK_SIZE = 50;
+
+   private static final String NEXT_BLOCK_QUERY = "SELECT nextval('FoodOrder_orderID_seq')";
+
+   /*
+    * A reserved range of IDs.  next may run past end when several threads
+    * race at the end of a block; those values are discarded.
+    */
+   private static final class Block {
+      final AtomicInteger next;
+      final int end;
+
+      Block(int start, int size) {
+         this.next = new AtomicInteger(start);
+         this.end = start + size;
+      }
+   }
+
+   private final PizzaStore _esql;
+   private final int _blockSize;
+   private volatile Block _block = null;
+
+   /**
+    * Creates an allocator using the default block size
+    *
+    * @param esql the store used to reserve new blocks
+    */
+   public OrderIdAllocator(PizzaStore esql) {
+      this(esql, BLOCK_SIZE);
+   }
+
+   /**
+    * Creates an allocator
+    *
+    * @param esql the store used to reserve new blocks
+    * @param blockSize the INCREMENT BY of the backing sequence
+    */
+   public OrderIdAllocator(PizzaStore esql, int blockSize) {
+      this._esql = esql;
+      this._blockSize = blockSize;
+   }
+
+   /**
+    * Returns the next unused order ID.
+    *
+    * @return a unique orderID
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public int nextId() throws SQLException {
+      while (true) {
+         Block block = this._block;
+         if (block != null) {
+            int id = block.next.getAndIncrement();
+            if (id < block.end)
+               return id;
+         }
+         refill(block);
+      }
+   }//end nextId
+
+   /*
+    * Reserves a new block unless another thread already replaced the one the
+    * caller found exhausted.
+    */
+   private synchronized void refill(Block exhausted) throws SQLException {
+      if (this._block != exhausted)
+         return;
+      List<List<String>> result = this._esql.executeQueryAndReturnResult(NEXT_BLOCK_QUERY);
+      int start = Integer.parseInt(result.get(0).get(0));
+      this._block = new Block(start, this._blockSize);
+   }//end refill
+}//end OrderIdAllocator
@@ -0,0 +1,48 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * One line item of an order: an item, how many of it, and the unit price it
+ * was priced at when the order was submitted.
+ *
+ * @param itemName the Items.itemName ordered
+ * @param quantity how many were ordered
+ * @param unitPrice the Items.price at submission time; null for lines read
+ *                  back from ItemsInOrder, which does not store prices
+ */
+public record OrderLine(String itemName, int quantity, BigDecimal unitPrice) {
+
+   // column list MAPPER expects, in order
+   public static final String COLUMNS = "itemName, quantity";
+
+   // maps an ItemsInOrder row selected with COLUMNS
+   public static final PizzaStore.RowMapper<OrderLine> MAPPER = new PizzaStore.RowMapper<OrderLine>() {
+      public OrderLine map(ResultSet rs) throws SQLException {
+         return new OrderLine(rs.getString(1), rs.getInt(2), null);
+      }
+   };
+
+   /**
+    * @return unitPrice * quantity
+    */
+   public BigDecimal lineTotal() {
+      return this.unitPrice.multiply(BigDecimal.valueOf(this.quantity));
+   }
+
+   /**
+    * Sums the line totals of an order, rounded to cents like
+    * FoodOrder.totalPrice.
+    *
+    * @param lines the priced line items
+    * @return the order total
+    */
+   public static BigDecimal total(List<OrderLine> lines) {
+      BigDecimal total = BigDecimal.ZERO;
+      for (OrderLine line : lines)
+         total = total.add(line.lineTotal());
+      return total.setScale(2, RoundingMode.HALF_UP);
+   }
+}//end OrderLine
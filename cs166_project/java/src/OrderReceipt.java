@@ -0,0 +1,15 @@
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * The result of placing an order.
+ *
+ * @param orderID the new order's ID
+ * @param totalPrice the order total
+ * @param lines the line items that were ordered
+ * @param unknownItems requested item names that are not on the menu and
+ *                     were left out of the order
+ */
+public record OrderReceipt(int orderID, BigDecimal totalPrice, List<OrderLine> lines,
+                           List<String> unknownItems) {
+}//end OrderReceipt
@@ -0,0 +1,320 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind queue for new orders.  submitOrder validates, prices and
+ * numbers an order, hands it to submit() and answers the caller at once; a
+ * single writer thread takes orders off the queue and commits up to
+ * batchSize of them per transaction, so at peak many orders share one
+ * commit and its fsync.
+ *
+ * After the first order of a batch arrives the writer keeps collecting for
+ * at most maxDelayMs, which bounds how long an acknowledged order stays
+ * invisible to other queries: a larger delay gives larger batches and
+ * fewer commits, a smaller one fresher reads.  When the queue is full,
+ * submit() waits up to enqueueTimeoutMs for room and then refuses the
+ * order, so callers slow down to the rate the database can commit.
+ *
+ * An acknowledged order is in memory only until its batch commits and is
+ * lost if the process dies first.  If a batch fails, its orders are retried
+ * one per transaction so one bad order cannot sink the others.  An order
+ * that still fails was already acknowledged, so it is appended to the
+ * dead-letter file with its lines and the error, one tab-separated line per
+ * order, to be replayed by hand; it is also counted under orders.failed in
+ * Metrics and by failed(), and reported on standard error.
+ *
+ * close() queues a marker behind the last accepted order rather than
+ * interrupting the writer, whose database calls would otherwise fail part
+ * way through a commit; every order queued before it is written.
+ *
+ * Settings, read by fromProperties:
+ *    pizzastore.orders.writeBehind        true to turn the queue on (default false)
+ *    pizzastore.orders.batchSize          most orders per commit (default 100)
+ *    pizzastore.orders.maxDelayMs         longest wait to fill a batch (default 5)
+ *    pizzastore.orders.queueSize          orders waiting before submit blocks (default 10000)
+ *    pizzastore.orders.enqueueTimeoutMs   how long submit waits for room (default 1000)
+ *    pizzastore.orders.deadLetterFile     where unwritable orders go (default failed-orders.log)
+ */
+public class OrderWriter {
+
+   // orders per commit and time per batch, and orders given up on, see Metrics
+   private static final Metrics.Operation GROUP_COMMIT = Metrics.operation("orders.groupCommit");
+   private static final Metrics.Operation FAILED = Metrics.operation("orders.failed");
+
+   /*
+    * An acknowledged order that is not in the database yet.
+    */
+   private static final class Pending {
+      final FoodOrder order;
+      final List<OrderLine> lines;
+
+      Pending(FoodOrder order, List<OrderLine> lines) {
+         this.order = order;
+         this.lines = lines;
+      }
+   }
+
+   private final PizzaStore _esql;
+   private final int _batchSize;
+   private final long _maxDelayNanos;
+   private final long _enqueueTimeoutMs;
+   private final BlockingQueue<Pending> _queue;
+   private final File _deadLetters;
+   private final AtomicLong _failed = new AtomicLong();
+   // queued by close() after the last accepted order; the writer stops at it
+   private static final Pending STOP = new Pending(null, null);
+
+   private final Thread _writer;
+   // held for reading while submit() queues an order, for writing to close
+   private final ReadWriteLock _closing = new ReentrantReadWriteLock();
+   private volatile boolean _closed = false;
+
+   /**
+    * @param esql the store orders are written to
+    * @return the writer configured by the pizzastore.orders.* properties, or
+    *         null when pizzastore.orders.writeBehind is not true
+    */
+   public static OrderWriter fromProperties(PizzaStore esql) {
+      if (!Boolean.getBoolean("pizzastore.orders.writeBehind"))
+         return null;
+      return new OrderWriter(esql, Integer.getInteger("pizzastore.orders.batchSize", 100),
+                             Long.getLong("pizzastore.orders.maxDelayMs", 5L),
+                             Integer.getInteger("pizzastore.orders.queueSize", 10000),
+                             Long.getLong("pizzastore.orders.enqueueTimeoutMs", 1000L),
+                             new File(System.getProperty("pizzastore.orders.deadLetterFile", "failed-orders.log")));
+   }//end fromProperties
+
+   /**
+    * Starts the writer thread.
+    *
+    * @param esql the store orders are written to
+    * @param batchSize most orders per commit
+    * @param maxDelayMs longest wait to fill a batch
+    * @param queueSize orders waiting before submit blocks
+    * @param enqueueTimeoutMs how long submit waits for room
+    * @param deadLetters the file orders that cannot be written are appended to
+    */
+   public OrderWriter(PizzaStore esql, int batchSize, long maxDelayMs, int queueSize, long enqueueTimeoutMs,
+                      File deadLetters) {
+      this._esql = esql;
+      this._batchSize = Math.max(1, batchSize);
+      this._maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+      this._enqueueTimeoutMs = enqueueTimeoutMs;
+      this._queue = new ArrayBlockingQueue<Pending>(queueSize);
+      this._deadLetters = deadLetters;
+      this._writer = new Thread(new Runnable() {
+         public void run() {
+            drain();
+         }
+      }, "order-writer");
+      this._writer.setDaemon(true);
+      this._writer.start();
+   }//end OrderWriter
+
+   /**
+    * Queues an order to be written.
+    *
+    * @param order the order, with its orderID and orderTimestamp set
+    * @param lines its priced line items
+    * @throws java.util.concurrent.RejectedExecutionException when the queue
+    *         stays full for enqueueTimeoutMs, or the writer is closed
+    */
+   public void submit(FoodOrder order, List<OrderLine> lines) {
+      // close() cannot queue its marker until this order is queued or refused
+      this._closing.readLock().lock();
+      try {
+         if (this._closed)
+            throw new RejectedExecutionException("The order writer is closed");
+         if (this._queue.offer(new Pending(order, lines), this._enqueueTimeoutMs, TimeUnit.MILLISECONDS))
+            return;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } finally {
+         this._closing.readLock().unlock();
+      }
+      throw new RejectedExecutionException("The order queue is full");
+   }//end submit
+
+   /**
+    * @return the number of acknowledged orders not yet written
+    */
+   public int backlog() {
+      return this._queue.size();
+   }
+
+   /**
+    * @return the number of acknowledged orders given up on since start,
+    *         each of them in the dead-letter file
+    */
+   public long failed() {
+      return this._failed.get();
+   }
+
+   /**
+    * Stops taking orders and waits for every queued one to be written.
+    */
+   public void close() {
+      boolean first;
+      this._closing.writeLock().lock();
+      try {
+         first = !this._closed;
+         this._closed = true;
+      } finally {
+         this._closing.writeLock().unlock();
+      }
+
+      boolean interrupted = false;
+      while (first) {
+         try {
+            // waits for room while the writer works through a full queue
+            this._queue.put(STOP);
+            break;
+         } catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      while (true) {
+         try {
+            this._writer.join();
+            break;
+         } catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }//end close
+
+   private void drain() {
+      List<Pending> batch = new ArrayList<Pending>(this._batchSize);
+      while (true) {
+         try {
+            batch.add(this._queue.take());
+            long deadline = System.nanoTime() + this._maxDelayNanos;
+            while (batch.size() < this._batchSize && !stopping(batch)) {
+               this._queue.drainTo(batch, this._batchSize - batch.size());
+               long wait = deadline - System.nanoTime();
+               if (batch.size() >= this._batchSize || wait <= 0 || stopping(batch))
+                  break;
+               Pending next = this._queue.poll(wait, TimeUnit.NANOSECONDS);
+               if (next == null)
+                  break;
+               batch.add(next);
+            }
+         } catch (InterruptedException e) {
+            // nothing interrupts the writer on purpose; write what it has
+            if (batch.isEmpty())
+               continue;
+         }
+         boolean stop = stopping(batch);
+         if (stop)
+            batch.remove(batch.size() - 1);
+         if (!batch.isEmpty())
+            write(batch);
+         batch.clear();
+         if (stop)
+            return;
+      }
+   }//end drain
+
+   // STOP is the last thing ever queued, so it can only end a batch
+   private static boolean stopping(List<Pending> batch) {
+      return !batch.isEmpty() && batch.get(batch.size() - 1) == STOP;
+   }
+
+   private void write(List<Pending> batch) {
+      long start = System.nanoTime();
+      try {
+         commit(batch);
+         GROUP_COMMIT.record(System.nanoTime() - start, batch.size());
+         placed(batch);
+         return;
+      } catch (SQLException e) {
+         GROUP_COMMIT.error();
+      } catch (RuntimeException e) {
+         GROUP_COMMIT.error();
+      }
+      // find the orders that cannot be written and keep the rest
+      for (Pending pending : batch) {
+         List<Pending> one = new ArrayList<Pending>(1);
+         one.add(pending);
+         try {
+            commit(one);
+            placed(one);
+         } catch (Exception e) {
+            failed(pending, e);
+         }
+      }
+   }//end write
+
+   // the caller has a receipt for this order, so it must not vanish quietly
+   private void failed(Pending pending, Exception cause) {
+      FAILED.error();
+      this._failed.incrementAndGet();
+      System.err.println("Error - Unable to write order " + pending.order.toRowString() + ": " + cause.getMessage());
+      StringBuilder s = new StringBuilder();
+      s.append(new Date()).append('\t').append(pending.order.toRowString()).append('\t');
+      for (int i = 0; i < pending.lines.size(); i++) {
+         OrderLine line = pending.lines.get(i);
+         s.append(i == 0 ? "" : ", ").append(line.itemName()).append(" x ").append(line.quantity());
+      }
+      s.append('\t').append(String.valueOf(cause.getMessage()).replace('\n', ' ')).append('\n');
+      try {
+         Writer out = new OutputStreamWriter(new FileOutputStream(this._deadLetters, true), StandardCharsets.UTF_8);
+         try {
+            out.write(s.toString());
+         } finally {
+            out.close();
+         }
+      } catch (IOException e) {
+         System.err.println("Error - Unable to write " + this._deadLetters + ": " + e.getMessage());
+         System.err.print("Error - Lost order " + s);
+      }
+   }//end failed
+
+   private void commit(final List<Pending> batch) throws SQLException {
+      this._esql.executeInTransaction(new PizzaStore.Transaction<Void>() {
+         public Void run(ConnectionPool.PooledConnection pc) throws SQLException {
+            List<Object[]> orders = new ArrayList<Object[]>(batch.size());
+            List<Object[]> items = new ArrayList<Object[]>();
+            List<Object[]> stats = new ArrayList<Object[]>();
+            for (Pending pending : batch) {
+               FoodOrder order = pending.order;
+               orders.add(new Object[] { order.orderID(), order.login(), order.storeID(), order.totalPrice(),
+                                         order.orderTimestamp(), order.orderStatus() });
+               for (OrderLine line : pending.lines)
+                  items.add(new Object[] { order.orderID(), line.itemName(), line.quantity() });
+               stats.addAll(PizzaStore.itemStats(order.login(), pending.lines, order.orderTimestamp()));
+            }
+            OrderWriter.this._esql.executeBatch(pc,
+               "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) " +
+               "VALUES (?, ?, ?, ?, ?, ?)", orders);
+            OrderWriter.this._esql.executeBatch(pc,
+               "INSERT INTO ItemsInOrder (orderID, itemName, quantity) VALUES (?, ?, ?)", items);
+            OrderWriter.this._esql.executeBatch(pc, PizzaStore.ITEM_STATS_UPSERT, stats);
+            return null;
+         }
+      });
+   }//end commit
+
+   // committed orders become visible to the recent orders cache
+   private void placed(List<Pending> batch) {
+      for (Pending pending : batch)
+         this._esql.recentOrderCache().placed(pending.order);
+   }
+}//end OrderWriter
@@ -0,0 +1,223 @@
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Keeps the monthly partitions of FoodOrder (see create_tables.sql) in
+ * shape.  Meant to run from cron, e.g. daily:
+ *
+ *  - Creates the partition of the current month and the partitions.ahead
+ *    months after it, so new orders always land in a partition of their
+ *    own, and of each of the partitions.history months before it that holds
+ *    orders in FoodOrder_default.  Those orders are moved into it in the
+ *    same transaction.  Older orders stay in the default partition, so a
+ *    long history after a load or migration does not become one partition
+ *    per month, every one of which a lookup without a date range would visit.
+ *  - With partitions.keep set, detaches every month older than that many
+ *    months, moves it to the archive schema as archive.FoodOrder_yYYYYmMM,
+ *    and moves its ItemsInOrder rows to archive.ItemsInOrder_yYYYYmMM.
+ *    Orders that old still in the default partition move to
+ *    archive.FoodOrder_default and archive.ItemsInOrder_default.  Detaching
+ *    takes a brief exclusive lock on FoodOrder, so archive in a quiet hour.
+ *
+ * Each partition is created or archived in its own transaction, so a run
+ * that fails part way leaves every month either done or untouched.
+ *
+ * Settings:
+ *    partitions.ahead   months to create past the current one (default 3)
+ *    partitions.history months before the current one that get a partition when they hold orders (default 12)
+ *    partitions.keep    months to keep attached, counting the current one; 0 keeps all (default 0)
+ *
+ * Usage: java PartitionMaintenance <dbname> <port> <user>
+ */
+public class PartitionMaintenance {
+
+   private final PizzaStore _esql;
+
+   /**
+    * @param esql the database whose FoodOrder is maintained
+    */
+   public PartitionMaintenance(PizzaStore esql) {
+      this._esql = esql;
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length != 3) {
+         System.err.println("Usage: java [-classpath <classpath>] PartitionMaintenance <dbname> <port> <user>");
+         return;
+      }
+      Class.forName("org.postgresql.Driver");
+      PizzaStore esql = new PizzaStore(args[0], args[1], args[2], "");
+      try {
+         PartitionMaintenance maintenance = new PartitionMaintenance(esql);
+         YearMonth now = YearMonth.now();
+         YearMonth first = now.minusMonths(Integer.getInteger("partitions.history", 12));
+         int keep = Integer.getInteger("partitions.keep", 0);
+         // a month about to be archived is not worth a partition
+         if (keep > 0 && first.isBefore(now.minusMonths(keep - 1)))
+            first = now.minusMonths(keep - 1);
+         maintenance.createThrough(first, now.plusMonths(Integer.getInteger("partitions.ahead", 3)));
+         if (keep > 0)
+            maintenance.archiveBefore(now.minusMonths(keep - 1));
+      } finally {
+         esql.cleanup();
+      }
+   }//end main
+
+   /**
+    * Creates the missing monthly partitions from the current month through
+    * the given month, and those of earlier months from first on that hold
+    * orders in the default partition.
+    *
+    * @param first the oldest past month to give a partition
+    * @param last the last month to create
+    * @throws java.sql.SQLException when a partition cannot be created
+    */
+   public void createThrough(YearMonth first, YearMonth last) throws SQLException {
+      List<String> existing = partitions();
+      SortedSet<YearMonth> months = new TreeSet<YearMonth>();
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+            "SELECT DISTINCT to_char(orderTimestamp, 'YYYY-MM') FROM FoodOrder_default WHERE orderTimestamp >= ?",
+            Timestamp.valueOf(first.atDay(1).atStartOfDay())))
+         months.add(YearMonth.parse(row.get(0)));
+      for (YearMonth month = YearMonth.now(); !month.isAfter(last); month = month.plusMonths(1))
+         months.add(month);
+
+      for (YearMonth month : months) {
+         if (month.isAfter(last) || existing.contains(name(month).toLowerCase(Locale.ROOT)))
+            continue;
+         int moved = create(month);
+         System.out.println("Created " + name(month) + (moved > 0 ? ", moved " + moved + " orders into it" : ""));
+      }
+   }//end createThrough
+
+   /**
+    * Detaches and archives every monthly partition before the given month,
+    * and archives the orders before it left in the default partition.
+    *
+    * @param first the oldest month to keep attached
+    * @throws java.sql.SQLException when a partition cannot be archived
+    */
+   public void archiveBefore(YearMonth first) throws SQLException {
+      for (String partition : partitions()) {
+         YearMonth month = month(partition);
+         if (month == null || !month.isBefore(first))
+            continue;
+         archive(month);
+         System.out.println("Archived " + name(month) + " to archive." + name(month));
+      }
+      int moved = archiveDefault(first);
+      if (moved > 0)
+         System.out.println("Archived " + moved + " orders before " + first + " to archive.FoodOrder_default");
+   }//end archiveBefore
+
+   /*
+    * Builds the month's partition beside FoodOrder, fills it with that
+    * month's orders from the default partition, then attaches it.  The
+    * CHECK constraint lets ATTACH skip scanning the new partition.
+    */
+   private int create(final YearMonth month) throws SQLException {
+      final String name = name(month);
+      final String from = month.atDay(1) + " 00:00:00";
+      final String to = month.plusMonths(1).atDay(1) + " 00:00:00";
+      return this._esql.executeInTransaction(new PizzaStore.Transaction<Integer>() {
+         public Integer run(ConnectionPool.PooledConnection pc) throws SQLException {
+            Statement stmt = pc.connection().createStatement();
+            try {
+               // the orders stay, so the triggers must not release their orderIDs and items
+               stmt.execute("SET LOCAL pizzastore.moving_orders = 'on'");
+               stmt.execute("CREATE TABLE " + name + " (LIKE FoodOrder INCLUDING DEFAULTS)");
+               stmt.execute("ALTER TABLE " + name + " ADD CONSTRAINT " + name + "_range CHECK " +
+                            "(orderTimestamp >= '" + from + "' AND orderTimestamp < '" + to + "')");
+               int moved = PartitionMaintenance.this._esql.executeUpdate(pc,
+                  "WITH moved AS (DELETE FROM FoodOrder_default WHERE orderTimestamp >= ? AND orderTimestamp < ? " +
+                  "RETURNING *) INSERT INTO " + name + " SELECT * FROM moved",
+                  Timestamp.valueOf(from), Timestamp.valueOf(to));
+               stmt.execute("ALTER TABLE FoodOrder ATTACH PARTITION " + name +
+                            " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+               stmt.execute("ALTER TABLE " + name + " DROP CONSTRAINT " + name + "_range");
+               return moved;
+            } finally {
+               stmt.close();
+            }
+         }
+      });
+   }//end create
+
+   private void archive(YearMonth month) throws SQLException {
+      final String name = name(month);
+      final String items = "ItemsInOrder_" + name.substring("FoodOrder_".length());
+      this._esql.executeInTransaction(new PizzaStore.Transaction<Void>() {
+         public Void run(ConnectionPool.PooledConnection pc) throws SQLException {
+            Statement stmt = pc.connection().createStatement();
+            try {
+               stmt.execute("ALTER TABLE FoodOrder DETACH PARTITION " + name);
+               stmt.execute("CREATE SCHEMA IF NOT EXISTS archive");
+               stmt.execute("ALTER TABLE " + name + " SET SCHEMA archive");
+               stmt.execute("CREATE TABLE archive." + items + " AS SELECT I.* FROM ItemsInOrder I " +
+                            "WHERE I.orderID IN (SELECT orderID FROM archive." + name + ")");
+               // releasing the orderIDs deletes their items through ItemsInOrder's foreign key
+               stmt.execute("DELETE FROM OrderIds WHERE orderID IN (SELECT orderID FROM archive." + name + ")");
+               return null;
+            } finally {
+               stmt.close();
+            }
+         }
+      });
+   }//end archive
+
+   /*
+    * Moves the orders placed before the month that are still in the
+    * default partition, and their items, to the archive schema.
+    */
+   private int archiveDefault(YearMonth first) throws SQLException {
+      final Timestamp before = Timestamp.valueOf(first.atDay(1).atStartOfDay());
+      return this._esql.executeInTransaction(new PizzaStore.Transaction<Integer>() {
+         public Integer run(ConnectionPool.PooledConnection pc) throws SQLException {
+            PizzaStore esql = PartitionMaintenance.this._esql;
+            Statement stmt = pc.connection().createStatement();
+            try {
+               stmt.execute("CREATE SCHEMA IF NOT EXISTS archive");
+               stmt.execute("CREATE TABLE IF NOT EXISTS archive.FoodOrder_default (LIKE FoodOrder)");
+               stmt.execute("CREATE TABLE IF NOT EXISTS archive.ItemsInOrder_default (LIKE ItemsInOrder)");
+            } finally {
+               stmt.close();
+            }
+            esql.executeUpdate(pc, "INSERT INTO archive.ItemsInOrder_default SELECT I.* FROM ItemsInOrder I " +
+                                   "JOIN FoodOrder_default O ON O.orderID = I.orderID WHERE O.orderTimestamp < ?", before);
+            // the delete trigger releases the orderIDs, which deletes the items copied above
+            return esql.executeUpdate(pc,
+               "WITH moved AS (DELETE FROM FoodOrder_default WHERE orderTimestamp < ? RETURNING *) " +
+               "INSERT INTO archive.FoodOrder_default SELECT * FROM moved", before);
+         }
+      });
+   }//end archiveDefault
+
+   // lower-case names of the partitions attached to FoodOrder
+   private List<String> partitions() throws SQLException {
+      List<String> names = new ArrayList<String>();
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+            "SELECT C.relname FROM pg_inherits I JOIN pg_class C ON C.oid = I.inhrelid " +
+            "JOIN pg_class P ON P.oid = I.inhparent WHERE P.relname = 'foodorder' ORDER BY C.relname"))
+         names.add(row.get(0));
+      return names;
+   }
+
+   static String name(YearMonth month) {
+      return String.format(Locale.ROOT, "FoodOrder_y%04dm%02d", month.getYear(), month.getMonthValue());
+   }
+
+   // the month of a partition name, or null for FoodOrder_default
+   static YearMonth month(String partition) {
+      String p = partition.toLowerCase(Locale.ROOT);
+      if (!p.matches("foodorder_y\\d{4}m\\d{2}"))
+         return null;
+      return YearMonth.of(Integer.parseInt(p.substring(11, 15)), Integer.parseInt(p.substring(16, 18)));
+   }
+}//end PartitionMaintenance
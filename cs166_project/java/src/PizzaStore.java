@@ -14,9 +14,12 @@
  import java.sql.DriverManager;
  import java.sql.Connection;
  import java.sql.Statement;
+ import java.sql.PreparedStatement;
  import java.sql.ResultSet;
  import java.sql.ResultSetMetaData;
  import java.sql.SQLException;
+ import java.sql.Timestamp;
+ import java.sql.Types;
  import java.io.File;
  import java.io.FileReader;
  import java.io.BufferedReader;
@@ -24,11 +27,21 @@
  import java.util.List;
  import java.util.ArrayList;
  import java.util.Arrays;
+ import java.util.Collection;
+ import java.util.Collections;
+ import java.util.Comparator;
+ import java.util.HashMap;
+ import java.util.HashSet;
+ import java.util.LinkedHashMap;
+ import java.util.LinkedHashSet;
+ import java.util.Map;
+ import java.util.Set;
  import java.lang.Math;
+ import java.math.BigDecimal;
  import java.util.Scanner;
+ import java.time.LocalDate;
  import java.util.concurrent.ExecutionException;
- 
- import javax.jws.soap.SOAPBinding.Use;
+ import java.util.function.Consumer;
  
  /**
   * This class defines a simple embedded SQL utility class that is designed to
@@ -37,8 +50,83 @@
   */
  public class PizzaStore {
  
-    // reference to physical database connection.
-    private Connection _connection = null;
+    // rows fetched per round trip by streaming queries
+    static final int DEFAULT_FETCH_SIZE = Integer.getInteger("pizzastore.fetchSize", 500);
+ 
+    // password, role, phoneNum and favoriteItems of one user, for LogIn
+    static final String CREDENTIALS_QUERY =
+       "SELECT U.password, U.role, U.phoneNum, U.favoriteItems FROM Users U WHERE U.login = ?";
+ 
+    // counts one order of an item towards a user's UserItemStats row; bind
+    // login, itemName, quantity and the order's timestamp
+    static final String ITEM_STATS_UPSERT =
+       "INSERT INTO UserItemStats (login, itemName, timesOrdered, totalQuantity, lastOrdered) VALUES (?, ?, 1, ?, ?) " +
+       "ON CONFLICT (login, itemName) DO UPDATE SET timesOrdered = UserItemStats.timesOrdered + 1, " +
+       "totalQuantity = UserItemStats.totalQuantity + EXCLUDED.totalQuantity, " +
+       "lastOrdered = GREATEST(UserItemStats.lastOrdered, EXCLUDED.lastOrdered)";
+
+    private static final Comparator<OrderLine> BY_ITEM_NAME = new Comparator<OrderLine>() {
+       public int compare (OrderLine a, OrderLine b) {
+          return a.itemName ().compareTo (b.itemName ());
+       }
+    };
+ 
+    // rows per page when browsing order history and stores
+    static final int PAGE_SIZE = Integer.getInteger("pizzastore.pageSize", 10);
+ 
+    // most values bound into one IN list; longer lists are split
+    static final int MAX_IN_LIST = 512;
+ 
+    // how far from its starting point a look at order history first
+    // searches, so only the few monthly FoodOrder partitions that span it
+    // are scanned; see windowedOrders
+    static final long ORDER_WINDOW_MS = Long.getLong("pizzastore.orders.windowDays", 62L) * 24 * 60 * 60 * 1000;
+ 
+    // narrows a FoodOrder lookup by orderID to the partition holding the
+    // order: OrderIds has its orderTimestamp, the partition key, so the
+    // executor skips the other partitions; binds the orderID
+    static final String IN_ORDER_PARTITION = "orderTimestamp = (SELECT orderTimestamp FROM OrderIds WHERE orderID = ?)";
+
+    // latency, errors and rows of every database call, by method; see Metrics
+    private static final Metrics.Operation SQL_UPDATE = Metrics.operation ("sql.executeUpdate");
+    private static final Metrics.Operation SQL_QUERY = Metrics.operation ("sql.executeQuery");
+    private static final Metrics.Operation SQL_QUERY_PRINT = Metrics.operation ("sql.executeQueryAndPrintResult");
+    private static final Metrics.Operation SQL_QUERY_RESULT = Metrics.operation ("sql.executeQueryAndReturnResult");
+    private static final Metrics.Operation SQL_QUERY_LIST = Metrics.operation ("sql.executeQueryForList");
+    private static final Metrics.Operation SQL_TRANSACTION = Metrics.operation ("sql.executeInTransaction");
+    // statements run on a transaction's connection
+    private static final Metrics.Operation SQL_TX_QUERY = Metrics.operation ("sql.transaction.executeQuery");
+    private static final Metrics.Operation SQL_TX_UPDATE = Metrics.operation ("sql.transaction.executeUpdate");
+    private static final Metrics.Operation SQL_TX_BATCH = Metrics.operation ("sql.transaction.executeBatch");
+ 
+    private static final Object[] NO_PARAMS = new Object[0];
+ 
+    // pool of physical database connections shared by every session.
+    private ConnectionPool _pool = null;
+ 
+    // hands out FoodOrder.orderID values reserved in blocks from a sequence
+    private final OrderIdAllocator _orderIds = new OrderIdAllocator(this);
+ 
+    // in-memory copy of the Items table used to draw the menu
+    private final MenuCache _menu = new MenuCache(this);
+
+    // in-memory index of the Store table for searches and order checks
+    private final StoreLocator _stores = new StoreLocator(this);
+ 
+    // each user's last few orders, kept current as orders are written
+    private final RecentOrdersCache _recentOrders = new RecentOrdersCache(this);
+ 
+    // manager reports, summed off the request threads
+    private final Reports _reports = new Reports(this);
+ 
+    // queue new orders are committed from in batches, or null when orders are written at once
+    private final OrderWriter _orderWriter = OrderWriter.fromProperties(this);
+ 
+    // statements slower than pizzastore.slowQuery.thresholdMs, or null when off
+    private final SlowQueryLog _slowQueries = SlowQueryLog.fromProperties(this);
+ 
+    // open sessions by login, so changes to a user's row can reach them
+    private final Map<String, Set<Session>> _sessions = new HashMap<String, Set<Session>>();
  
     // handling the keyboard inputs through a BufferedReader
     // This variable can be global for convenience.
@@ -62,9 +150,18 @@
           String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
           System.out.println ("Connection URL: " + url + "\n");
  
-          // obtain a physical connection
-          this._connection = DriverManager.getConnection(url, user, passwd);
+          // open the pool and make sure a first physical connection succeeds
+          this._pool = new ConnectionPool(url, user, passwd);
+          this._pool.borrow().release(false);
           System.out.println("Done");
+ 
+          // warm the menu and stores so browsing them never waits on the database
+          try {
+             this._menu.refresh();
+             this._stores.refresh();
+          }catch (SQLException e){
+             System.err.println("Warning - Unable to load the menu and stores: " + e.getMessage());
+          }
        }catch (Exception e){
           System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
           System.out.println("Make sure you started postgres on this machine");
@@ -80,14 +177,26 @@
      * @throws java.sql.SQLException when update failed
      */
     public void executeUpdate (String sql) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+       long start = System.nanoTime ();
+       ConnectionPool.PooledConnection pc = this._pool.borrow ();
+       boolean broken = false;
+       try {
+          // creates a statement object
+          Statement stmt = pc.connection ().createStatement ();
  
-       // issues the update instruction
-       stmt.executeUpdate (sql);
+          // issues the update instruction
+          stmt.executeUpdate (sql);
  
-       // close the instruction
-       stmt.close ();
+          // close the instruction
+          stmt.close ();
+          completed (SQL_UPDATE, start, sql, NO_PARAMS, 0);
+       }catch (SQLException e){
+          SQL_UPDATE.error ();
+          broken = isConnectionError (e);
+          throw e;
+       }finally{
+          pc.release (broken);
+       }
     }//end executeUpdate
  
     /**
@@ -100,8 +209,12 @@
      * @throws java.sql.SQLException when failed to execute the query
      */
     public int executeQueryAndPrintResult (String query) throws SQLException {
+       long start = System.nanoTime ();
+       ConnectionPool.PooledConnection pc = this._pool.borrow ();
+       boolean broken = false;
+       try {
        // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+       Statement stmt = pc.connection ().createStatement ();
  
        // issues the query instruction
        ResultSet rs = stmt.executeQuery (query);
@@ -130,7 +243,15 @@
           ++rowCount;
        }//end while
        stmt.close();
+       completed (SQL_QUERY_PRINT, start, query, NO_PARAMS, rowCount);
        return rowCount;
+       }catch (SQLException e){
+          SQL_QUERY_PRINT.error ();
+          broken = isConnectionError (e);
+          throw e;
+       }finally{
+          pc.release (broken);
+       }
     }//end executeQuery
  
     /**
@@ -143,8 +264,12 @@
      * @throws java.sql.SQLException when failed to execute the query
      */
     public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
+       long start = System.nanoTime ();
+       ConnectionPool.PooledConnection pc = this._pool.borrow ();
+       boolean broken = false;
+       try {
        // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+       Statement stmt = pc.connection ().createStatement ();
  
        // issues the query instruction
        ResultSet rs = stmt.executeQuery (query);
@@ -167,7 +292,15 @@
          result.add(record);
        }//end while
        stmt.close ();
+       completed (SQL_QUERY_RESULT, start, query, NO_PARAMS, result.size ());
        return result;
+       }catch (SQLException e){
+          SQL_QUERY_RESULT.error ();
+          broken = isConnectionError (e);
+          throw e;
+       }finally{
+          pc.release (broken);
+       }
     }//end executeQueryAndReturnResult
  
     /**
@@ -179,8 +312,12 @@
      * @throws java.sql.SQLException when failed to execute the query
      */
     public int executeQuery (String query) throws SQLException {
+       long start = System.nanoTime ();
+       ConnectionPool.PooledConnection pc = this._pool.borrow ();
+       boolean broken = false;
+       try {
         // creates a statement object
-        Statement stmt = this._connection.createStatement ();
+        Statement stmt = pc.connection ().createStatement ();
  
         // issues the query instruction
         ResultSet rs = stmt.executeQuery (query);
@@ -192,56 +329,998 @@
            rowCount++;
         }//end while
         stmt.close ();
+        completed (SQL_QUERY, start, query, NO_PARAMS, rowCount);
         return rowCount;
+       }catch (SQLException e){
+          SQL_QUERY.error ();
+          broken = isConnectionError (e);
+          throw e;
+       }finally{
+          pc.release (broken);
+       }
+    }
+ 
+    /**
+     * Method to execute a parameterized update SQL statement.  The statement
+     * is prepared once per SQL text and reused from the statement cache of
+     * the pooled connection it runs on.
+     *
+     * @param sql the input SQL string with '?' placeholders
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows affected
+     * @throws java.sql.SQLException when update failed
+     */
+    public int executeUpdate (String sql, Object... params) throws SQLException {
+       long start = System.nanoTime ();
+       ConnectionPool.PooledConnection pc = this._pool.borrow ();
+       boolean broken = false;
+       try {
+          int rows = prepare (pc, sql, params).executeUpdate ();
+          completed (SQL_UPDATE, start, sql, params, rows);
+          return rows;
+       }catch (SQLException e){
+          SQL_UPDATE.error ();
+          pc.statements ().evict (sql);
+          broken = isConnectionError (e);
+          throw e;
+       }finally{
+          pc.release (broken);
+       }
+    }//end executeUpdate
+ 
+    /**
+     * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+     * and return the results as a list of records.
+     *
+     * @param query the input query string with '?' placeholders
+     * @param params the values bound to the placeholders, in order
+     * @return the query result as a list of records
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+       long start = System.nanoTime ();
+       ConnectionPool.PooledConnection pc = this._pool.borrow ();
+       boolean broken = false;
+       ResultSet rs = null;
+       try {
+          rs = prepare (pc, query, params).executeQuery ();
+          int numCol = rs.getMetaData ().getColumnCount ();
+          List<List<String>> result = new ArrayList<List<String>>();
+          while (rs.next()){
+             List<String> record = new ArrayList<String>(numCol);
+             for (int i=1; i<=numCol; ++i)
+                record.add(rs.getString (i));
+             result.add(record);
+          }//end while
+          completed (SQL_QUERY_RESULT, start, query, params, result.size ());
+          return result;
+       }catch (SQLException e){
+          SQL_QUERY_RESULT.error ();
+          pc.statements ().evict (query);
+          broken = isConnectionError (e);
+          throw e;
+       }finally{
+          closeQuietly (rs);
+          pc.release (broken);
+       }
+    }//end executeQueryAndReturnResult
+ 
+    /**
+     * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+     * and return the number of results.
+     *
+     * @param query the input query string with '?' placeholders
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows returned
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQuery (String query, Object... params) throws SQLException {
+       long start = System.nanoTime ();
+       ConnectionPool.PooledConnection pc = this._pool.borrow ();
+       boolean broken = false;
+       ResultSet rs = null;
+       try {
+          rs = prepare (pc, query, params).executeQuery ();
+          int rowCount = 0;
+          while (rs.next()){
+             rowCount++;
+          }//end while
+          completed (SQL_QUERY, start, query, params, rowCount);
+          return rowCount;
+       }catch (SQLException e){
+          SQL_QUERY.error ();
+          pc.statements ().evict (query);
+          broken = isConnectionError (e);
+          throw e;
+       }finally{
+          closeQuietly (rs);
+          pc.release (broken);
+       }
+    }//end executeQuery
+ 
+    /**
+     * Maps the current row of a result set to a typed value, reading each
+     * column in its native JDBC type.
+     */
+    public interface RowMapper<T> {
+       T map (ResultSet rs) throws SQLException;
+    }
+ 
+    /**
+     * Method to execute a parameterized query and map every row to a typed
+     * value instead of a list of strings.
+     *
+     * @param query the input query string with '?' placeholders
+     * @param mapper maps one row to a value
+     * @param params the values bound to the placeholders, in order
+     * @return the mapped rows, in order
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public <T> List<T> executeQueryForList (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+       long start = System.nanoTime ();
+       ConnectionPool.PooledConnection pc = this._pool.borrow ();
+       boolean broken = false;
+       ResultSet rs = null;
+       try {
+          rs = prepare (pc, query, params).executeQuery ();
+          List<T> result = new ArrayList<T>();
+          while (rs.next()){
+             result.add (mapper.map (rs));
+          }//end while
+          completed (SQL_QUERY_LIST, start, query, params, result.size ());
+          return result;
+       }catch (SQLException e){
+          SQL_QUERY_LIST.error ();
+          pc.statements ().evict (query);
+          broken = isConnectionError (e);
+          throw e;
+       }finally{
+          closeQuietly (rs);
+          pc.release (broken);
+       }
+    }//end executeQueryForList
+ 
+    /**
+     * Method to execute a parameterized query expected to return at most one
+     * row and map it to a typed value.
+     *
+     * @param query the input query string with '?' placeholders
+     * @param mapper maps the row to a value
+     * @param params the values bound to the placeholders, in order
+     * @return the mapped first row, or null when there are no rows
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public <T> T executeQueryForObject (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+       List<T> result = executeQueryForList (query, mapper, params);
+       return result.isEmpty () ? null : result.get (0);
+    }
+ 
+    /**
+     * Receives the rows of a streaming query one at a time, positioned on
+     * the current row of the result set.
+     */
+    public interface RowCallback {
+       void row (ResultSet rs) throws SQLException;
+    }
+ 
+    // the cursor executeQueryStreaming declares; it lives only as long as
+    // its transaction, so one name per connection is enough
+    private static final String STREAM_CURSOR = "pizzastore_stream";
+
+    /**
+     * Method to execute a parameterized query and stream its rows to a
+     * callback as they arrive.  The query runs in a transaction behind a
+     * server-side cursor that is read fetchSize rows per FETCH, so only
+     * that many rows are held at a time and the first rows are handed over
+     * before the last ones are read.  The bundled pg73 driver does not
+     * implement setFetchSize, hence the explicit DECLARE and FETCH.
+     *
+     * @param query the input query string with '?' placeholders
+     * @param fetchSize the number of rows fetched per round trip
+     * @param callback receives every row, in order
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows streamed
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQueryStreaming (final String query, final int fetchSize, final RowCallback callback,
+                                      final Object... params) throws SQLException {
+       return executeInTransaction (new Transaction<Integer>() {
+          public Integer run (ConnectionPool.PooledConnection pc) throws SQLException {
+             // not from the statement cache: the DECLARE embeds the query and runs once
+             PreparedStatement declare = pc.connection ().prepareStatement (
+                "DECLARE " + STREAM_CURSOR + " NO SCROLL CURSOR FOR " + query);
+             try {
+                bind (declare, params);
+                declare.execute ();
+             }finally{
+                declare.close ();
+             }
+
+             Statement fetch = pc.connection ().createStatement ();
+             try {
+                int rowCount = 0;
+                while (true) {
+                   ResultSet rs = fetch.executeQuery ("FETCH FORWARD " + fetchSize + " FROM " + STREAM_CURSOR);
+                   int fetched = 0;
+                   try {
+                      while (rs.next()){
+                         callback.row (rs);
+                         ++fetched;
+                      }//end while
+                   }finally{
+                      closeQuietly (rs);
+                   }
+                   rowCount += fetched;
+                   if (fetched < fetchSize)
+                      break;
+                }//end while
+                fetch.execute ("CLOSE " + STREAM_CURSOR);
+                return rowCount;
+             }finally{
+                fetch.close ();
+             }
+          }
+       });
+    }//end executeQueryStreaming
+ 
+    /**
+     * Same as executeQueryStreaming using the default fetch size, which can
+     * be set with the pizzastore.fetchSize system property.
+     *
+     * @param query the input query string with '?' placeholders
+     * @param callback receives every row, in order
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows streamed
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQueryStreaming (String query, RowCallback callback, Object... params) throws SQLException {
+       return executeQueryStreaming (query, DEFAULT_FETCH_SIZE, callback, params);
+    }
+ 
+    /**
+     * Work to run inside a single database transaction on one pooled
+     * connection.
+     */
+    public interface Transaction<T> {
+       T run (ConnectionPool.PooledConnection pc) throws SQLException;
+    }
+ 
+    /**
+     * Method to run several statements as one transaction.  The work is
+     * committed if it returns normally and rolled back if it throws.
+     *
+     * @param work the statements to run, given the connection to use
+     * @return whatever the work returns
+     * @throws java.sql.SQLException when any statement or the commit fails
+     */
+    public <T> T executeInTransaction (Transaction<T> work) throws SQLException {
+       long start = System.nanoTime ();
+       ConnectionPool.PooledConnection pc = this._pool.borrow ();
+       Connection conn = pc.connection ();
+       boolean broken = false;
+       boolean committed = false;
+       try {
+          conn.setAutoCommit (false);
+          T result = work.run (pc);
+          conn.commit ();
+          committed = true;
+          SQL_TRANSACTION.record (System.nanoTime () - start, 0);
+          return result;
+       }catch (SQLException e){
+          broken = isConnectionError (e);
+          throw e;
+       }finally{
+          // on any failure, Errors included: setAutoCommit (true) below
+          // would otherwise commit the half-done work.  A connection that
+          // cannot roll back is closed instead, which the server rolls back
+          if (!committed) {
+             SQL_TRANSACTION.error ();
+             broken |= !rollback (conn);
+          }
+          if (!broken) {
+             try {
+                conn.setAutoCommit (true);
+             }catch (SQLException e){
+                broken = true;
+             }
+          }
+          pc.release (broken);
+       }
+    }//end executeInTransaction
+ 
+    /**
+     * Method to run a parameterized query on the connection of a
+     * transaction, handing each row to a callback.  Like the other execute
+     * methods it is timed into the metrics and the slow query log.
+     *
+     * @param pc the connection executeInTransaction passed to the work
+     * @param query the input query string with '?' placeholders
+     * @param callback receives each row
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQuery (ConnectionPool.PooledConnection pc, String query, RowCallback callback,
+                             Object... params) throws SQLException {
+       long start = System.nanoTime ();
+       ResultSet rs = null;
+       try {
+          rs = prepare (pc, query, params).executeQuery ();
+          int rowCount = 0;
+          while (rs.next()){
+             callback.row (rs);
+             ++rowCount;
+          }//end while
+          completed (SQL_TX_QUERY, start, query, params, rowCount);
+          return rowCount;
+       }catch (SQLException e){
+          SQL_TX_QUERY.error ();
+          pc.statements ().evict (query);
+          throw e;
+       }finally{
+          closeQuietly (rs);
+       }
+    }//end executeQuery
+ 
+    /**
+     * Method to run a parameterized update on the connection of a
+     * transaction, timed like executeQuery above.
+     *
+     * @param pc the connection executeInTransaction passed to the work
+     * @param sql the input SQL string with '?' placeholders
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows affected
+     * @throws java.sql.SQLException when update failed
+     */
+    public int executeUpdate (ConnectionPool.PooledConnection pc, String sql, Object... params) throws SQLException {
+       long start = System.nanoTime ();
+       try {
+          int rows = prepare (pc, sql, params).executeUpdate ();
+          completed (SQL_TX_UPDATE, start, sql, params, rows);
+          return rows;
+       }catch (SQLException e){
+          SQL_TX_UPDATE.error ();
+          pc.statements ().evict (sql);
+          throw e;
+       }
+    }//end executeUpdate
+ 
+    /**
+     * Method to run one statement for many rows of parameters as a JDBC
+     * batch on the connection of a transaction.  The slow query log shows
+     * the first row's values.
+     *
+     * @param pc the connection executeInTransaction passed to the work
+     * @param sql the input SQL string with '?' placeholders
+     * @param rows the values bound for each execution, in order
+     * @return the update count of each execution
+     * @throws java.sql.SQLException when any execution fails
+     */
+    public int[] executeBatch (ConnectionPool.PooledConnection pc, String sql, List<Object[]> rows) throws SQLException {
+       if (rows.isEmpty ())
+          return new int[0];
+       long start = System.nanoTime ();
+       try {
+          PreparedStatement stmt = pc.statements ().prepare (sql);
+          for (Object[] row : rows) {
+             bind (stmt, row);
+             stmt.addBatch ();
+          }
+          int[] counts = stmt.executeBatch ();
+          completed (SQL_TX_BATCH, start, sql, rows.get (0), rows.size ());
+          return counts;
+       }catch (SQLException e){
+          SQL_TX_BATCH.error ();
+          pc.statements ().evict (sql);
+          throw e;
+       }
+    }//end executeBatch
+ 
+    /**
+     * Looks up the prices of many items with one query.  The IN list is
+     * padded to a power of two so only a handful of statement shapes end up
+     * in the statement cache.
+     *
+     * @param itemNames the item names to price
+     * @return the price of every item that exists, keyed by item name
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public Map<String, BigDecimal> priceItems (Collection<String> itemNames) throws SQLException {
+       Map<String, BigDecimal> prices = new HashMap<String, BigDecimal>();
+       if (itemNames.isEmpty())
+          return prices;
+       List<String> names = new ArrayList<String>(new LinkedHashSet<String>(itemNames));
+       int slots = inListSlots (names.size ());
+ 
+       String query = "SELECT " + Item.COLUMNS + " FROM Items WHERE itemName IN (" + placeholders (slots) + ")";
+       Object[] params = new Object[slots];
+       for (int i = 0; i < slots; ++i)
+          params[i] = names.get (Math.min (i, names.size () - 1));
+ 
+       for (Item item : executeQueryForList (query, Item.MAPPER, params))
+          prices.put (item.itemName (), item.price ());
+       return prices;
+    }//end priceItems
+ 
+    /*
+     * IN lists are padded up to a power of two, repeating the last value, so
+     * only a handful of statement shapes end up in the statement cache.
+     */
+    static int inListSlots (int n) {
+       int slots = Integer.highestOneBit (Math.max (1, n));
+       return slots < n ? slots << 1 : slots;
+    }
+ 
+    static String placeholders (int n) {
+       StringBuilder s = new StringBuilder ("?");
+       for (int i = 1; i < n; ++i)
+          s.append (", ?");
+       return s.toString ();
+    }
+ 
+    /**
+     * Sets the status of many orders at once, but only those still in the
+     * expected status: an order someone else changed since the caller looked
+     * at it is reported as a conflict instead of being overwritten.  The
+     * change is one set-based UPDATE per MAX_IN_LIST orders inside a single
+     * transaction, followed by one query explaining the orders it skipped.
+     *
+     * @param orderIDs the orders to update
+     * @param expectedStatus the status the orders must still have
+     * @param newStatus the status to set
+     * @return one result per distinct orderID, in the order given
+     * @throws java.sql.SQLException when the update fails; nothing is changed
+     *         in that case
+     */
+    public List<StatusChange> updateOrderStatuses (Collection<Integer> orderIDs, final String expectedStatus,
+                                                   final String newStatus) throws SQLException {
+       final List<Integer> ids = new ArrayList<Integer>(new LinkedHashSet<Integer>(orderIDs));
+       if (ids.isEmpty())
+          return new ArrayList<StatusChange>();
+       // login of every order updated, for the recent orders cache
+       final Map<Integer, String> updated = new HashMap<Integer, String>();
+       List<StatusChange> results = executeInTransaction (new Transaction<List<StatusChange>>() {
+          public List<StatusChange> run (ConnectionPool.PooledConnection pc) throws SQLException {
+             for (int from = 0; from < ids.size (); from += MAX_IN_LIST) {
+                List<Integer> chunk = ids.subList (from, Math.min (ids.size (), from + MAX_IN_LIST));
+                int slots = inListSlots (chunk.size ());
+                Object[] params = new Object[slots + 2];
+                params[0] = newStatus;
+                for (int i = 0; i < slots; ++i)
+                   params[i + 1] = chunk.get (Math.min (i, chunk.size () - 1));
+                params[slots + 1] = expectedStatus;
+                executeQuery (pc, "UPDATE FoodOrder SET orderStatus = ? WHERE (orderID, orderTimestamp) IN " +
+                                  "(SELECT orderID, orderTimestamp FROM OrderIds WHERE orderID IN (" +
+                                  placeholders (slots) + ")) AND orderStatus = ? RETURNING orderID, login",
+                              new RowCallback() {
+                                 public void row (ResultSet rs) throws SQLException {
+                                    updated.put (rs.getInt (1), rs.getString (2));
+                                 }
+                              }, params);
+             }
+ 
+             // the rest were either changed by someone else or do not exist
+             List<Integer> skipped = new ArrayList<Integer>();
+             for (Integer id : ids)
+                if (!updated.containsKey (id))
+                   skipped.add (id);
+             final Map<Integer, String> current = new HashMap<Integer, String>();
+             for (int from = 0; from < skipped.size (); from += MAX_IN_LIST) {
+                List<Integer> chunk = skipped.subList (from, Math.min (skipped.size (), from + MAX_IN_LIST));
+                int slots = inListSlots (chunk.size ());
+                Object[] params = new Object[slots];
+                for (int i = 0; i < slots; ++i)
+                   params[i] = chunk.get (Math.min (i, chunk.size () - 1));
+                executeQuery (pc, "SELECT orderID, orderStatus FROM FoodOrder WHERE (orderID, orderTimestamp) IN " +
+                                  "(SELECT orderID, orderTimestamp FROM OrderIds WHERE orderID IN (" +
+                                  placeholders (slots) + "))",
+                              new RowCallback() {
+                                 public void row (ResultSet rs) throws SQLException {
+                                    current.put (rs.getInt (1), rs.getString (2).trim ());
+                                 }
+                              }, params);
+             }
+ 
+             List<StatusChange> results = new ArrayList<StatusChange>(ids.size ());
+             for (Integer id : ids) {
+                if (updated.containsKey (id))
+                   results.add (new StatusChange (id, StatusChange.Outcome.UPDATED, newStatus));
+                else if (current.containsKey (id))
+                   results.add (new StatusChange (id, StatusChange.Outcome.CONFLICT, current.get (id)));
+                else
+                   results.add (new StatusChange (id, StatusChange.Outcome.NOT_FOUND, null));
+             }
+             return results;
+          }
+       });
+       for (Map.Entry<Integer, String> order : updated.entrySet ())
+          this._recentOrders.statusChanged (order.getValue (), order.getKey (), newStatus);
+       return results;
+    }//end updateOrderStatuses
+ 
+    /**
+     * Sets the status of every order of a store placed in a time window that
+     * is currently in a given status, with one UPDATE statement.  Orders whose
+     * status someone else changed first no longer match and are left alone.
+     *
+     * @param storeID the store whose orders are updated
+     * @param from the earliest orderTimestamp to include
+     * @param to the orderTimestamp to stop before
+     * @param currentStatus the status the orders must have
+     * @param newStatus the status to set
+     * @return one UPDATED result per order changed
+     * @throws java.sql.SQLException when failed to execute the update
+     */
+    public List<StatusChange> updateOrderStatuses (int storeID, Timestamp from, Timestamp to,
+                                                   String currentStatus, final String newStatus) throws SQLException {
+       final List<String> logins = new ArrayList<String>();
+       List<StatusChange> results = executeQueryForList (
+          "UPDATE FoodOrder SET orderStatus = ? WHERE storeID = ? AND orderTimestamp >= ? AND orderTimestamp < ? " +
+          "AND orderStatus = ? RETURNING orderID, login",
+          new RowMapper<StatusChange>() {
+             public StatusChange map (ResultSet rs) throws SQLException {
+                logins.add (rs.getString (2));
+                return new StatusChange (rs.getInt (1), StatusChange.Outcome.UPDATED, newStatus);
+             }
+          }, newStatus, storeID, from, to, currentStatus);
+       for (int i = 0; i < results.size (); ++i)
+          this._recentOrders.statusChanged (logins.get (i), results.get (i).orderID (), newStatus);
+       return results;
+    }//end updateOrderStatuses
+ 
+    /**
+     * Sets the status of one order.
+     *
+     * @param orderID the order to update
+     * @param newStatus the status to set
+     * @return false when there is no such order
+     * @throws java.sql.SQLException when failed to execute the update
+     */
+    public boolean updateOrderStatus (int orderID, String newStatus) throws SQLException {
+       List<String> login = executeQueryForList (
+          "UPDATE FoodOrder SET orderStatus = ? WHERE orderID = ? AND " + IN_ORDER_PARTITION + " RETURNING login",
+          new RowMapper<String>() {
+             public String map (ResultSet rs) throws SQLException {
+                return rs.getString (1);
+             }
+          }, newStatus, orderID, orderID);
+       if (login.isEmpty ())
+          return false;
+       this._recentOrders.statusChanged (login.get (0), orderID, newStatus);
+       return true;
+    }//end updateOrderStatus
+ 
+    /**
+     * Writes an order and all of its line items in one transaction: the
+     * FoodOrder row is inserted, then the ItemsInOrder rows and the user's
+     * UserItemStats rows are sent with executeBatch, and the whole order is
+     * committed once.  The pg73 driver still sends each batched statement as
+     * its own round trip.
+     *
+     * With pizzastore.orders.writeBehind on, the order is instead queued on
+     * the OrderWriter and committed together with other orders shortly after
+     * this returns; see OrderWriter.
+     *
+     * @param login the user placing the order
+     * @param storeID the store the order is placed at
+     * @param lines the priced line items, one per distinct item
+     * @return the orderID of the new order
+     * @throws java.sql.SQLException when the order could not be written; no
+     *         part of it is kept in that case
+     * @throws java.util.concurrent.RejectedExecutionException when the write
+     *         behind queue is full
+     */
+    public int submitOrder (final String login, final int storeID, final List<OrderLine> lines) throws SQLException {
+       final int orderID = nextOrderId ();
+       final BigDecimal totalPrice = OrderLine.total (lines);
+       if (this._orderWriter != null) {
+          this._orderWriter.submit (new FoodOrder (orderID, login, storeID, totalPrice,
+                                                   new Timestamp (System.currentTimeMillis ()), "incomplete"), lines);
+          return orderID;
+       }
+       FoodOrder order = executeInTransaction (new Transaction<FoodOrder>() {
+          public FoodOrder run (ConnectionPool.PooledConnection pc) throws SQLException {
+             final Timestamp[] placed = new Timestamp[1];
+             executeQuery (pc, "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) " +
+                               "VALUES (?, ?, ?, ?, NOW(), 'incomplete') RETURNING orderTimestamp",
+                           new RowCallback() {
+                              public void row (ResultSet rs) throws SQLException {
+                                 placed[0] = rs.getTimestamp (1);
+                              }
+                           }, orderID, login, storeID, totalPrice);
+ 
+             List<Object[]> items = new ArrayList<Object[]>(lines.size ());
+             for (OrderLine line : lines)
+                items.add (new Object[] { orderID, line.itemName (), line.quantity () });
+             executeBatch (pc, "INSERT INTO ItemsInOrder (orderID, itemName, quantity) VALUES (?, ?, ?)", items);
+
+             executeBatch (pc, ITEM_STATS_UPSERT, itemStats (login, lines, placed[0]));
+             return new FoodOrder (orderID, login, storeID, totalPrice, placed[0], "incomplete");
+          }
+       });
+       this._recentOrders.placed (order);
+       return orderID;
+    }//end submitOrder
+ 
+    /**
+     * The ITEM_STATS_UPSERT parameters for each line of an order.  Lines go
+     * in item name order, so concurrent orders of the same user lock their
+     * UserItemStats rows in the same order and cannot deadlock.
+     *
+     * @param login the user who placed the order
+     * @param lines the order's line items, one per distinct item
+     * @param placed the order's timestamp
+     * @return one row of parameters per line, for executeBatch
+     */
+    static List<Object[]> itemStats (String login, List<OrderLine> lines, Timestamp placed) {
+       List<OrderLine> sorted = new ArrayList<OrderLine> (lines);
+       Collections.sort (sorted, BY_ITEM_NAME);
+       List<Object[]> rows = new ArrayList<Object[]>(sorted.size ());
+       for (OrderLine line : sorted)
+          rows.add (new Object[] { login, line.itemName (), line.quantity (), placed });
+       return rows;
+    }//end itemStats
+ 
+    // false when the rollback failed
+    private static boolean rollback (Connection conn) {
+       try {
+          conn.rollback ();
+          return true;
+       }catch (SQLException e){
+          return false;
+       }
+    }
+ 
+    /*
+     * Records a statement that completed in the metrics and, when it is on,
+     * the slow query log.
+     */
+    private void completed (Metrics.Operation op, long start, String sql, Object[] params, long rows) {
+       long nanos = System.nanoTime () - start;
+       op.record (nanos, rows);
+       if (this._slowQueries != null)
+          this._slowQueries.check (sql, params, nanos, rows);
+    }
+ 
+    /*
+     * Fetches the cached statement for the SQL text and binds the parameters.
+     */
+    static PreparedStatement prepare (ConnectionPool.PooledConnection pc, String sql, Object[] params) throws SQLException {
+       PreparedStatement stmt = pc.statements ().prepare (sql);
+       bind (stmt, params);
+       return stmt;
+    }//end prepare
+
+    // binds params to the '?' placeholders in order; null as a VARCHAR NULL
+    private static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+       for (int i = 0; i < params.length; ++i) {
+          if (params[i] == null)
+             stmt.setNull (i + 1, Types.VARCHAR);
+          else
+             stmt.setObject (i + 1, params[i]);
+       }
+    }
+ 
+    /*
+     * SQLSTATE class 08 is a connection exception; such a connection is
+     * closed instead of being returned to the pool.
+     */
+    static boolean isConnectionError (SQLException e) {
+       String state = e.getSQLState ();
+       return state != null && state.startsWith ("08");
+    }
+ 
+    static void closeQuietly (ResultSet rs) {
+       if (rs == null)
+          return;
+       try {
+          rs.close ();
+       }catch (SQLException e){
+          // ignored.
+       }
     }
  
     /**
      * Method to fetch the last value from sequence. This
      * method issues the query to the DBMS and returns the current
-     * value of sequence used for autogenerated keys
+     * value of sequence used for autogenerated keys.  currval() is session
+     * local, so this only sees values produced on the same pooled connection.
      *
      * @param sequence name of the DB sequence
      * @return current value of a sequence
      * @throws java.sql.SQLException when failed to execute the query
      */
     public int getCurrSeqVal(String sequence) throws SQLException {
-    Statement stmt = this._connection.createStatement ();
- 
-    ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-    if (rs.next())
-       return rs.getInt(1);
+    List<List<String>> result = executeQueryAndReturnResult ("SELECT currval(?)", sequence);
+    if (!result.isEmpty())
+       return Integer.parseInt(result.get(0).get(0));
     return -1;
     }
  
     /**
-     * Method to close the physical connection if it is open.
+     * Returns a new unique orderID for FoodOrder.  Most calls are served from
+     * an in-process block of IDs without touching the database.
+     *
+     * @return the next orderID
+     * @throws java.sql.SQLException when a new block of IDs cannot be reserved
+     */
+    public int nextOrderId() throws SQLException {
+       return this._orderIds.nextId ();
+    }
+ 
+    /**
+     * Fetches one page of a user's order history, newest first with orderID
+     * breaking ties.  Pages are found by keyset rather than OFFSET so they
+     * use idx_foodorder_login_timestamp and cost the same at any depth.
+     *
+     * @param login the user whose orders are listed
+     * @param boundary the order to page from, or null for the first page
+     * @param forward true for older orders than the boundary, false for newer
+     * @param limit the maximum number of rows to return
+     * @return the orders, nearest to the boundary first
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<FoodOrder> orderHistoryPage (String login, FoodOrder boundary, boolean forward, int limit) throws SQLException {
+       if (boundary == null)
+          return recentOrders (login, limit);
+       String columns = "SELECT " + FoodOrder.COLUMNS + " FROM FoodOrder WHERE login = ? ";
+       Timestamp orderTimestamp = boundary.orderTimestamp ();
+       // the redundant plain bound on orderTimestamp makes the index scan
+       // start at the boundary instead of filtering from the newest order,
+       // and lets the planner skip partitions
+       if (forward)
+          return windowedOrders (
+             columns + "AND orderTimestamp <= ? AND (orderTimestamp < ? OR (orderTimestamp = ? AND orderID > ?)) " +
+             "%s ORDER BY orderTimestamp DESC, orderID LIMIT ?",
+             new Object[] { login, orderTimestamp, orderTimestamp, orderTimestamp, boundary.orderID () },
+             true, orderTimestamp, limit);
+       return windowedOrders (
+          columns + "AND orderTimestamp >= ? AND (orderTimestamp > ? OR (orderTimestamp = ? AND orderID < ?)) " +
+          "%s ORDER BY orderTimestamp, orderID DESC LIMIT ?",
+          new Object[] { login, orderTimestamp, orderTimestamp, orderTimestamp, boundary.orderID () },
+          false, orderTimestamp, limit);
+    }//end orderHistoryPage
+ 
+    /**
+     * Fetches one page of stores in storeID order, keyed by storeID.
+     *
+     * @param boundary the store to page from, or null for the first page
+     * @param forward true for stores after the boundary, false for before it
+     * @param limit the maximum number of rows to return
+     * @return the stores, nearest to the boundary first
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<Store> storePage (Store boundary, boolean forward, int limit) throws SQLException {
+       String columns = "SELECT " + Store.COLUMNS + " FROM Store ";
+       if (boundary == null)
+          return executeQueryForList (columns + "ORDER BY storeID LIMIT ?", Store.MAPPER, limit);
+       if (forward)
+          return executeQueryForList (columns + "WHERE storeID > ? ORDER BY storeID LIMIT ?",
+                                      Store.MAPPER, boundary.storeID (), limit);
+       return executeQueryForList (columns + "WHERE storeID < ? ORDER BY storeID DESC LIMIT ?",
+                                   Store.MAPPER, boundary.storeID (), limit);
+    }//end storePage
+ 
+    /**
+     * @param storeID the store to look up
+     * @return the store, or null when it does not exist
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public Store findStore (int storeID) throws SQLException {
+       return executeQueryForObject ("SELECT " + Store.COLUMNS + " FROM Store WHERE storeID = ?",
+                                     Store.MAPPER, storeID);
+    }
+ 
+    /**
+     * @param orderID the order to look up
+     * @return the order, or null when it does not exist
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public FoodOrder findOrder (int orderID) throws SQLException {
+       return executeQueryForObject ("SELECT " + FoodOrder.COLUMNS + " FROM FoodOrder WHERE orderID = ? AND " +
+                                     IN_ORDER_PARTITION, FoodOrder.MAPPER, orderID, orderID);
+    }
+ 
+    /**
+     * @param orderID the order whose items are listed
+     * @return the ItemsInOrder rows of the order, without prices
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<OrderLine> orderLines (int orderID) throws SQLException {
+       return executeQueryForList ("SELECT " + OrderLine.COLUMNS + " FROM ItemsInOrder WHERE orderID = ?",
+                                   OrderLine.MAPPER, orderID);
+    }
+ 
+    /**
+     * @param login the user whose item counts are listed
+     * @param limit the maximum number of items to return
+     * @return the items the user has ordered, most often ordered first and
+     *         most recently ordered first among equals
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<ItemStats> itemStats (String login, int limit) throws SQLException {
+       return executeQueryForList ("SELECT " + ItemStats.COLUMNS + " FROM UserItemStats WHERE login = ? " +
+                                   "ORDER BY timesOrdered DESC, lastOrdered DESC LIMIT ?",
+                                   ItemStats.MAPPER, login, limit);
+    }
+
+    /**
+     * @param login the user whose orders are listed
+     * @param limit the maximum number of orders to return
+     * @return the user's most recent orders, newest first
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<FoodOrder> recentOrders (String login, int limit) throws SQLException {
+       return windowedOrders ("SELECT " + FoodOrder.COLUMNS + " FROM FoodOrder WHERE login = ? " +
+                              "%s ORDER BY orderTimestamp DESC, orderID LIMIT ?",
+                              new Object[] { login }, true, new Timestamp (System.currentTimeMillis ()), limit);
+    }
+ 
+    /*
+     * Runs a query over FoodOrder that moves away from a point in time,
+     * first limited to ORDER_WINDOW_MS from that point so partition pruning
+     * leaves only the latest months to scan.  Only when the window holds
+     * fewer than limit rows is it run again over the whole table; rows
+     * outside the window can never be nearer the point than rows inside.
+     *
+     * The query has a %s for the window condition before its ORDER BY, and
+     * takes the limit as its last parameter, after params.
+     */
+    private List<FoodOrder> windowedOrders (String query, Object[] params, boolean older, Timestamp from,
+                                            int limit) throws SQLException {
+       Object[] windowed = Arrays.copyOf (params, params.length + 2);
+       windowed[params.length] = new Timestamp (from.getTime () + (older ? -ORDER_WINDOW_MS : ORDER_WINDOW_MS));
+       windowed[params.length + 1] = limit;
+       List<FoodOrder> orders = executeQueryForList (
+          String.format (query, older ? "AND orderTimestamp >= ?" : "AND orderTimestamp <= ?"), FoodOrder.MAPPER, windowed);
+       if (orders.size () >= limit)
+          return orders;
+ 
+       Object[] all = Arrays.copyOf (params, params.length + 1);
+       all[params.length] = limit;
+       return executeQueryForList (String.format (query, ""), FoodOrder.MAPPER, all);
+    }//end windowedOrders
+ 
+    /**
+     * Registers a new authenticated session for a user.
+     *
+     * @param login the user's login
+     * @param role the user's role, without padding
+     * @param phoneNum the user's phone number
+     * @param favoriteItems the user's favorite items, may be null
+     * @return the new session
+     */
+    public Session openSession (String login, String role, String phoneNum, String favoriteItems) {
+       Session session = new Session (login, role, phoneNum, favoriteItems);
+       synchronized (this._sessions) {
+          Set<Session> open = this._sessions.get (login);
+          if (open == null) {
+             open = new HashSet<Session>();
+             this._sessions.put (login, open);
+          }
+          open.add (session);
+       }
+       return session;
+    }//end openSession
+ 
+    /**
+     * Ends a session, e.g. when the user logs out.
+     *
+     * @param session the session to end
+     */
+    public void closeSession (Session session) {
+       session.close ();
+       synchronized (this._sessions) {
+          Set<Session> open = this._sessions.get (session.login ());
+          if (open != null && open.remove (session) && open.isEmpty ())
+             this._sessions.remove (session.login ());
+       }
+    }//end closeSession
+ 
+    /**
+     * Marks every open session of a user as stale, so their cached role and
+     * profile are reloaded before the next privileged check.
+     *
+     * @param login the user whose row changed
+     */
+    public void invalidateSessions (String login) {
+       synchronized (this._sessions) {
+          Set<Session> open = this._sessions.get (login);
+          if (open != null)
+             for (Session session : open)
+                session.invalidate ();
+       }
+    }//end invalidateSessions
+ 
+    /**
+     * Returns the session with up to date user data, reloading it with one
+     * query only if it was invalidated since it was last loaded.
+     *
+     * @param session the session to check
+     * @return the same session, or null when the session has ended or the
+     *         user no longer exists
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public Session checkSession (Session session) throws SQLException {
+       if (session.isClosed ())
+          return null;
+       if (session.isStale ()) {
+          List<List<String>> user = executeQueryAndReturnResult (
+             "SELECT role, phoneNum, favoriteItems FROM Users WHERE login = ?", session.login ());
+          if (user.isEmpty ()) {
+             closeSession (session);
+             return null;
+          }
+          session.reload (user.get (0).get (0).trim (), user.get (0).get (1), user.get (0).get (2));
+       }
+       return session;
+    }//end checkSession
+ 
+    /**
+     * @return the cached menu, refreshed whenever updateMenu changes Items
+     */
+    public MenuCache menu() {
+       return this._menu;
+    }
+ 
+    /**
+     * @return the store index used for searches and order checks
+     */
+    public StoreLocator stores() {
+       return this._stores;
+    }
+ 
+    /**
+     * @return each user's last few orders, updated by submitOrder and the
+     *         order status updates
+     */
+    public RecentOrdersCache recentOrderCache() {
+       return this._recentOrders;
+    }
+ 
+    /**
+     * @return the manager reports
+     */
+    public Reports reports() {
+       return this._reports;
+    }
+ 
+    /**
+     * Method to close the physical connections if they are open.
      */
     public void cleanup(){
-       try{
-          if (this._connection != null){
-             this._connection.close ();
-          }//end if
-       }catch (SQLException e){
-          // ignored.
-       }//end try
+       // queued orders are written before the pool goes away
+       if (this._orderWriter != null){
+          this._orderWriter.close ();
+       }//end if
+       if (this._slowQueries != null){
+          this._slowQueries.close ();
+       }//end if
+       this._reports.close ();
+       if (this._pool != null){
+          this._pool.close ();
+       }//end if
     }//end cleanup
  
     /**
      * The main execution method
      *
-     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>,
+     *             optionally followed by --serve <httpPort> to run the HTTP front end
      */
     public static void main (String[] args) {
-       if (args.length != 3) {
+       boolean serve = args.length == 5 && args[3].equals ("--serve");
+       if (args.length != 3 && !serve) {
           System.err.println (
              "Usage: " +
              "java [-classpath <classpath>] " +
              PizzaStore.class.getName () +
-             " <dbname> <port> <user>");
+             " <dbname> <port> <user> [--serve <httpPort>]");
           return;
        }//end if
  
-       Greeting();
+       if (!serve)
+          Greeting();
        PizzaStore esql = null;
        try{
           // use postgres JDBC driver.
@@ -252,6 +1331,14 @@
           String dbport = args[1];
           String user = args[2];
           esql = new PizzaStore (dbname, dbport, user, "");
+          // the menus below are one client of the service, measured per call
+          PizzaStoreService service = Metrics.instrument (new DefaultPizzaStoreService (esql));
+          Metrics.startDump ();
+ 
+          if (serve) {
+             serve (esql, service, Integer.parseInt (args[4]));
+             return;
+          }//end if
  
           boolean keepon = true;
           while(keepon) {
@@ -261,10 +1348,10 @@
              System.out.println("1. Create user");
              System.out.println("2. Log in");
              System.out.println("9. < EXIT");
-             String authorisedUser = null;
+             Session authorisedUser = null;
              switch (readChoice()){
-                case 1: CreateUser(esql); break;
-                case 2: authorisedUser = LogIn(esql); break;
+                case 1: CreateUser(service); break;
+                case 2: authorisedUser = LogIn(service); break;
                 case 9: keepon = false; break;
                 default : System.out.println("Unrecognized choice!"); break;
              }//end switch
@@ -288,25 +1375,27 @@
                  //**the following functionalities should ony be able to be used by managers**
                  System.out.println("10. Update Menu");
                  System.out.println("11. Update User");
+                 System.out.println("12. Reports");
  
                  System.out.println(".........................");
                  System.out.println("20. Log out");
                  switch (readChoice()){
-                    case 1: viewProfile(esql,authorisedUser); break;
-                    case 2: updateProfile(esql,authorisedUser); break;
-                    case 3: viewMenu(esql); break;
-                    case 4: placeOrder(esql, authorisedUser); break;
-                    case 5: viewAllOrders(esql, authorisedUser); break;
-                    case 6: viewRecentOrders(esql, authorisedUser); break;
-                    case 7: viewOrderInfo(esql); break;
-                    case 8: viewStores(esql); break;
-                    case 9: updateOrderStatus(esql, authorisedUser); break;
-                    case 10: updateMenu(esql, authorisedUser); break;
-                    case 11: updateUser(esql,authorisedUser); break;
- 
- 
- 
-                    case 20: usermenu = false; break;
+                    case 1: viewProfile(service, authorisedUser); break;
+                    case 2: updateProfile(service, authorisedUser); break;
+                    case 3: viewMenu(service); break;
+                    case 4: placeOrder(service, authorisedUser); break;
+                    case 5: viewAllOrders(service, authorisedUser); break;
+                    case 6: viewRecentOrders(service, authorisedUser); break;
+                    case 7: viewOrderInfo(service, authorisedUser); break;
+                    case 8: viewStores(service); break;
+                    case 9: updateOrderStatus(service, authorisedUser); break;
+                    case 10: updateMenu(service, authorisedUser); break;
+                    case 11: updateUser(service, authorisedUser); break;
+                    case 12: viewReports(service, authorisedUser); break;
+ 
+ 
+ 
+                    case 20: service.logOut(authorisedUser); usermenu = false; break;
                     default : System.out.println("Unrecognized choice!"); break;
                  }
                }
@@ -328,6 +1417,22 @@
        }//end try
     }//end main
  
+    /*
+     * Runs the HTTP front end until the JVM is asked to exit, e.g. by Ctrl-C.
+     */
+    private static void serve (final PizzaStore esql, PizzaStoreService service, int httpPort) throws Exception {
+       final PizzaStoreServer server = new PizzaStoreServer (service, httpPort);
+       Runtime.getRuntime ().addShutdownHook (new Thread () {
+          public void run () {
+             server.stop (2);
+             esql.cleanup ();
+          }
+       });
+       server.start ();
+       System.out.println ("Serving HTTP on port " + server.port () + ". Press Ctrl-C to stop.");
+       server.awaitStop ();
+    }//end serve
+ 
     public static void Greeting(){
        System.out.println(
           "\n\n*******************************************************\n" +
@@ -358,35 +1463,26 @@
     /*
      * Creates a new user
      **/
-    public static void CreateUser(PizzaStore esql){
+    public static void CreateUser(PizzaStoreService service){
        
  
        try {
           System.out.print("Enter user Login: ");
           String login = in.readLine();
-          String Query = "SELECT U.login FROM Users U WHERE U.login = '" + login + "';";
-          int rowCount = esql.executeQuery(Query);
-          if (rowCount > 0) {
-             System.out.print("entered login already exists");
-             Thread.sleep(1500);
-             Greeting();
-          }
-          else {
-             System.out.print("provide phone number:");
-             String phone_num = in.readLine();
  
-             System.out.print("Provide a password:");
-             String password = in.readLine();
+          System.out.print("provide phone number:");
+          String phone_num = in.readLine();
  
-             String role = "customer";
-             String user_data_query = String.format("INSERT INTO Users (login, password, role, phoneNum) VALUES ('%s', '%s', '%s', '%s');", login,password,role,phone_num);
+          System.out.print("Provide a password:");
+          String password = in.readLine();
  
-             esql.executeUpdate(user_data_query);
-             System.out.println("Added info to data base. Going back to main menu");
-             Thread.sleep(1500);
-             Greeting();
-          }
+          service.createUser(login, password, phone_num);
+          System.out.println("Added info to data base. Going back to main menu");
+          Thread.sleep(1500);
+          Greeting();
  
+       }catch (ServiceException e) {
+          System.out.println(e.getMessage());
        }catch (Exception e) {
           System.err.println(e.getMessage());
        }
@@ -395,40 +1491,26 @@
  
     /*
      * Check log in credentials for an existing user
-     * @return User login or null is the user does not exist
+     * @return the user's session or null is the user does not exist
      **/
-    public static String LogIn(PizzaStore esql){ //Login_works
+    public static Session LogIn(PizzaStoreService service){ //Login_works
        try {
           System.out.print("Enter Login: ");
           String login = in.readLine();
- 
-          String Query = "SELECT U.login FROM Users U WHERE U.login = '" + login + "';";
-          int rowCount = esql.executeQuery(Query);
- 
-          if (rowCount == 1){//Meaning if round one
-             System.out.print("Enter Password: ");
-             String password = in.readLine();
-             String password_Query = String.format("SELECT U.password FROM Users U WHERE U.login = '%s' AND U.password = '%s';",login,password);
- 
- 
-             if (esql.executeQuery(password_Query) == 1) {// password matches login
-                System.out.println("login Success");
-                Thread.sleep(1500);
-                return login;
-             }
-             System.out.println("Incorrect password");
-             return null;
-             }
-          else
-          {
-             System.out.println("Login was not found");
-             return null;
-          }
+          System.out.print("Enter Password: ");
+          String password = in.readLine();
+ 
+          Session session = service.logIn(login, password);
+          System.out.println("login Success");
+          Thread.sleep(1500);
+          return session;
+       }catch (ServiceException e) {
+          System.out.println(e.getMessage());
+          return null;
        }catch(Exception e) {
           System.err.println(e.getMessage());
           return null;
        }
-       // return null;
     }//end
  
  
@@ -437,18 +1519,17 @@
  
  
    // View Profile
-   public static void viewProfile(PizzaStore esql, String User) {
+   public static void viewProfile(PizzaStoreService service, Session session) {
       try {
           
          System.out.println("---USER Profile----");
           
-         String Query = "SELECT * FROM Users U WHERE U.login = '" + User + "';";
-         List<List<String>> User_profile = esql.executeQueryAndReturnResult(Query);
-         System.out.println("User: "+ User_profile.get(0).get(0));
-         System.out.println("password: "+ User_profile.get(0).get(1));
-         System.out.println("role: "+ User_profile.get(0).get(2));
-         System.out.println("favorite Item: "+ User_profile.get(0).get(3));
-         System.out.println("phone_number: "+ User_profile.get(0).get(4));
+         User user = service.viewProfile(session);
+         System.out.println("User: "+ user.login());
+         System.out.println("password: "+ user.password());
+         System.out.println("role: "+ user.role());
+         System.out.println("favorite Item: "+ user.favoriteItems());
+         System.out.println("phone_number: "+ user.phoneNum());
  
       } catch (Exception e) {
          System.out.println(e.getMessage());
@@ -456,14 +1537,11 @@
    }
  
    // Update Profile
-   public static void updateProfile(PizzaStore esql, String User) {
+   public static void updateProfile(PizzaStoreService service, Session session) {
+      String User = session.login();
       try {
          System.out.println("Hello "+User+ " what do you want to update");
  
-         String u = "SELECT * FROM Users U WHERE U.login = '" + User + "';";
-          
-         List<List<String>> user_data = esql.executeQueryAndReturnResult(u);
-                    
          System.out.println("1. Change password");
          System.out.println("2. Change Phone Number");
          System.out.println("3. Update favorite item");
@@ -474,32 +1552,25 @@
  
          if (read_input == 1 ) {
             System.out.print("Enter current password: ");
-            String input_password = in.readLine();
-             
-            // Check if the password matches the current password
-            if (input_password.equals(user_data.get(0).get(1))) { 
-               System.out.print("Enter new password: ");
-               input_password = in.readLine();
-               String change_password = "UPDATE Users SET password = '" + input_password + "' WHERE login = '"+User+ "';";
-               esql.executeUpdate(change_password);
-             }
+            String current_password = in.readLine();
+            System.out.print("Enter new password: ");
+            String new_password = in.readLine();
+            service.changePassword(session, current_password, new_password);
+            System.out.println("Update successful");
           }
           else if (read_input == 2) {
              System.out.print("Enter current phone Number ie(123-567-9979): ");
              String check_phonenum = in.readLine();
-             if (check_phonenum.equals(user_data.get(0).get(4))) {
-                System.out.print("Enter new number: ");
-                String update = in.readLine();
-                String change_phonenum = "UPDATE Users SET phoneNum = '" + update + "' WHERE login = '"+User+ "';";
-                esql.executeUpdate(change_phonenum);
-             }
+             System.out.print("Enter new number: ");
+             String update = in.readLine();
+             service.changePhoneNum(session, check_phonenum, update);
+             System.out.println("Update successful");
           }
           else if (read_input == 3) {
              System.out.print("Enter new favorite item: ");
              String new_favorite_item = in.readLine();
  
-             String update_favorite_item = "UPDATE Users SET favoriteItems = '" + new_favorite_item + "' WHERE login = '"+User+ "';";
-             esql.executeUpdate(update_favorite_item);
+             service.updateFavoriteItems(session, new_favorite_item);
              System.out.println("Update successful");
           }
       } catch (Exception e) {
@@ -508,19 +1579,15 @@
    }
  
    // View Menu
-    public static void viewMenu(PizzaStore esql) {
+    public static void viewMenu(PizzaStoreService service) {
        try {
           
           System.out.println("[---Menu---]\n");
-          List<String> type = Arrays.asList("entree", "sides", "drinks");
+          List<String> type = DefaultPizzaStoreService.ITEM_TYPES;
  
           for (String i : type){
              System.out.println("[---"+i+"---]");
-             String item_type = "SELECT I.itemName, I.price FROM Items I WHERE I.typeOfItem LIKE '%" + i + "%';";
-             List<List<String>> execute_query = esql.executeQueryAndReturnResult(item_type);
-             for (int k = 0; k < execute_query.size();++k) {
-                System.out.println(execute_query.get(k).get(0)+"------------------------$"+execute_query.get(k).get(1));
-             }
+             printItems(service.viewMenu(i));
              System.out.print("\n");
           }
  
@@ -531,50 +1598,34 @@
              System.out.println("3. Entree");
              System.out.println("4. Food Items under a Certain Price");
              System.out.println("5. Sort Menu Highest to Lowest Price");
-             System.out.println("6. Sort Menu Lowest to Highest Price \n");
+             System.out.println("6. Sort Menu Lowest to Highest Price");
+             System.out.println("7. Search (e.g. cheese pepperoni no onions under 15)\n");
              System.out.println("Back To Menu: ");
              System.out.println("8. Back to Menu");
              System.out.println("9. Main Menu\n");
              
              int read_input = readChoice();
-             List<List<String>> Output;
              switch (read_input) {
                 case 1:
                    System.out.flush();
-                   String drinks_query = "SELECT I.itemName, I.price FROM Items I WHERE I.typeOfItem LIKE '%drinks%';";
-                   Output = esql.executeQueryAndReturnResult(drinks_query);
-                   for(int k = 0; k < Output.size(); ++k) {
-                      System.out.println(Output.get(k).get(0)+"------------------------$"+Output.get(k).get(1));
-                   }
+                   printItems(service.viewMenu("drinks"));
                    break;
                 
                 case 2:
-                   String sides_query = "SELECT I.itemName, I.price FROM Items I WHERE I.typeOfItem LIKE '%sides%';";
-                   Output = esql.executeQueryAndReturnResult(sides_query);
-                   for(int k = 0; k < Output.size(); ++k) {
-                      System.out.println(Output.get(k).get(0)+"------------------------$"+Output.get(k).get(1));
-                   }
+                   printItems(service.viewMenu("sides"));
                    break;
                 
                 case 3:
-                   String entree_query = "SELECT I.itemName, I.price FROM Items I WHERE I.typeOfItem LIKE '%entree%';";
-                   Output = esql.executeQueryAndReturnResult(entree_query);
-                   for(int k = 0; k < Output.size(); ++k) {
-                      System.out.println(Output.get(k).get(0)+"------------------------$"+Output.get(k).get(1));
-                   }                 
+                   printItems(service.viewMenu("entree"));
                    break;
                 
                 case 4:
                    System.out.print("Enter a price $ ");
-                   String price_in = in.readLine();
+                   BigDecimal price_in = new BigDecimal(in.readLine().trim());
                    // in.close();
                    for (String i : type){
                       System.out.println("[---"+i+"---]");
-                      String item_type = "SELECT I.itemName, I.price FROM Items I WHERE I.typeOfItem LIKE '%" + i + "%' AND I.price <="+price_in+" ;";
-                      List<List<String>> execute_query = esql.executeQueryAndReturnResult(item_type);
-                      for (int k = 0; k < execute_query.size();++k) {
-                         System.out.println(execute_query.get(k).get(0)+"------------------------$"+execute_query.get(k).get(1));
-                      }
+                      printItems(service.viewMenuUnderPrice(i, price_in));
                       System.out.print("\n");        
                    }              
                    break;
@@ -582,11 +1633,7 @@
                 case 5:
                    for (String i : type){
                       System.out.println("[---"+i+"---]");
-                      String Highest_lowest = "SELECT I.itemName, I.price FROM Items I WHERE I.typeOfItem LIKE '%" + i + "%' ORDER BY I.price DESC ;"; // this will return prices from highes to lowest in different types
-                      List<List<String>> execute_query = esql.executeQueryAndReturnResult(Highest_lowest);
-                      for (int k = 0; k < execute_query.size();++k) {
-                         System.out.println(execute_query.get(k).get(0)+"------------------------$"+execute_query.get(k).get(1));
-                      }
+                      printItems(service.viewMenuByPrice(i, false)); // this will return prices from highes to lowest in different types
                       System.out.print("\n");        
                    }
                    break;
@@ -594,23 +1641,23 @@
                 case 6: 
                    for (String i : type){
                       System.out.println("[---"+i+"---]");
-                      String Lowest_highest = "SELECT I.itemName, I.price FROM Items I WHERE I.typeOfItem LIKE '%" + i + "%' ORDER BY I.price ASC ;";
-                      List<List<String>> execute_query = esql.executeQueryAndReturnResult(Lowest_highest);
-                      for (int k = 0; k < execute_query.size();++k) {
-                         System.out.println(execute_query.get(k).get(0)+"------------------------$"+execute_query.get(k).get(1));
-                      }
+                      printItems(service.viewMenuByPrice(i, true));
                       System.out.print("\n");       
                    }
                    break;
                 
+                case 7:
+                   System.out.print("Search for: ");
+                   List<Item> found = service.searchMenu(in.readLine());
+                   if (found.isEmpty())
+                      System.out.println("No items match.");
+                   printItems(found);
+                   break;
+                
                 case 8:
                    for (String i : type){
                       System.out.println("[---"+i+"---]");
-                      String item_type = "SELECT I.itemName, I.price FROM Items I WHERE I.typeOfItem LIKE '%" + i + "%';";
-                      List<List<String>> execute_query = esql.executeQueryAndReturnResult(item_type);
-                      for (int k = 0; k < execute_query.size();++k) {
-                         System.out.println(execute_query.get(k).get(0)+"------------------------$"+execute_query.get(k).get(1));
-                      }
+                      printItems(service.viewMenu(i));
                       System.out.print("\n");        
                    }
                    break;
@@ -627,109 +1674,166 @@
        }
     }
  
-   // All Roles can place order
-    public static void placeOrder(PizzaStore esql, String login) {
+    // Prints one menu line per item
+    private static void printItems(List<Item> items) {
+       for (Item item : items) {
+          System.out.println(item.itemName()+"------------------------$"+item.price());
+       }
+    }
+ 
+   // All Roles can place order: a new one, a past one again, or their usual
+    public static void placeOrder(PizzaStoreService service, Session session) {
     try {
-       System.out.print("Enter store ID: ");
+       System.out.println("1. New order");
+       System.out.println("2. Repeat a past order");
+       System.out.println("3. Order my usual");
+       switch (readChoice()) {
+          case 1: break;
+          case 2: repeatOrder(service, session); return;
+          case 3: orderUsual(service, session); return;
+          default: System.out.println("Unrecognized choice!"); return;
+       }
+
+       System.out.print("Enter store ID (or 0 to find a store): ");
        int storeID = Integer.parseInt(in.readLine());
-       
-       String storeStatusQuery = "SELECT isOpen FROM Store WHERE storeID = " + storeID;
-       List<List<String>> storeStatusResult = esql.executeQueryAndReturnResult(storeStatusQuery);
-          
-       // Check if store is open
-       if (storeStatusResult.isEmpty() || !storeStatusResult.get(0).get(0).equalsIgnoreCase("yes")) {
-          System.out.println("Cannot place order. The selected store is closed.");
-          return;
+       if (storeID == 0) {
+          findStores(service, true);
+          System.out.print("Enter store ID: ");
+          storeID = Integer.parseInt(in.readLine());
        }
        
-       List<String> items = new ArrayList<>();
-       List<Integer> quantities = new ArrayList<>();
-       double totalPrice = 0;
+       // Collect the whole order first; quantities of repeated items add up
+       Map<String, Integer> quantities = new LinkedHashMap<>();
        
        while (true) {
           System.out.print("Enter item name (or type 'done' to finish): ");
           String itemName = in.readLine();
           if (itemName.equalsIgnoreCase("done")) break;
-          
-          System.out.print("Enter quantity: ");
-          int quantity = Integer.parseInt(in.readLine());
-          
-          // Fetch item price
-          String priceQuery = "SELECT price FROM Items WHERE itemName = '" + itemName + "'";
-          List<List<String>> priceResult = esql.executeQueryAndReturnResult(priceQuery);
-          
-          if (priceResult.isEmpty()) {
+          // checked against the cached menu so a typo is asked again
+          if (service.findItem(itemName) == null) {
              System.out.println("Item not found. Please enter a valid item.");
              continue;
           }
           
-          // Calculate total price
-          double price = Double.parseDouble(priceResult.get(0).get(0));
-          totalPrice += price * quantity;
+          System.out.print("Enter quantity: ");
+          int quantity = Integer.parseInt(in.readLine());
           
-          items.add(itemName);
-          quantities.add(quantity);
-       }
-       
-       // Check if any items were selected
-       if (items.isEmpty()) {
-          System.out.println("No items selected. Order cancelled.");
-          return;
+          Integer previous = quantities.get(itemName);
+          quantities.put(itemName, previous == null ? quantity : previous + quantity);
        }
- 
-       // Generate a new orderID manually
-       String getMaxOrderIDQuery = "SELECT COALESCE(MAX(orderID), 0) + 1 FROM FoodOrder";
-       List<List<String>> maxOrderIDResult = esql.executeQueryAndReturnResult(getMaxOrderIDQuery);
-       int orderID = Integer.parseInt(maxOrderIDResult.get(0).get(0));
- 
-       // Insert order into FoodOrder table
-       String insertOrderQuery = "INSERT INTO FoodOrder (orderID, login, storeID, totalPrice, orderTimestamp, orderStatus) " +
-                                 "VALUES (" + orderID + ", '" + login + "', " + storeID + ", " + totalPrice + ", NOW(), 'incomplete')";
-       esql.executeUpdate(insertOrderQuery);
        
-       // Insert each item into ItemsInOrder table
-       for (int i = 0; i < items.size(); i++) {
-          String insertItemQuery = "INSERT INTO ItemsInOrder (orderID, itemName, quantity) VALUES (" + orderID + ", '" + items.get(i) + "', " + quantities.get(i) + ")";
-          esql.executeUpdate(insertItemQuery);
+       // Price, check and write the order in a single transaction
+       OrderReceipt receipt = service.placeOrder(session, storeID, quantities);
+       for (String unknown : receipt.unknownItems()) {
+          System.out.println("Item not found, skipping: " + unknown);
        }
        
-       System.out.println("Order placed successfully. Total Price: $" + totalPrice + " Order ID: " + orderID);
+       System.out.println("Order placed successfully. Total Price: $" + receipt.totalPrice() + " Order ID: " + receipt.orderID());
+       } catch (ServiceException e) {
+          System.out.println(e.getMessage());
        } catch (Exception e) {
           System.err.println(e.getMessage());
        }
     }
  
-    // View all orders for a user
-    public static void viewAllOrders(PizzaStore esql, String login) {
+    // Places one of the user's past orders again, at its store or another
+    private static void repeatOrder(PizzaStoreService service, Session session) throws Exception {
+       for (FoodOrder order : service.recentOrders(session))
+          System.out.println("Order ID: " + order.orderID() + " | Store ID: " + order.storeID() +
+                             " | Total: $" + order.totalPrice() + " | " + order.orderTimestamp());
+       System.out.print("Enter order ID to repeat: ");
+       int orderID = Integer.parseInt(in.readLine());
+       System.out.print("Enter store ID (or 0 for the same store): ");
+       int storeID = Integer.parseInt(in.readLine());
+       printReceipt(service.repeatOrder(session, orderID, storeID));
+    }
+
+    // Shows the items the user orders most and places them in one step
+    private static void orderUsual(PizzaStoreService service, Session session) throws Exception {
+       List<OrderLine> usual = service.usualOrder(session);
+       if (usual.isEmpty()) {
+          System.out.println("You have no usual yet. Place an order first.");
+          return;
+       }
+       System.out.println("Your usual:");
+       for (OrderLine line : usual)
+          System.out.println("  " + line.quantity() + " x " + line.itemName() + " @ $" + line.unitPrice());
+       System.out.println("  Total: $" + OrderLine.total(usual));
+       System.out.print("Enter store ID (or 0 for the store of your last order): ");
+       int storeID = Integer.parseInt(in.readLine());
+       printReceipt(service.orderUsual(session, storeID));
+    }
+
+    private static void printReceipt(OrderReceipt receipt) {
+       for (String unknown : receipt.unknownItems())
+          System.out.println("No longer on the menu, skipping: " + unknown);
+       System.out.println("Order placed successfully. Total Price: $" + receipt.totalPrice() + " Order ID: " + receipt.orderID());
+    }
+
+    // View all orders for a user, one page at a time, newest first
+    public static void viewAllOrders(final PizzaStoreService service, final Session session) {
        try {
-          String query = "SELECT * FROM FoodOrder WHERE login = '" + login + "'";
-          List<List<String>> result = esql.executeQueryAndReturnResult(query);
+          KeysetPager<FoodOrder> pager = new KeysetPager<FoodOrder>(new KeysetPager.PageQuery<FoodOrder>() {
+             public List<FoodOrder> fetch(FoodOrder boundary, boolean forward, int limit) throws SQLException {
+                try {
+                   return service.orderHistoryPage(session, boundary, forward, limit);
+                } catch (ServiceException e) {
+                   throw new SQLException(e.getMessage());
+                }
+             }
+          }, PAGE_SIZE);
+          List<FoodOrder> page = pager.first();
           
-          if (result.isEmpty()) {
+          if (page.isEmpty()) {
              System.out.println("No orders found.");
-          } else {
+             return;
+          }
+          
+          while (true) {
              System.out.println("All Orders:");
-             for (List<String> row : result) {
-                System.out.println(row);
+             for (FoodOrder order : page) {
+                System.out.println(order.toRowString());
              }
+             int choice = readPageChoice(pager);
+             if (choice == 1) page = pager.next();
+             else if (choice == 2) page = pager.previous();
+             else if (choice == 3) { printAllOrders(service, session); return; }
+             else if (choice == 9) return;
           }
        } catch (Exception e) {
           System.err.println(e.getMessage());
        }
     }
  
+    // Prints a user's whole order history as it streams in
+    private static void printAllOrders(PizzaStoreService service, Session session) throws ServiceException, SQLException {
+       service.orderHistory(session, new Consumer<FoodOrder>() {
+          public void accept(FoodOrder order) {
+             System.out.println(order.toRowString());
+          }
+       });
+    }
+ 
+    // Shows the paging options and returns the user's choice
+    private static int readPageChoice(KeysetPager<?> pager) {
+       if (pager.hasNext()) System.out.println("1. Next page");
+       if (pager.hasPrevious()) System.out.println("2. Previous page");
+       System.out.println("3. Show all");
+       System.out.println("9. Back");
+       return readChoice();
+    }
+ 
     // View the 5 most recent orders for a user
-    public static void viewRecentOrders(PizzaStore esql, String login) {
+    public static void viewRecentOrders(PizzaStoreService service, Session session) {
        try {
-          String query = "SELECT * FROM FoodOrder WHERE login = '" + login + "' ORDER BY orderTimestamp DESC LIMIT 5";
-          List<List<String>> result = esql.executeQueryAndReturnResult(query);
+          List<FoodOrder> result = service.recentOrders(session);
           
           if (result.isEmpty()) {
              System.out.println("No recent orders found.");
           } else {
              System.out.println("Recent Orders:");
-             for (List<String> row : result) {
-                System.out.println(row);
+             for (FoodOrder order : result) {
+                System.out.println(order.toRowString());
              }
           }
        } catch (Exception e) {
@@ -738,110 +1842,179 @@
     }
  
     // View detailed information about an order
-    public static void viewOrderInfo(PizzaStore esql) {
+    public static void viewOrderInfo(PizzaStoreService service, Session session) {
        try {
           System.out.print("Enter Order ID: ");
           int orderID = Integer.parseInt(in.readLine());
           
-          // Fetch order details
-          String orderQuery = "SELECT orderTimestamp, totalPrice, orderStatus FROM FoodOrder WHERE orderID = " + orderID;
-          List<List<String>> orderResult = esql.executeQueryAndReturnResult(orderQuery);
-          
-          if (orderResult.isEmpty()) {
-             System.out.println("Order not found.");
-             return;
-          }
+          // Fetch the order and its items
+          OrderDetails details = service.orderInfo(session, orderID);
+          FoodOrder order = details.order();
           
           System.out.println("Order Details:");
-          System.out.println("Timestamp: " + orderResult.get(0).get(0));
-          System.out.println("Total Price: $" + orderResult.get(0).get(1));
-          System.out.println("Status: " + orderResult.get(0).get(2));
-          
-          // Fetch order items
-          String itemsQuery = "SELECT itemName, quantity FROM ItemsInOrder WHERE orderID = " + orderID;
-          List<List<String>> itemsResult = esql.executeQueryAndReturnResult(itemsQuery);
+          System.out.println("Timestamp: " + order.orderTimestamp());
+          System.out.println("Total Price: $" + order.totalPrice());
+          System.out.println("Status: " + order.orderStatus());
           
           System.out.println("Items in Order:");
-          for (List<String> item : itemsResult) {
-             System.out.println("Item: " + item.get(0) + ", Quantity: " + item.get(1));
+          for (OrderLine item : details.lines()) {
+             System.out.println("Item: " + item.itemName() + ", Quantity: " + item.quantity());
           }
+       } catch (ServiceException e) {
+          System.out.println(e.getMessage());
        } catch (Exception e) {
           System.err.println(e.getMessage());
        }
     }
  
-    // View all stores
-    public static void viewStores(PizzaStore esql) {
+    // View all stores, one page at a time in storeID order
+    public static void viewStores(final PizzaStoreService service) {
        try {
-          // Display all stores with full information
-          String storeQuery = "SELECT storeID, address, city, state, isOpen, reviewScore FROM Store";
-          List<List<String>> stores = esql.executeQueryAndReturnResult(storeQuery);
+          System.out.println("1. Browse all stores");
+          System.out.println("2. Find stores by city and state");
+          if (readChoice() == 2) {
+             System.out.print("Open stores only? (y/n): ");
+             findStores(service, in.readLine().trim().equalsIgnoreCase("y"));
+             return;
+          }
+          
+          KeysetPager<Store> pager = new KeysetPager<Store>(new KeysetPager.PageQuery<Store>() {
+             public List<Store> fetch(Store boundary, boolean forward, int limit) throws SQLException {
+                return service.storePage(boundary, forward, limit);
+             }
+          }, PAGE_SIZE);
+          List<Store> stores = pager.first();
           
           if (stores.isEmpty()) {
              System.out.println("No stores available.");
              return;
           }
           
-          System.out.println("All Stores:");
-          for (List<String> store : stores) {
-             System.out.println("Store ID: " + store.get(0) + ", Address: " + store.get(1) + ", City: " + store.get(2) + ", State: " + store.get(3) + ", Open Status: " + store.get(4) + ", Review Score: " + store.get(5));
+          while (true) {
+             System.out.println("All Stores:");
+             for (Store store : stores) {
+                printStore(store);
+             }
+             int choice = readPageChoice(pager);
+             if (choice == 1) stores = pager.next();
+             else if (choice == 2) stores = pager.previous();
+             else if (choice == 3) { printAllStores(service); return; }
+             else if (choice == 9) return;
           }
        } catch (Exception e) {
           System.err.println(e.getMessage());
        }
     }
  
+    // Asks for a city and state and prints the matching stores, best reviewed first
+    private static void findStores(PizzaStoreService service, boolean openOnly) throws Exception {
+       System.out.print("City (blank for any): ");
+       String city = in.readLine();
+       System.out.print("State, e.g. California or CA (blank for any): ");
+       String state = in.readLine();
+       
+       List<Store> stores = service.findStores(state, city, openOnly);
+       if (stores.isEmpty()) {
+          System.out.println("No stores found.");
+          return;
+       }
+       for (Store store : stores) {
+          printStore(store);
+       }
+    }
+ 
+    // Prints every store as it streams in
+    private static void printAllStores(PizzaStoreService service) throws SQLException {
+       service.stores(new Consumer<Store>() {
+          public void accept(Store store) {
+             printStore(store);
+          }
+       });
+    }
+ 
+    private static void printStore(Store store) {
+       System.out.println("Store ID: " + store.storeID() + ", Address: " + store.address() + ", City: " + store.city() + ", State: " + store.state() + ", Open Status: " + store.isOpenText() + ", Review Score: " + (Double.isNaN(store.reviewScore()) ? "null" : String.valueOf(store.reviewScore())));
+    }
+ 
     // Update order status (only driver and manager)
-    public static void updateOrderStatus(PizzaStore esql, String login) {
+    public static void updateOrderStatus(PizzaStoreService service, Session session) {
        try {
-          // Check if the user is a driver or manager
-          String roleQuery = "SELECT role FROM Users WHERE login = '" + login + "'";
-          List<List<String>> roleResult = esql.executeQueryAndReturnResult(roleQuery);
-          
-          if (roleResult.isEmpty()) {
-             System.out.println("User not found.");
+          System.out.println("1. Update one order");
+          System.out.println("2. Update several orders by ID");
+          System.out.println("3. Update a store's orders placed in a time window");
+          int choice = readChoice();
+          if (choice == 2) {
+             updateOrderStatusesById(service, session);
              return;
           }
-          
-          String role = roleResult.get(0).get(0).trim();
-          if (!role.equalsIgnoreCase("driver") && !role.equalsIgnoreCase("manager")) {
-             System.out.println("Access denied. Only drivers and managers can update order status.");
+          if (choice == 3) {
+             updateOrderStatusesByStore(service, session);
              return;
           }
           
           System.out.print("Enter Order ID: ");
           int orderID = Integer.parseInt(in.readLine());
           
-          // Check if the order exists
-          String orderQuery = "SELECT orderStatus FROM FoodOrder WHERE orderID = " + orderID;
-          List<List<String>> orderResult = esql.executeQueryAndReturnResult(orderQuery);
-          
-          if (orderResult.isEmpty()) {
-             System.out.println("Order not found.");
-             return;
-          }
-          
           System.out.print("Enter new status (incomplete or complete): ");
           String newStatus = in.readLine().trim();
           
-          if (!newStatus.equalsIgnoreCase("incomplete") && !newStatus.equalsIgnoreCase("complete")) {
-             System.out.println("Invalid status. Status must be 'incomplete' or 'complete'.");
-             return;
-          }
-          
-          String updateQuery = "UPDATE FoodOrder SET orderStatus = '" + newStatus + "' WHERE orderID = " + orderID;
-          esql.executeUpdate(updateQuery);
+          service.updateOrderStatus(session, orderID, newStatus);
           
           System.out.println("Order status updated successfully.");
+       } catch (ServiceException e) {
+          System.out.println(e.getMessage());
        } catch (Exception e) {
           System.err.println(e.getMessage());
        }
     }
  
-    public static void updateMenu(PizzaStore esql, String User) {
+    // Bulk status update of a list of order IDs, e.g. a driver closing out a shift
+    private static void updateOrderStatusesById(PizzaStoreService service, Session session) throws Exception {
+       System.out.print("Enter Order IDs separated by commas: ");
+       List<Integer> orderIDs = new ArrayList<>();
+       for (String id : in.readLine().split(",")) {
+          if (!id.trim().isEmpty())
+             orderIDs.add(Integer.parseInt(id.trim()));
+       }
+       System.out.print("Enter their current status (incomplete or complete): ");
+       String expected = in.readLine().trim();
+       System.out.print("Enter new status (incomplete or complete): ");
+       String newStatus = in.readLine().trim();
+       
+       int updated = 0;
+       for (StatusChange change : service.updateOrderStatuses(session, orderIDs, expected, newStatus)) {
+          switch (change.outcome()) {
+             case UPDATED: ++updated; break;
+             case CONFLICT: System.out.println("Order " + change.orderID() + " skipped, it is already " + change.orderStatus() + "."); break;
+             case NOT_FOUND: System.out.println("Order " + change.orderID() + " not found."); break;
+          }
+       }
+       System.out.println(updated + " order(s) updated successfully.");
+    }
+ 
+    // Bulk status update of every matching order of one store
+    private static void updateOrderStatusesByStore(PizzaStoreService service, Session session) throws Exception {
+       System.out.print("Enter store ID: ");
+       int storeID = Integer.parseInt(in.readLine().trim());
+       System.out.print("Orders placed from (yyyy-mm-dd hh:mm:ss): ");
+       Timestamp from = Timestamp.valueOf(in.readLine().trim());
+       System.out.print("Orders placed before (yyyy-mm-dd hh:mm:ss): ");
+       Timestamp to = Timestamp.valueOf(in.readLine().trim());
+       System.out.print("Enter their current status (incomplete or complete): ");
+       String current = in.readLine().trim();
+       System.out.print("Enter new status (incomplete or complete): ");
+       String newStatus = in.readLine().trim();
+       
+       List<StatusChange> changes = service.updateOrderStatuses(session, storeID, from, to, current, newStatus);
+       for (StatusChange change : changes) {
+          System.out.println("Order " + change.orderID() + " is now " + change.orderStatus() + ".");
+       }
+       System.out.println(changes.size() + " order(s) updated successfully.");
+    }
+ 
+    public static void updateMenu(PizzaStoreService service, Session session) {
        try {
-          String u = "SELECT U.role FROM USERS U WHERE U.login = '" + User + "' AND U.role = 'manager';";
-          if(esql.executeQuery(u) == 1) {
+          if(session.isManager()) {
              System.out.println("Select the following options");
              System.out.println("1. Update Item");
              System.out.println("2. Add new item to menu");
@@ -853,117 +2026,63 @@
                 case 1:
                    System.out.println("Enter an item name");
                    String select_item = in.readLine();
-                   String item_query = "SELECT * FROM Items I WHERE I.itemName ='" +select_item+ "';";
- 
-                   if(esql.executeQuery(item_query) == 1) {
-                      List<List<String>> item_info = esql.executeQueryAndReturnResult(item_query);
-                      System.out.println("Item: "+item_info.get(0).get(0));
-                      System.out.println("ingredients: "+item_info.get(0).get(1));
-                      System.out.println("Type of item: "+item_info.get(0).get(2));
-                      System.out.println("price: "+item_info.get(0).get(3));
-                      System.out.println("Description: "+item_info.get(0).get(4));
- 
-                      System.out.println("Selection option: Item (1), ingredients (2), Type (3), Price (4), Description (5)");
- 
-                      int update_item = readChoice();
-                      String query;
-                      String input_type;
-                      switch (update_item) {
-                         case 1:
-                            System.out.print("Rename Item: "); 
-                            input_type = in.readLine();
-                           
-                           String values = String.format("INSERT INTO Items (itemName, ingredients, typeOfItem, price, description) " + "VALUES ('%s', '%s', '%s', %s, '%s');", input_type, item_info.get(0).get(1), item_info.get(0).get(2), item_info.get(0).get(3), item_info.get(0).get(4) ); 
-                           String DeleteOldItem = "DELETE FROM Items WHERE itemName = '"+item_info.get(0).get(0) + "';";
-                           
-                            try {
-                              
-                                 esql.executeUpdate(values);
-                                 esql.executeUpdate(DeleteOldItem);
-                            } catch (Exception e) {
-                               System.err.println(e.getMessage());
-                            }
-                            break;
- 
-                         case 2:
-                            System.out.print("ingredients: ");
-                            input_type = in.readLine();
-                            query = "UPDATE Items SET ingredients = '" + input_type + "' WHERE itemName = '"+select_item+ "';";
-                            try {
-                               esql.executeUpdate(query);
-                            } catch (Exception e) {
-                               System.err.println(e.getMessage());
-                            }
-                            break;
-                         
-                         case 3:
-                            System.out.print("Type of Item: "); 
-                            input_type = in.readLine();
-                            query = "UPDATE Items SET typeOfItem = '" + input_type + "' WHERE itemName = '"+select_item+ "';";
-                            try {
-                               esql.executeUpdate(query);
-                            } catch (Exception e) {
-                               System.err.println(e.getMessage());
-                            }
-                            break;
-                         
-                         case 4:
-                            System.out.print("Edit Price: ");
-                            input_type = in.readLine();
-                            query = "UPDATE Items SET price = " + input_type + " WHERE itemName = '"+select_item+ "';";
-                            try {
-                               esql.executeUpdate(query);
-                            } catch (Exception e) {
-                               System.err.println(e.getMessage());
-                            }
-                            break;
-                         
-                         case 5:
-                            System.out.print("Enter Description of item: ");
-                            input_type = in.readLine();
-                            query = "UPDATE Items SET description = '" + input_type + "' WHERE itemName = '"+select_item+ "';";
-                            try {
-                               esql.executeUpdate(query);
-                            } catch (Exception e) {
-                               System.err.println(e.getMessage());
-                            }
-                            break;
-        
-                         default:
-                            break;
-                      }
+                   Item item = service.findItem(session, select_item);
+ 
+                   System.out.println("Item: "+item.itemName());
+                   System.out.println("ingredients: "+item.ingredients());
+                   System.out.println("Type of item: "+item.typeOfItem());
+                   System.out.println("price: "+item.price());
+                   System.out.println("Description: "+item.description());
+ 
+                   System.out.println("Selection option: Item (1), ingredients (2), Type (3), Price (4), Description (5)");
+ 
+                   int update_item = readChoice();
+                   Item updated;
+                   switch (update_item) {
+                      case 1:
+                         System.out.print("Rename Item: "); 
+                         updated = new Item(in.readLine(), item.ingredients(), item.typeOfItem(), item.price(), item.description());
+                         break;
+ 
+                      case 2:
+                         System.out.print("ingredients: ");
+                         updated = new Item(item.itemName(), in.readLine(), item.typeOfItem(), item.price(), item.description());
+                         break;
+                      
+                      case 3:
+                         System.out.print("Type of Item: "); 
+                         updated = new Item(item.itemName(), item.ingredients(), in.readLine(), item.price(), item.description());
+                         break;
+                      
+                      case 4:
+                         System.out.print("Edit Price: ");
+                         updated = new Item(item.itemName(), item.ingredients(), item.typeOfItem(), new BigDecimal(in.readLine().trim()), item.description());
+                         break;
+                      
+                      case 5:
+                         System.out.print("Enter Description of item: ");
+                         updated = new Item(item.itemName(), item.ingredients(), item.typeOfItem(), item.price(), in.readLine());
+                         break;
+     
+                      default:
+                         return;
                    }
-                   else {
-                      throw new Exception("Item Not Found");
-                   }        
+                   service.updateItem(session, select_item, updated);
                    break;
                 
                 case 2:
                    System.out.print("Name of Item: ");
                    String new_item = in.readLine();
-                   String check_item_unique = "SELECT * FROM Items WHERE itemName = '"+ new_item +"';";
-                   if (esql.executeQuery(check_item_unique) == 0) { // is unique and not found
-                      
-                      System.out.print("Enter ingrediants: ");
-                      String ingredients = in.readLine();
-                      System.out.print("Enter type of item: ");
-                      String type = in.readLine();
-                      if (type.equals("entree") || type.equals("drinks") || type.equals("sides") ) {
-                         System.out.print("Enter Price: ");
-                         String price = in.readLine();
-                         System.out.print("Enter Description: ");
-                         String description = in.readLine();
-                         String insert_Item_Query = "INSERT INTO Items (itemName, \"ingredients\", typeOfItem, price, \"description\") " + "VALUES ('" + new_item + "', '" + ingredients + "', '" + type + "', " + price + ", '" + description + "');";
-                         esql.executeUpdate(insert_Item_Query);
-                         System.out.println("Added new item to data base");
-                      }
-                      else {
-                         throw new Exception("Invalid type of Item");
-                      }
-                   }
-                   else {
-                      throw new Exception("Item exists in data base");
-                   }
+                   System.out.print("Enter ingrediants: ");
+                   String ingredients = in.readLine();
+                   System.out.print("Enter type of item: ");
+                   String type = in.readLine();
+                   System.out.print("Enter Price: ");
+                   String price = in.readLine();
+                   System.out.print("Enter Description: ");
+                   String description = in.readLine();
+                   service.addItem(session, new Item(new_item, ingredients, type, new BigDecimal(price.trim()), description));
+                   System.out.println("Added new item to data base");
                    break;
                 
                 case 3:
@@ -972,10 +2091,6 @@
                 default:
                    break;
              }
- 
- 
- 
- 
           }
           else {
              throw new Exception("Access Denied. Only managers can update the Menu.");
@@ -987,11 +2102,10 @@
  
     }
  
-   public static void updateUser(PizzaStore esql, String User) {
+   public static void updateUser(PizzaStoreService service, Session session) {
     try {
         // Ensure only manager can update users
-        String managerCheck = "SELECT * FROM Users WHERE login = '" + User + "' AND role = 'manager';";
-        if (esql.executeQuery(managerCheck) != 1) {
+        if (!session.isManager()) {
             throw new Exception("Access Denied. Only managers can update a user.");
         }
 
@@ -1004,59 +2118,21 @@
             System.out.print("Enter the current login name: ");
             String oldLogin = in.readLine();
 
-            // Check if user exists
-            String userCheck = "SELECT * FROM Users WHERE login = '" + oldLogin + "'";
-            if (esql.executeQuery(userCheck) == 0) {
-                throw new Exception("User '" + oldLogin + "' does not exist.");
-            }
-
             System.out.print("Enter the new login name: ");
             String newLogin = in.readLine();
 
-            // Check if new login already exists
-            String checkNewLogin = "SELECT * FROM Users WHERE login = '" + newLogin + "'";
-            if (esql.executeQuery(checkNewLogin) != 0) {
-                throw new Exception("New login '" + newLogin + "' already exists. Choose another.");
-            }
-
-            try {
-                // Disable foreign key constraint
-                esql.executeUpdate("ALTER TABLE FoodOrder DROP CONSTRAINT foodorder_login_fkey;");
-
-                // Update Users.login and FoodOrder.login
-                String updateUserQuery = "UPDATE Users SET login = '" + newLogin + "' WHERE login = '" + oldLogin + "'";
-                esql.executeUpdate(updateUserQuery);
-
-                String updateOrdersQuery = "UPDATE FoodOrder SET login = '" + newLogin + "' WHERE login = '" + oldLogin + "'";
-                esql.executeUpdate(updateOrdersQuery);
-
-                // Re-add foreign key constraint
-                esql.executeUpdate("ALTER TABLE FoodOrder ADD CONSTRAINT foodorder_login_fkey FOREIGN KEY (login) REFERENCES Users(login) ON DELETE CASCADE;");
-
-                System.out.println("User login updated successfully.");
-            } catch (Exception e) {
-                throw new Exception("Error updating login: " + e.getMessage());
-            }
+            service.renameUser(session, oldLogin, newLogin);
+            System.out.println("User login updated successfully.");
         }
 
         else if (choice == 2) {
             System.out.print("Enter the user login name: ");
             String userLogin = in.readLine();
-            String userCheck = "SELECT login FROM Users WHERE login = '" + userLogin + "'";
-            
-            if (esql.executeQuery(userCheck) == 0) {
-                throw new Exception("User '" + userLogin + "' does not exist.");
-            }
 
             System.out.print("Enter new role: ");
             String newRole = in.readLine();
-            if (newRole.equals("manager") || newRole.equals("driver") || newRole.equals("customer")) {
-                String updateRoleQuery = "UPDATE Users SET role = '" + newRole + "' WHERE login = '" + userLogin + "'";
-                esql.executeUpdate(updateRoleQuery);
-                System.out.println("User role updated successfully.");
-            } else {
-                throw new Exception("Invalid role. Choose from: 'manager', 'driver', or 'customer'.");
-            }
+            service.changeRole(session, userLogin, newRole);
+            System.out.println("User role updated successfully.");
         }
 
         else {
@@ -1067,4 +2143,55 @@
     }
 }
 
+   // Managers only: sales and delivery figures over a range of days
+   public static void viewReports(PizzaStoreService service, Session session) {
+    try {
+       if (!session.isManager()) {
+          System.out.println("Access Denied. Only managers can view reports.");
+          return;
+       }
+       System.out.print("Enter first day (yyyy-mm-dd, blank for 30 days ago): ");
+       String first = in.readLine().trim();
+       System.out.print("Enter last day (yyyy-mm-dd, blank for today): ");
+       String last = in.readLine().trim();
+       LocalDate lastDay = last.isEmpty() ? LocalDate.now() : LocalDate.parse(last);
+       LocalDate firstDay = first.isEmpty() ? lastDay.minusDays(29) : LocalDate.parse(first);
+
+       System.out.println("1. Revenue per store per day");
+       System.out.println("2. Top items by quantity");
+       System.out.println("3. Average order value by state");
+       System.out.println("4. Order completion rate by store");
+       System.out.println("5. All of the above");
+       int choice = readChoice();
+       Reports.Report report = service.reports(session, firstDay, lastDay, 10);
+
+       if (choice == 1 || choice == 5) {
+          System.out.println("-- Revenue per store per day, " + firstDay + " to " + lastDay);
+          for (Reports.StoreDay row : report.revenue())
+             System.out.println("Store ID: " + row.storeID() + " | " + row.day() + " | Orders: " + row.orders() +
+                                " | Revenue: $" + row.revenue());
+       }
+       if (choice == 2 || choice == 5) {
+          System.out.println("-- Top items by quantity");
+          for (Reports.ItemTotal row : report.topItems())
+             System.out.println(row.itemName() + " | Quantity: " + row.quantity() + " | Orders: " + row.orders());
+       }
+       if (choice == 3 || choice == 5) {
+          System.out.println("-- Average order value by state");
+          for (Reports.StateAverage row : report.averages())
+             System.out.println(row.state() + " | Orders: " + row.orders() + " | Average: $" + row.averageOrderValue());
+       }
+       if (choice == 4 || choice == 5) {
+          System.out.println("-- Order completion rate by store");
+          for (Reports.Completion row : report.completion())
+             System.out.println("Store ID: " + row.storeID() + " | Completed: " + row.completed() + " of " +
+                                row.orders() + String.format(" (%.1f%%)", 100 * row.rate()));
+       }
+    } catch (ServiceException e) {
+       System.out.println(e.getMessage());
+    } catch (Exception e) {
+       System.err.println(e.getMessage());
+    }
+ }
+
  }//end PizzaStore
\ No newline at end of file
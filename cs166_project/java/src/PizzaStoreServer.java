@@ -0,0 +1,786 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP/JSON front end for PizzaStoreService, started with
+ * PizzaStore <dbname> <port> <user> --serve <httpPort>.
+ *
+ * Requests are handled on the JDK's built-in HttpServer with one virtual
+ * thread per request when the JVM has them (JDK 21+), and on a cached pool of
+ * platform threads otherwise.  Either way a slow database call blocks only
+ * its own request; the connection pool bounds how many reach the database.
+ *
+ * Endpoints (bodies are JSON; authenticated ones need the X-Session header
+ * returned by /login):
+ *
+ *    POST /users                    create a customer {login, password, phoneNum}
+ *    POST /login                    {login, password} -> {session, login, role}
+ *    POST /logout                   end the session
+ *    GET  /profile                  the session user
+ *    GET  /menu?type=&sort=&maxPrice=
+ *    GET  /menu?q=cheese+no+onions+under+15   search, all types, cheapest first
+ *                                   items by type, sort=asc|desc, under a price
+ *    GET  /stores?after=&before=&limit=
+ *                                   one page of stores by storeID
+ *    GET  /stores?state=&city=&open=true
+ *                                   search stores, best reviewed first
+ *    POST /orders                   {storeID, items: {itemName: quantity}}
+ *    GET  /orders?after=&limit=     one page of order history, newest first
+ *    GET  /orders/recent            the 5 most recent orders
+ *    GET  /orders/usual             the items the user orders most, priced
+ *    POST /orders/usual             place the usual {storeID?}, default the last order's store
+ *    POST /orders/{id}/repeat       place a past order again {storeID?}, default its store
+ *    GET  /orders/{id}              an order and its items; customers see only their own
+ *    PUT  /orders/{id}/status       {status}, drivers and managers only
+ *    PUT  /orders/status            {orderIDs: [...], expected, status} or
+ *                                   {storeID, from, to, expected, status};
+ *                                   bulk update with a result per order
+ *    GET  /reports?first=&last=&top=
+ *                                   sales and delivery figures, managers only;
+ *                                   days as yyyy-mm-dd, default the last 30
+ *
+ * Sessions unused for pizzastore.http.sessionIdleMinutes (default 30) are
+ * logged out, and at most pizzastore.http.maxSessions are held at once.
+ *
+ * Every request is logged with its status and latency unless
+ * -Dpizzastore.http.accessLog=false.
+ */
+public class PizzaStoreServer {
+
+   // request header carrying the token returned by /login
+   public static final String SESSION_HEADER = "X-Session";
+
+   // largest page a client may ask for
+   private static final int MAX_LIMIT = 100;
+
+   // largest request body accepted, in bytes
+   private static final int MAX_BODY = 64 * 1024;
+
+   // a session unused for this long is logged out
+   private static final long SESSION_IDLE_MILLIS =
+      Long.getLong("pizzastore.http.sessionIdleMinutes", 30) * 60 * 1000;
+
+   // most sessions held at once; logins beyond it are refused until some expire
+   private static final int MAX_SESSIONS = Integer.getInteger("pizzastore.http.maxSessions", 10000);
+
+   /*
+    * A logged in session and when its token was last presented.
+    */
+   private static final class Login {
+      final Session session;
+      volatile long lastUsed = System.currentTimeMillis();
+
+      Login(Session session) {
+         this.session = session;
+      }
+   }
+
+   private final PizzaStoreService _service;
+   private final HttpServer _http;
+   private final ExecutorService _executor;
+   private final boolean _accessLog = Boolean.parseBoolean(System.getProperty("pizzastore.http.accessLog", "true"));
+   private final Map<String, Login> _sessions = new ConcurrentHashMap<String, Login>();
+   private final SecureRandom _random = new SecureRandom();
+   private final CountDownLatch _stopped = new CountDownLatch(1);
+
+   /**
+    * @param service the operations to expose
+    * @param port the TCP port to listen on
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public PizzaStoreServer(PizzaStoreService service, int port) throws IOException {
+      this._service = service;
+      this._http = HttpServer.create(new InetSocketAddress(port), Integer.getInteger("pizzastore.http.backlog", 1024));
+      this._executor = newRequestExecutor();
+      this._http.setExecutor(this._executor);
+
+      this._http.createContext("/users", new Endpoint() {
+         Object serve(Request request) throws Exception {
+            request.require("POST");
+            Map<String, Object> body = request.body();
+            PizzaStoreServer.this._service.createUser(text(body, "login"), text(body, "password"),
+                                                      text(body, "phoneNum"));
+            request._status = 201;
+            return Collections.emptyMap();
+         }
+      });
+      this._http.createContext("/login", new Endpoint() {
+         Object serve(Request request) throws Exception {
+            request.require("POST");
+            Map<String, Object> body = request.body();
+            expireSessions();
+            if (PizzaStoreServer.this._sessions.size() >= MAX_SESSIONS)
+               throw new HttpError(503, "Too many sessions. Please try again later.");
+            Session session = PizzaStoreServer.this._service.logIn(text(body, "login"), text(body, "password"));
+            String token = newToken();
+            PizzaStoreServer.this._sessions.put(token, new Login(session));
+            Map<String, Object> result = new LinkedHashMap<String, Object>();
+            result.put("session", token);
+            result.put("login", session.login());
+            result.put("role", session.role());
+            return result;
+         }
+      });
+      this._http.createContext("/logout", new Endpoint() {
+         Object serve(Request request) throws Exception {
+            request.require("POST");
+            String token = request.header(SESSION_HEADER);
+            Login login = token == null ? null : PizzaStoreServer.this._sessions.remove(token);
+            if (login != null)
+               PizzaStoreServer.this._service.logOut(login.session);
+            return Collections.emptyMap();
+         }
+      });
+      this._http.createContext("/profile", new Endpoint() {
+         Object serve(Request request) throws Exception {
+            request.require("GET");
+            User user = PizzaStoreServer.this._service.viewProfile(session(request));
+            Map<String, Object> result = new LinkedHashMap<String, Object>();
+            result.put("login", user.login());
+            result.put("role", user.role());
+            result.put("phoneNum", user.phoneNum());
+            result.put("favoriteItems", user.favoriteItems());
+            return result;
+         }
+      });
+      this._http.createContext("/menu", new Endpoint() {
+         Object serve(Request request) throws Exception {
+            request.require("GET");
+            return menu(request);
+         }
+      });
+      this._http.createContext("/stores", new Endpoint() {
+         Object serve(Request request) throws Exception {
+            request.require("GET");
+            return stores(request);
+         }
+      });
+      this._http.createContext("/orders", new Endpoint() {
+         Object serve(Request request) throws Exception {
+            return orders(request);
+         }
+      });
+      this._http.createContext("/reports", new Endpoint() {
+         Object serve(Request request) throws Exception {
+            request.require("GET");
+            return reports(request);
+         }
+      });
+   }//end PizzaStoreServer
+
+   /**
+    * Starts accepting requests.
+    */
+   public void start() {
+      this._http.start();
+   }
+
+   /**
+    * Stops accepting requests and waits for the ones in flight.
+    *
+    * @param delaySeconds how long to wait for requests in flight
+    */
+   public void stop(int delaySeconds) {
+      this._http.stop(delaySeconds);
+      this._executor.shutdown();
+      try {
+         this._executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      this._stopped.countDown();
+   }
+
+   /**
+    * Blocks until stop has been called.
+    *
+    * @throws java.lang.InterruptedException when interrupted while waiting
+    */
+   public void awaitStop() throws InterruptedException {
+      this._stopped.await();
+   }
+
+   /**
+    * @return the port the server listens on
+    */
+   public int port() {
+      return this._http.getAddress().getPort();
+   }
+
+   /*
+    * One virtual thread per request on JDK 21+, looked up reflectively so
+    * the project still compiles on older JDKs; a cached thread pool there.
+    */
+   static ExecutorService newRequestExecutor() {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+         return Executors.newCachedThreadPool();
+      }
+   }
+
+   // ---- endpoints ----
+
+   private Object menu(Request request) throws Exception {
+      String type = request.param("type");
+      String sort = request.param("sort");
+      String maxPrice = request.param("maxPrice");
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      if (request.param("q") != null) {
+         List<Object> list = new ArrayList<Object>();
+         for (Item item : this._service.searchMenu(request.param("q")))
+            list.add(item(item));
+         result.put("items", list);
+         return result;
+      }
+      for (String t : type == null ? DefaultPizzaStoreService.ITEM_TYPES : Collections.singletonList(type)) {
+         List<Item> items;
+         if (maxPrice != null)
+            items = this._service.viewMenuUnderPrice(t, decimal(maxPrice, "maxPrice"));
+         else if (sort != null)
+            items = this._service.viewMenuByPrice(t, !"desc".equalsIgnoreCase(sort));
+         else
+            items = this._service.viewMenu(t);
+         List<Object> list = new ArrayList<Object>(items.size());
+         for (Item item : items)
+            list.add(item(item));
+         result.put(t, list);
+      }
+      return result;
+   }//end menu
+
+   private Object stores(Request request) throws Exception {
+      String state = request.param("state");
+      String city = request.param("city");
+      String open = request.param("open");
+      if (state != null || city != null || open != null) {
+         // a search of the store index, best reviewed first
+         List<Object> stores = new ArrayList<Object>();
+         for (Store store : this._service.findStores(state, city, "true".equalsIgnoreCase(open)))
+            stores.add(store(store));
+         Map<String, Object> result = new LinkedHashMap<String, Object>();
+         result.put("stores", stores);
+         return result;
+      }
+      int limit = limit(request);
+      String after = request.param("after");
+      String before = request.param("before");
+      List<Store> page;
+      if (before != null) {
+         page = new ArrayList<Store>(this._service.storePage(storeKey(integer(before, "before")), false, limit));
+         Collections.reverse(page);
+      } else {
+         page = this._service.storePage(after == null ? null : storeKey(integer(after, "after")), true, limit);
+      }
+      List<Object> stores = new ArrayList<Object>(page.size());
+      for (Store store : page)
+         stores.add(store(store));
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("stores", stores);
+      return result;
+   }//end stores
+
+   private Object orders(Request request) throws Exception {
+      List<String> path = request.path("/orders");
+      if (path.isEmpty() && request.is("POST"))
+         return placeOrder(request);
+      if (path.isEmpty()) {
+         request.require("GET");
+         return orderHistory(request);
+      }
+      if (path.size() == 1 && path.get(0).equals("status")) {
+         request.require("PUT");
+         return updateStatuses(request);
+      }
+      if (path.size() == 1 && path.get(0).equals("recent")) {
+         request.require("GET");
+         return orderList(this._service.recentOrders(session(request)), null);
+      }
+      if (path.size() == 1 && path.get(0).equals("usual") && request.is("POST")) {
+         Map<String, Object> body = request.body();
+         return receipt(request, this._service.orderUsual(session(request),
+                                                          body.containsKey("storeID") ? integer(body, "storeID") : 0));
+      }
+      if (path.size() == 1 && path.get(0).equals("usual")) {
+         request.require("GET");
+         List<Object> lines = new ArrayList<Object>();
+         for (OrderLine line : this._service.usualOrder(session(request))) {
+            Map<String, Object> l = new LinkedHashMap<String, Object>();
+            l.put("itemName", line.itemName());
+            l.put("quantity", line.quantity());
+            l.put("unitPrice", line.unitPrice());
+            lines.add(l);
+         }
+         Map<String, Object> result = new LinkedHashMap<String, Object>();
+         result.put("items", lines);
+         return result;
+      }
+      int orderID = integer(path.get(0), "order ID");
+      if (path.size() == 1) {
+         request.require("GET");
+         OrderDetails details = this._service.orderInfo(session(request), orderID);
+         Map<String, Object> result = order(details.order());
+         List<Object> lines = new ArrayList<Object>();
+         for (OrderLine line : details.lines()) {
+            Map<String, Object> l = new LinkedHashMap<String, Object>();
+            l.put("itemName", line.itemName());
+            l.put("quantity", line.quantity());
+            lines.add(l);
+         }
+         result.put("items", lines);
+         return result;
+      }
+      if (path.size() == 2 && path.get(1).equals("status")) {
+         request.require("PUT");
+         this._service.updateOrderStatus(session(request), orderID, text(request.body(), "status"));
+         return Collections.emptyMap();
+      }
+      if (path.size() == 2 && path.get(1).equals("repeat")) {
+         request.require("POST");
+         Map<String, Object> body = request.body();
+         return receipt(request, this._service.repeatOrder(session(request), orderID,
+                                                           body.containsKey("storeID") ? integer(body, "storeID") : 0));
+      }
+      throw new HttpError(404, "No such resource");
+   }//end orders
+
+   private Object reports(Request request) throws Exception {
+      String first = request.param("first");
+      String last = request.param("last");
+      String top = request.param("top");
+      LocalDate lastDay = last == null ? LocalDate.now() : day(last, "last");
+      LocalDate firstDay = first == null ? lastDay.minusDays(29) : day(first, "first");
+      Reports.Report report = this._service.reports(session(request), firstDay, lastDay,
+                                                    top == null ? 10 : integer(top, "top"));
+
+      List<Object> revenue = new ArrayList<Object>();
+      for (Reports.StoreDay row : report.revenue()) {
+         Map<String, Object> r = new LinkedHashMap<String, Object>();
+         r.put("storeID", row.storeID());
+         r.put("day", row.day().toString());
+         r.put("orders", row.orders());
+         r.put("revenue", row.revenue());
+         revenue.add(r);
+      }
+      List<Object> items = new ArrayList<Object>();
+      for (Reports.ItemTotal row : report.topItems()) {
+         Map<String, Object> r = new LinkedHashMap<String, Object>();
+         r.put("itemName", row.itemName());
+         r.put("quantity", row.quantity());
+         r.put("orders", row.orders());
+         items.add(r);
+      }
+      List<Object> averages = new ArrayList<Object>();
+      for (Reports.StateAverage row : report.averages()) {
+         Map<String, Object> r = new LinkedHashMap<String, Object>();
+         r.put("state", row.state());
+         r.put("orders", row.orders());
+         r.put("averageOrderValue", row.averageOrderValue());
+         averages.add(r);
+      }
+      List<Object> completion = new ArrayList<Object>();
+      for (Reports.Completion row : report.completion()) {
+         Map<String, Object> r = new LinkedHashMap<String, Object>();
+         r.put("storeID", row.storeID());
+         r.put("orders", row.orders());
+         r.put("completed", row.completed());
+         completion.add(r);
+      }
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("first", firstDay.toString());
+      result.put("last", lastDay.toString());
+      result.put("revenue", revenue);
+      result.put("topItems", items);
+      result.put("averages", averages);
+      result.put("completion", completion);
+      return result;
+   }//end reports
+
+   private Object placeOrder(Request request) throws Exception {
+      Session session = session(request);
+      Map<String, Object> body = request.body();
+      int storeID = integer(body, "storeID");
+      Object items = body.get("items");
+      if (!(items instanceof Map))
+         throw new HttpError(400, "items must be an object of item names to quantities");
+      Map<String, Integer> quantities = new LinkedHashMap<String, Integer>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) items).entrySet())
+         quantities.put((String) entry.getKey(), integer((Map<?, ?>) items, (String) entry.getKey()));
+
+      return receipt(request, this._service.placeOrder(session, storeID, quantities));
+   }//end placeOrder
+
+   // a placed order's receipt, as 201 Created
+   private static Object receipt(Request request, OrderReceipt receipt) {
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("orderID", receipt.orderID());
+      result.put("totalPrice", receipt.totalPrice());
+      result.put("unknownItems", receipt.unknownItems());
+      request._status = 201;
+      return result;
+   }
+
+   private Object updateStatuses(Request request) throws Exception {
+      Session session = session(request);
+      Map<String, Object> body = request.body();
+      List<StatusChange> changes;
+      if (body.get("orderIDs") instanceof List) {
+         List<Integer> orderIDs = new ArrayList<Integer>();
+         for (Object id : (List<?>) body.get("orderIDs")) {
+            if (!(id instanceof BigDecimal))
+               throw new HttpError(400, "orderIDs must be numbers");
+            orderIDs.add(((BigDecimal) id).intValue());
+         }
+         changes = this._service.updateOrderStatuses(session, orderIDs, text(body, "expected"), text(body, "status"));
+      } else {
+         Timestamp from, to;
+         try {
+            from = Timestamp.valueOf(text(body, "from"));
+            to = Timestamp.valueOf(text(body, "to"));
+         } catch (RuntimeException e) {
+            throw new HttpError(400, "from and to must be timestamps like 2024-01-31 18:00:00");
+         }
+         changes = this._service.updateOrderStatuses(session, integer(body, "storeID"), from, to,
+                                                     text(body, "expected"), text(body, "status"));
+      }
+      List<Object> results = new ArrayList<Object>(changes.size());
+      for (StatusChange change : changes) {
+         Map<String, Object> r = new LinkedHashMap<String, Object>();
+         r.put("orderID", change.orderID());
+         r.put("outcome", change.outcome().name());
+         r.put("orderStatus", change.orderStatus());
+         results.add(r);
+      }
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("results", results);
+      return result;
+   }//end updateStatuses
+
+   private Object orderHistory(Request request) throws Exception {
+      Session session = session(request);
+      int limit = limit(request);
+      String after = request.param("after");
+      FoodOrder boundary = null;
+      if (after != null) {
+         // the page boundary is keyed by the order's timestamp and ID
+         boundary = this._service.orderInfo(session, integer(after, "after")).order();
+      }
+      List<FoodOrder> page = this._service.orderHistoryPage(session, boundary, true, limit + 1);
+      Integer next = null;
+      if (page.size() > limit) {
+         page = page.subList(0, limit);
+         next = page.get(limit - 1).orderID();
+      }
+      return orderList(page, next);
+   }//end orderHistory
+
+   // ---- JSON mapping ----
+
+   private static Map<String, Object> orderList(List<FoodOrder> orders, Integer next) {
+      List<Object> list = new ArrayList<Object>(orders.size());
+      for (FoodOrder order : orders)
+         list.add(order(order));
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("orders", list);
+      if (next != null)
+         result.put("next", next);
+      return result;
+   }
+
+   private static Map<String, Object> order(FoodOrder order) {
+      Map<String, Object> map = new LinkedHashMap<String, Object>();
+      map.put("orderID", order.orderID());
+      map.put("login", order.login());
+      map.put("storeID", order.storeID());
+      map.put("totalPrice", order.totalPrice());
+      map.put("orderTimestamp", String.valueOf(order.orderTimestamp()));
+      map.put("orderStatus", order.orderStatus());
+      return map;
+   }
+
+   private static Map<String, Object> item(Item item) {
+      Map<String, Object> map = new LinkedHashMap<String, Object>();
+      map.put("itemName", item.itemName());
+      map.put("ingredients", item.ingredients());
+      map.put("typeOfItem", item.typeOfItem());
+      map.put("price", item.price());
+      map.put("description", item.description());
+      return map;
+   }
+
+   private static Map<String, Object> store(Store store) {
+      Map<String, Object> map = new LinkedHashMap<String, Object>();
+      map.put("storeID", store.storeID());
+      map.put("address", store.address());
+      map.put("city", store.city());
+      map.put("state", store.state());
+      map.put("isOpen", store.open());
+      map.put("reviewScore", store.reviewScore());
+      return map;
+   }
+
+   // storePage only reads the storeID of its boundary
+   private static Store storeKey(int storeID) {
+      return new Store(storeID, null, null, null, false, Double.NaN);
+   }
+
+   // ---- request helpers ----
+
+   private Session session(Request request) throws HttpError {
+      String token = request.header(SESSION_HEADER);
+      Login login = token == null ? null : this._sessions.get(token);
+      long now = System.currentTimeMillis();
+      if (login == null || login.session.isClosed() || now - login.lastUsed > SESSION_IDLE_MILLIS) {
+         if (login != null && this._sessions.remove(token, login))
+            this._service.logOut(login.session);
+         throw new HttpError(401, "Log in first");
+      }
+      login.lastUsed = now;
+      return login.session;
+   }
+
+   // logs out the sessions that have sat idle too long
+   private void expireSessions() {
+      long now = System.currentTimeMillis();
+      for (Map.Entry<String, Login> entry : this._sessions.entrySet()) {
+         Login login = entry.getValue();
+         if ((login.session.isClosed() || now - login.lastUsed > SESSION_IDLE_MILLIS)
+             && this._sessions.remove(entry.getKey(), login))
+            this._service.logOut(login.session);
+      }
+   }
+
+   private String newToken() {
+      byte[] bytes = new byte[18];
+      this._random.nextBytes(bytes);
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+   }
+
+   private static int limit(Request request) throws HttpError {
+      String limit = request.param("limit");
+      int n = limit == null ? PizzaStore.PAGE_SIZE : integer(limit, "limit");
+      if (n < 1 || n > MAX_LIMIT)
+         throw new HttpError(400, "limit must be between 1 and " + MAX_LIMIT);
+      return n;
+   }
+
+   private static String text(Map<?, ?> body, String name) throws HttpError {
+      Object value = body.get(name);
+      if (value != null && !(value instanceof String))
+         throw new HttpError(400, name + " must be a string");
+      return (String) value;
+   }
+
+   private static int integer(Map<?, ?> body, String name) throws HttpError {
+      Object value = body.get(name);
+      if (!(value instanceof BigDecimal))
+         throw new HttpError(400, name + " must be a number");
+      try {
+         return ((BigDecimal) value).intValueExact();
+      } catch (ArithmeticException e) {
+         throw new HttpError(400, name + " must be an integer");
+      }
+   }
+
+   private static int integer(String value, String name) throws HttpError {
+      try {
+         return Integer.parseInt(value.trim());
+      } catch (NumberFormatException e) {
+         throw new HttpError(400, name + " must be an integer");
+      }
+   }
+
+   private static LocalDate day(String value, String name) throws HttpError {
+      try {
+         return LocalDate.parse(value.trim());
+      } catch (DateTimeParseException e) {
+         throw new HttpError(400, name + " must be a day, yyyy-mm-dd");
+      }
+   }
+
+   private static BigDecimal decimal(String value, String name) throws HttpError {
+      try {
+         return new BigDecimal(value.trim());
+      } catch (NumberFormatException e) {
+         throw new HttpError(400, name + " must be a number");
+      }
+   }
+
+   private static int status(ServiceException.Reason reason) {
+      switch (reason) {
+         case DENIED: return 403;
+         case NOT_FOUND: return 404;
+         case CONFLICT: return 409;
+         case BUSY: return 503;
+         default: return 400;
+      }
+   }
+
+   /**
+    * A request refused before it reached the service.
+    */
+   static class HttpError extends Exception {
+      private static final long serialVersionUID = 1L;
+
+      final int _status;
+
+      HttpError(int status, String message) {
+         super(message);
+         this._status = status;
+      }
+   }//end HttpError
+
+   /**
+    * The parts of an exchange the endpoints look at.
+    */
+   static class Request {
+      final HttpExchange _exchange;
+      int _status = 200;
+      private Map<String, String> _params;
+
+      Request(HttpExchange exchange) {
+         this._exchange = exchange;
+      }
+
+      boolean is(String method) {
+         return this._exchange.getRequestMethod().equalsIgnoreCase(method);
+      }
+
+      void require(String method) throws HttpError {
+         if (!is(method))
+            throw new HttpError(405, "Method not allowed");
+      }
+
+      String header(String name) {
+         return this._exchange.getRequestHeaders().getFirst(name);
+      }
+
+      // path segments after the context prefix
+      List<String> path(String prefix) {
+         List<String> segments = new ArrayList<String>();
+         for (String s : this._exchange.getRequestURI().getPath().substring(prefix.length()).split("/"))
+            if (!s.isEmpty())
+               segments.add(s);
+         return segments;
+      }
+
+      String param(String name) {
+         if (this._params == null) {
+            this._params = new HashMap<String, String>();
+            String query = this._exchange.getRequestURI().getRawQuery();
+            if (query != null) {
+               for (String pair : query.split("&")) {
+                  int eq = pair.indexOf('=');
+                  if (eq > 0)
+                     this._params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                                      URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+               }
+            }
+         }
+         return this._params.get(name);
+      }
+
+      @SuppressWarnings("unchecked")
+      Map<String, Object> body() throws IOException, HttpError {
+         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+         InputStream in = this._exchange.getRequestBody();
+         byte[] chunk = new byte[4096];
+         int n;
+         while ((n = in.read(chunk)) > 0) {
+            buffer.write(chunk, 0, n);
+            if (buffer.size() > MAX_BODY)
+               throw new HttpError(413, "Request body too large");
+         }
+         Object body;
+         try {
+            body = Json.parse(buffer.toString(StandardCharsets.UTF_8));
+         } catch (IllegalArgumentException e) {
+            throw new HttpError(400, "Malformed JSON: " + e.getMessage());
+         }
+         if (!(body instanceof Map))
+            throw new HttpError(400, "Request body must be a JSON object");
+         return (Map<String, Object>) body;
+      }
+   }//end Request
+
+   /**
+    * Runs an endpoint, turns its result or failure into a JSON response and
+    * logs the request's latency.
+    */
+   private abstract class Endpoint implements HttpHandler {
+
+      abstract Object serve(Request request) throws Exception;
+
+      public void handle(HttpExchange exchange) throws IOException {
+         long start = System.nanoTime();
+         Request request = new Request(exchange);
+         int status;
+         Object result;
+         try {
+            result = serve(request);
+            status = request._status;
+         } catch (HttpError e) {
+            status = e._status;
+            result = error(e.getMessage());
+         } catch (ServiceException e) {
+            status = status(e.reason());
+            result = error(e.getMessage());
+         } catch (SQLException e) {
+            System.err.println(e.getMessage());
+            status = 500;
+            result = error("Database error");
+         } catch (Exception e) {
+            System.err.println(e);
+            status = 500;
+            result = error("Internal error");
+         }
+
+         byte[] bytes = Json.write(result).getBytes(StandardCharsets.UTF_8);
+         try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+         } finally {
+            exchange.close();
+            if (PizzaStoreServer.this._accessLog)
+               System.out.println(String.format("%s %s %d %d %.3fms", exchange.getRequestMethod(),
+                  exchange.getRequestURI(), status, bytes.length, (System.nanoTime() - start) / 1e6));
+         }
+      }//end handle
+   }//end Endpoint
+
+   private static Map<String, Object> error(String message) {
+      Map<String, Object> map = new LinkedHashMap<String, Object>();
+      map.put("error", message);
+      return map;
+   }
+}//end PizzaStoreServer
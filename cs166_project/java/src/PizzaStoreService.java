@@ -0,0 +1,251 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The PizzaStore operations as a programmatic API: typed requests and
+ * responses, no console I/O, and safe to call from many threads at once.
+ * The interactive menu in PizzaStore.main is one client of it.
+ *
+ * Refused requests throw ServiceException with a message for the user;
+ * database failures throw SQLException.
+ */
+public interface PizzaStoreService {
+
+   // ---- accounts ----
+
+   /**
+    * Creates a customer account.
+    */
+   void createUser(String login, String password, String phoneNum) throws ServiceException, SQLException;
+
+   /**
+    * Checks credentials and opens a session.
+    */
+   Session logIn(String login, String password) throws ServiceException, SQLException;
+
+   /**
+    * Ends a session.
+    */
+   void logOut(Session session);
+
+   /**
+    * @return the session user's Users row
+    */
+   User viewProfile(Session session) throws ServiceException, SQLException;
+
+   /**
+    * Changes the session user's password if currentPassword matches.
+    */
+   void changePassword(Session session, String currentPassword, String newPassword) throws ServiceException, SQLException;
+
+   /**
+    * Changes the session user's phone number if currentPhoneNum matches.
+    */
+   void changePhoneNum(Session session, String currentPhoneNum, String newPhoneNum) throws ServiceException, SQLException;
+
+   /**
+    * Replaces the session user's favorite items.
+    */
+   void updateFavoriteItems(Session session, String favoriteItems) throws ServiceException, SQLException;
+
+   // ---- menu ----
+
+   /**
+    * @param type entree, sides or drinks
+    * @return the items of that type in menu order
+    */
+   List<Item> viewMenu(String type) throws SQLException;
+
+   /**
+    * @param type entree, sides or drinks
+    * @param ascending true for cheapest first, false for most expensive first
+    * @return the items of that type sorted by price
+    */
+   List<Item> viewMenuByPrice(String type, boolean ascending) throws SQLException;
+
+   /**
+    * @param type entree, sides or drinks
+    * @param maxPrice the highest price to include
+    * @return the items of that type priced at most maxPrice, cheapest first
+    */
+   List<Item> viewMenuUnderPrice(String type, BigDecimal maxPrice) throws SQLException;
+
+   /**
+    * Searches item names, ingredients and descriptions, e.g. "cheese
+    * pepperoni no onions under 15".
+    *
+    * @param query words every item must match, "no x" to leave out items
+    *              matching x, and an optional "under price"
+    * @return the matching items of every type, cheapest first
+    */
+   List<Item> searchMenu(String query) throws SQLException;
+
+   /**
+    * @param itemName an item name, exactly as on the menu
+    * @return the item, or null when it is not on the menu
+    */
+   Item findItem(String itemName) throws SQLException;
+
+   // ---- orders ----
+
+   /**
+    * Places an order at an open store.  Items not on the menu are left out
+    * and listed in the receipt.
+    *
+    * @param quantities how many of each item, keyed by item name
+    */
+   OrderReceipt placeOrder(Session session, int storeID, Map<String, Integer> quantities) throws ServiceException, SQLException;
+
+   /**
+    * Places one of the session user's past orders again, with the same
+    * items and quantities at today's prices.
+    *
+    * @param storeID the store to order from, or 0 for the past order's store
+    */
+   OrderReceipt repeatOrder(Session session, int orderID, int storeID) throws ServiceException, SQLException;
+
+   /**
+    * The session user's usual order: the items they order most often, each
+    * in the quantity they usually take, priced from the menu.
+    *
+    * @return the priced lines, empty when the user has never ordered
+    */
+   List<OrderLine> usualOrder(Session session) throws ServiceException, SQLException;
+
+   /**
+    * Places the session user's usual order, see usualOrder.
+    *
+    * @param storeID the store to order from, or 0 for the store of their
+    *                last order
+    */
+   OrderReceipt orderUsual(Session session, int storeID) throws ServiceException, SQLException;
+
+   /**
+    * One page of the session user's orders, newest first.
+    *
+    * @param boundary the order to page from, or null for the first page
+    * @param forward true for older orders than the boundary, false for newer
+    * @return the orders, nearest to the boundary first
+    */
+   List<FoodOrder> orderHistoryPage(Session session, FoodOrder boundary, boolean forward, int limit) throws ServiceException, SQLException;
+
+   /**
+    * Streams the session user's whole order history, newest first.
+    *
+    * @return the number of orders
+    */
+   int orderHistory(Session session, Consumer<FoodOrder> sink) throws ServiceException, SQLException;
+
+   /**
+    * @return the session user's five most recent orders, newest first
+    */
+   List<FoodOrder> recentOrders(Session session) throws ServiceException, SQLException;
+
+   /**
+    * Looks an order up.  Customers may only see their own orders; someone
+    * else's is reported as not found.  Drivers and managers see any order.
+    *
+    * @return an order and its line items
+    */
+   OrderDetails orderInfo(Session session, int orderID) throws ServiceException, SQLException;
+
+   /**
+    * Sets an order's status.  Drivers and managers only.
+    *
+    * @param status complete or incomplete
+    */
+   void updateOrderStatus(Session session, int orderID, String status) throws ServiceException, SQLException;
+
+   /**
+    * Sets the status of many orders in one transaction, skipping any order
+    * that is no longer in expectedStatus.  Drivers and managers only.
+    *
+    * @param expectedStatus the status the caller saw the orders in
+    * @param status the status to set
+    * @return one result per distinct order, in the order given
+    */
+   List<StatusChange> updateOrderStatuses(Session session, Collection<Integer> orderIDs, String expectedStatus,
+                                          String status) throws ServiceException, SQLException;
+
+   /**
+    * Sets the status of every order of a store placed in [from, to) that is
+    * currently in currentStatus.  Drivers and managers only.
+    *
+    * @return one result per order updated
+    */
+   List<StatusChange> updateOrderStatuses(Session session, int storeID, Timestamp from, Timestamp to,
+                                          String currentStatus, String status) throws ServiceException, SQLException;
+
+   // ---- stores ----
+
+   /**
+    * One page of stores in storeID order.
+    *
+    * @param boundary the store to page from, or null for the first page
+    * @param forward true for stores after the boundary, false for before it
+    * @return the stores, nearest to the boundary first
+    */
+   List<Store> storePage(Store boundary, boolean forward, int limit) throws SQLException;
+
+   /**
+    * Streams every store in storeID order.
+    *
+    * @return the number of stores
+    */
+   int stores(Consumer<Store> sink) throws SQLException;
+
+   /**
+    * Finds stores from the in-memory store index.
+    *
+    * @param state a state name or postal abbreviation, or null for any
+    * @param city a city, or null for any
+    * @param openOnly true to leave out closed stores
+    * @return the matching stores, best reviewScore first
+    */
+   List<Store> findStores(String state, String city, boolean openOnly) throws SQLException;
+
+   // ---- management ----
+
+   /**
+    * @return a menu item.  Managers only.
+    */
+   Item findItem(Session session, String itemName) throws ServiceException, SQLException;
+
+   /**
+    * Adds a menu item.  Managers only.
+    */
+   void addItem(Session session, Item item) throws ServiceException, SQLException;
+
+   /**
+    * Replaces a menu item, renaming it if updated has a different name.
+    * A renamed item keeps its place in past orders.  Managers only.
+    */
+   void updateItem(Session session, String itemName, Item updated) throws ServiceException, SQLException;
+
+   /**
+    * Renames a user's login, and with it the login of their orders, in one
+    * short transaction.  Managers only.
+    */
+   void renameUser(Session session, String oldLogin, String newLogin) throws ServiceException, SQLException;
+
+   /**
+    * Changes a user's role.  Managers only.
+    *
+    * @param role customer, driver or manager
+    */
+   void changeRole(Session session, String login, String role) throws ServiceException, SQLException;
+
+   /**
+    * Sales and delivery figures of the orders placed from first through
+    * last, see Reports.  Managers only; one report runs at a time.
+    *
+    * @param topItems how many items the top items section lists
+    */
+   Reports.Report reports(Session session, LocalDate first, LocalDate last, int topItems) throws ServiceException, SQLException;
+}//end PizzaStoreService
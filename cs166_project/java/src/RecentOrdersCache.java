@@ -0,0 +1,186 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Each user's last few orders, kept in memory so "where's my order" is
+ * answered without a query.  A user's orders are loaded on their first
+ * viewRecentOrders and from then on kept current by the code that writes
+ * FoodOrder: placing an order pushes it into the user's ring buffer, and a
+ * status change rewrites the cached copy in place.
+ *
+ * At most pizzastore.recentOrders.maxUsers users (default 10000) are kept;
+ * the least recently used one is dropped when another is loaded.
+ *
+ * A load runs outside any lock.  Every change to a user's orders bumps the
+ * user's version, and a load that raced with a change is returned to its
+ * caller but not kept, so the cache never ends up older than the table.
+ *
+ * Every order and status change made through this PizzaStore reaches the
+ * cache directly, so an order in progress never sends its user back to the
+ * table.  Orders written by other programs, or by another PizzaStore
+ * process, are only picked up by reloading a user's copy once it is
+ * pizzastore.recentOrders.ttlSeconds old (default 300); until then such a
+ * change is not shown.
+ */
+public class RecentOrdersCache {
+
+   // orders kept per user, the length of viewRecentOrders
+   public static final int SIZE = 5;
+
+   private static final long TTL_MILLIS = Long.getLong("pizzastore.recentOrders.ttlSeconds", 300) * 1000;
+
+   /*
+    * One user's newest orders in a ring buffer.  Guarded by itself.
+    */
+   private static final class Ring {
+      final FoodOrder[] orders = new FoodOrder[SIZE];
+      // slot of the newest order
+      int head = -1;
+      int count = 0;
+      boolean loaded = false;
+      // when the orders were read from the table
+      long loadedAt;
+      // bumped by every change, so a load that raced with one is not kept
+      long version = 0;
+
+      void push(FoodOrder order) {
+         this.head = (this.head + 1) % SIZE;
+         this.orders[this.head] = order;
+         this.count = Math.min(this.count + 1, SIZE);
+      }
+
+      // true when the copy is old enough that another writer may have moved the table on
+      boolean expired(long now) {
+         return now - this.loadedAt > TTL_MILLIS;
+      }
+
+      List<FoodOrder> newestFirst() {
+         List<FoodOrder> result = new ArrayList<FoodOrder>(this.count);
+         for (int i = 0; i < this.count; ++i)
+            result.add(this.orders[(this.head - i + SIZE) % SIZE]);
+         return Collections.unmodifiableList(result);
+      }
+   }
+
+   private final PizzaStore _esql;
+   private final Map<String, Ring> _users;
+
+   /**
+    * Creates an empty cache; users are loaded on first use.
+    *
+    * @param esql the store orders are loaded from
+    */
+   public RecentOrdersCache(PizzaStore esql) {
+      this._esql = esql;
+      final int maxUsers = Integer.getInteger("pizzastore.recentOrders.maxUsers", 10000);
+      this._users = new LinkedHashMap<String, Ring>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<String, Ring> eldest) {
+            return size() > maxUsers;
+         }
+      };
+   }//end RecentOrdersCache
+
+   /**
+    * @param login the user whose orders are listed
+    * @return the user's SIZE most recent orders, newest first
+    * @throws java.sql.SQLException when the user is not cached yet and the
+    *         orders cannot be read
+    */
+   public List<FoodOrder> recentOrders(String login) throws SQLException {
+      Ring ring;
+      synchronized (this._users) {
+         ring = this._users.get(login);
+         if (ring == null) {
+            ring = new Ring();
+            this._users.put(login, ring);
+         }
+      }
+
+      long version;
+      synchronized (ring) {
+         if (ring.loaded && !ring.expired(System.currentTimeMillis()))
+            return ring.newestFirst();
+         version = ring.version;
+      }
+      long readAt = System.currentTimeMillis();
+      List<FoodOrder> orders = this._esql.recentOrders(login, SIZE);
+      synchronized (ring) {
+         if (ring.version == version) {
+            ring.head = -1;
+            ring.count = 0;
+            for (int i = orders.size() - 1; i >= 0; --i)
+               ring.push(orders.get(i));
+            ring.loaded = true;
+            ring.loadedAt = readAt;
+         }
+      }
+      return Collections.unmodifiableList(orders);
+   }//end recentOrders
+
+   /**
+    * Records a newly placed order.
+    *
+    * @param order the order just committed
+    */
+   public void placed(FoodOrder order) {
+      Ring ring = ring(order.login());
+      if (ring == null)
+         return;
+      synchronized (ring) {
+         ++ring.version;
+         if (ring.loaded)
+            ring.push(order);
+      }
+   }//end placed
+
+   /**
+    * Records a committed status change.
+    *
+    * @param login the user who placed the order
+    * @param orderID the order
+    * @param orderStatus its new status
+    */
+   public void statusChanged(String login, int orderID, String orderStatus) {
+      Ring ring = ring(login);
+      if (ring == null)
+         return;
+      synchronized (ring) {
+         ++ring.version;
+         for (int i = 0; i < ring.count; ++i) {
+            FoodOrder o = ring.orders[i];
+            if (o.orderID() == orderID)
+               ring.orders[i] = new FoodOrder(o.orderID(), o.login(), o.storeID(), o.totalPrice(),
+                                              o.orderTimestamp(), orderStatus);
+         }
+      }
+   }//end statusChanged
+
+   /**
+    * Forgets a user, e.g. when their login or orders change wholesale.
+    *
+    * @param login the user to drop
+    */
+   public void invalidate(String login) {
+      Ring ring;
+      synchronized (this._users) {
+         ring = this._users.remove(login);
+      }
+      if (ring != null) {
+         synchronized (ring) {
+            ++ring.version;
+            ring.loaded = false;
+         }
+      }
+   }//end invalidate
+
+   // a cached user, or null; users who are not cached are not loaded
+   private Ring ring(String login) {
+      synchronized (this._users) {
+         return this._users.get(login);
+      }
+   }
+}//end RecentOrdersCache
@@ -0,0 +1,570 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Manager reports over the orders placed in a range of days: revenue per
+ * store per day, the items sold most, average order value per state and
+ * the share of each store's orders that were completed.
+ *
+ * run() reads FoodOrder joined with ItemsInOrder in a single streamed query
+ * and joins Store from the in-memory store index.  The rows land in plain
+ * int and long columns, with item names and states numbered as they are
+ * first seen, and are then summed by a fork/join tree of tasks over
+ * open-addressing maps keyed by primitive longs.  runWithSql() computes the
+ * same report with one GROUP BY query per section; bench/src/ReportBenchmark
+ * times the two against each other and checks that they agree.
+ *
+ * The order path is kept clear of reports: one report runs at a time (a
+ * second is refused rather than queued), it holds a single pooled
+ * connection while it streams, and the summing runs on a pool of its own
+ * sized to leave the other cores to requests.  The day range prunes
+ * FoodOrder to the monthly partitions it covers.
+ *
+ * Settings:
+ *    pizzastore.reports.parallelism   threads summing a report (default half the processors)
+ *    pizzastore.reports.maxDays       longest range a report may cover (default 366)
+ */
+public class Reports {
+
+   /**
+    * Orders and revenue of one store on one day.
+    *
+    * @param storeID the store
+    * @param day the day the orders were placed
+    * @param orders how many orders were placed
+    * @param revenue the sum of their totalPrice
+    */
+   public record StoreDay(int storeID, LocalDate day, int orders, BigDecimal revenue) {
+   }
+
+   /**
+    * How much of one item was sold.
+    *
+    * @param itemName the item
+    * @param quantity how many were ordered in all
+    * @param orders how many orders included it
+    */
+   public record ItemTotal(String itemName, long quantity, int orders) {
+   }
+
+   /**
+    * Average order value of the stores in one state.
+    *
+    * @param state the Store.state
+    * @param orders how many orders were placed there
+    * @param averageOrderValue their mean totalPrice, rounded to cents
+    */
+   public record StateAverage(String state, int orders, BigDecimal averageOrderValue) {
+   }
+
+   /**
+    * How many of one store's orders were delivered.
+    *
+    * @param storeID the store
+    * @param orders how many orders were placed there
+    * @param completed how many of them are complete
+    */
+   public record Completion(int storeID, int orders, int completed) {
+
+      /**
+       * @return completed / orders, between 0 and 1
+       */
+      public double rate() {
+         return this.orders == 0 ? 0 : (double) this.completed / this.orders;
+      }
+   }
+
+   /**
+    * Every section of a report.  Revenue is by store, then day; top items
+    * by quantity, most first; averages by state; completion by store.
+    */
+   public record Report(LocalDate first, LocalDate last, List<StoreDay> revenue, List<ItemTotal> topItems,
+                        List<StateAverage> averages, List<Completion> completion) {
+   }
+
+   // ordering of top items in both paths; ties by item name in byte order,
+   // which is what COLLATE "C" gives on the SQL side
+   private static final Comparator<ItemTotal> BY_QUANTITY = new Comparator<ItemTotal>() {
+      public int compare(ItemTotal a, ItemTotal b) {
+         int c = Long.compare(b.quantity(), a.quantity());
+         return c != 0 ? c : a.itemName().compareTo(b.itemName());
+      }
+   };
+
+   // rows summed by one task before it stops splitting
+   private static final int LEAF_ROWS = 1 << 14;
+
+   // one row per line item, plus one for an order without any; order
+   // values repeat on each of the order's rows
+   private static final String STREAM_QUERY =
+      "SELECT O.orderID, O.storeID, O.orderTimestamp::date - DATE '1970-01-01', (O.totalPrice * 100)::bigint, " +
+      "O.orderStatus = 'complete', I.itemName, I.quantity " +
+      "FROM FoodOrder O LEFT JOIN ItemsInOrder I ON I.orderID = O.orderID " +
+      "WHERE O.orderTimestamp >= ? AND O.orderTimestamp < ?";
+
+   private static final String REVENUE_QUERY =
+      "SELECT O.storeID, O.orderTimestamp::date - DATE '1970-01-01', COUNT(*), SUM(O.totalPrice) " +
+      "FROM FoodOrder O WHERE O.orderTimestamp >= ? AND O.orderTimestamp < ? " +
+      "GROUP BY 1, 2 ORDER BY 1, 2";
+   private static final String TOP_ITEMS_QUERY =
+      "SELECT I.itemName, SUM(I.quantity), COUNT(*) " +
+      "FROM FoodOrder O JOIN ItemsInOrder I ON I.orderID = O.orderID " +
+      "WHERE O.orderTimestamp >= ? AND O.orderTimestamp < ? " +
+      "GROUP BY I.itemName ORDER BY 2 DESC, I.itemName COLLATE \"C\" LIMIT ?";
+   private static final String AVERAGES_QUERY =
+      "SELECT S.state, COUNT(*), ROUND(AVG(O.totalPrice), 2) " +
+      "FROM FoodOrder O JOIN Store S ON S.storeID = O.storeID " +
+      "WHERE O.orderTimestamp >= ? AND O.orderTimestamp < ? " +
+      "GROUP BY S.state ORDER BY S.state COLLATE \"C\"";
+   private static final String COMPLETION_QUERY =
+      "SELECT O.storeID, COUNT(*), SUM(CASE WHEN O.orderStatus = 'complete' THEN 1 ELSE 0 END) " +
+      "FROM FoodOrder O WHERE O.orderTimestamp >= ? AND O.orderTimestamp < ? " +
+      "GROUP BY O.storeID ORDER BY O.storeID";
+
+   /*
+    * Open-addressing hash map from a long key to a fixed number of long
+    * sums, so summing never boxes.  Not thread-safe: every task fills its
+    * own and they are merged on the way up the task tree.
+    */
+   static final class LongSums {
+      private final int _width;
+      private long[] _keys;
+      private long[] _sums;
+      private boolean[] _used;
+      private int _size = 0;
+
+      LongSums(int width) {
+         this._width = width;
+         this._keys = new long[64];
+         this._sums = new long[64 * width];
+         this._used = new boolean[64];
+      }
+
+      /**
+       * Adds to one of a key's sums, adding the key with all sums 0 first
+       * when it is new.
+       */
+      void add(long key, int slot, long delta) {
+         // index() may grow _sums, so it runs before _sums is read
+         int position = index(key);
+         this._sums[position * this._width + slot] += delta;
+      }
+
+      /**
+       * Adds every sum of another map to this one.
+       */
+      void addAll(LongSums other) {
+         for (int i = 0; i < other._keys.length; ++i) {
+            if (!other._used[i])
+               continue;
+            int to = index(other._keys[i]) * this._width;
+            for (int s = 0; s < this._width; ++s)
+               this._sums[to + s] += other._sums[i * this._width + s];
+         }
+      }
+
+      int size() {
+         return this._size;
+      }
+
+      // positions 0 .. capacity() - 1, of which those with used() hold a key
+      int capacity() {
+         return this._keys.length;
+      }
+
+      boolean used(int position) {
+         return this._used[position];
+      }
+
+      long key(int position) {
+         return this._keys[position];
+      }
+
+      long sum(int position, int slot) {
+         return this._sums[position * this._width + slot];
+      }
+
+      // the key's position, added when missing
+      private int index(long key) {
+         int mask = this._keys.length - 1;
+         int i = hash(key) & mask;
+         while (this._used[i]) {
+            if (this._keys[i] == key)
+               return i;
+            i = (i + 1) & mask;
+         }
+         if (2 * (this._size + 1) > this._keys.length) {
+            grow();
+            return index(key);
+         }
+         this._used[i] = true;
+         this._keys[i] = key;
+         ++this._size;
+         return i;
+      }
+
+      private void grow() {
+         long[] keys = this._keys;
+         long[] sums = this._sums;
+         boolean[] used = this._used;
+         this._keys = new long[keys.length * 2];
+         this._sums = new long[sums.length * 2];
+         this._used = new boolean[used.length * 2];
+         this._size = 0;
+         for (int i = 0; i < keys.length; ++i) {
+            if (!used[i])
+               continue;
+            int to = index(keys[i]) * this._width;
+            System.arraycopy(sums, i * this._width, this._sums, to, this._width);
+         }
+      }
+
+      private static int hash(long key) {
+         long h = key * 0x9E3779B97F4A7C15L;
+         return (int) (h ^ (h >>> 32));
+      }
+   }//end LongSums
+
+   /*
+    * The streamed rows, as columns.  Orders come first, one per orderID
+    * however many items it has, then the line items.
+    */
+   private static final class Columns {
+      int orders = 0;
+      int[] storeID = new int[1024];
+      int[] day = new int[1024];
+      long[] cents = new long[1024];
+      boolean[] complete = new boolean[1024];
+      int[] state = new int[1024];
+
+      int lines = 0;
+      int[] item = new int[1024];
+      int[] quantity = new int[1024];
+
+      final List<String> itemNames = new ArrayList<String>();
+      final List<String> states = new ArrayList<String>();
+
+      void addOrder(int storeID, int day, long cents, boolean complete, int state) {
+         if (this.orders == this.storeID.length) {
+            int n = this.orders * 2;
+            this.storeID = Arrays.copyOf(this.storeID, n);
+            this.day = Arrays.copyOf(this.day, n);
+            this.cents = Arrays.copyOf(this.cents, n);
+            this.complete = Arrays.copyOf(this.complete, n);
+            this.state = Arrays.copyOf(this.state, n);
+         }
+         this.storeID[this.orders] = storeID;
+         this.day[this.orders] = day;
+         this.cents[this.orders] = cents;
+         this.complete[this.orders] = complete;
+         this.state[this.orders] = state;
+         ++this.orders;
+      }
+
+      void addLine(int item, int quantity) {
+         if (this.lines == this.item.length) {
+            this.item = Arrays.copyOf(this.item, this.lines * 2);
+            this.quantity = Arrays.copyOf(this.quantity, this.lines * 2);
+         }
+         this.item[this.lines] = item;
+         this.quantity[this.lines] = quantity;
+         ++this.lines;
+      }
+   }//end Columns
+
+   /*
+    * What one task summed: the four sections, keyed by primitives.
+    */
+   private static final class Partial {
+      // storeID << 32 | epoch day -> orders, cents
+      final LongSums revenue = new LongSums(2);
+      // item number -> quantity, orders
+      final LongSums items = new LongSums(2);
+      // state number -> orders, cents
+      final LongSums states = new LongSums(2);
+      // storeID -> orders, completed
+      final LongSums completion = new LongSums(2);
+
+      void addAll(Partial other) {
+         this.revenue.addAll(other.revenue);
+         this.items.addAll(other.items);
+         this.states.addAll(other.states);
+         this.completion.addAll(other.completion);
+      }
+   }
+
+   /*
+    * Sums rows lo .. hi - 1 of the columns, numbering orders 0 .. orders - 1
+    * and line items after them; splits in halves down to LEAF_ROWS.
+    */
+   private static final class Aggregate extends RecursiveTask<Partial> {
+      private static final long serialVersionUID = 1L;
+
+      private final Columns _data;
+      private final int _lo;
+      private final int _hi;
+
+      Aggregate(Columns data, int lo, int hi) {
+         this._data = data;
+         this._lo = lo;
+         this._hi = hi;
+      }
+
+      protected Partial compute() {
+         if (this._hi - this._lo <= LEAF_ROWS)
+            return sum();
+         int mid = (this._lo + this._hi) >>> 1;
+         Aggregate left = new Aggregate(this._data, this._lo, mid);
+         left.fork();
+         Partial right = new Aggregate(this._data, mid, this._hi).compute();
+         Partial result = left.join();
+         result.addAll(right);
+         return result;
+      }
+
+      private Partial sum() {
+         Columns d = this._data;
+         Partial p = new Partial();
+         int i = this._lo;
+         for (; i < this._hi && i < d.orders; ++i) {
+            p.revenue.add(((long) d.storeID[i] << 32) | (d.day[i] & 0xffffffffL), 0, 1);
+            p.revenue.add(((long) d.storeID[i] << 32) | (d.day[i] & 0xffffffffL), 1, d.cents[i]);
+            if (d.state[i] >= 0) {
+               p.states.add(d.state[i], 0, 1);
+               p.states.add(d.state[i], 1, d.cents[i]);
+            }
+            p.completion.add(d.storeID[i], 0, 1);
+            p.completion.add(d.storeID[i], 1, d.complete[i] ? 1 : 0);
+         }
+         for (; i < this._hi; ++i) {
+            int line = i - d.orders;
+            p.items.add(d.item[line], 0, d.quantity[line]);
+            p.items.add(d.item[line], 1, 1);
+         }
+         return p;
+      }
+   }//end Aggregate
+
+   private final PizzaStore _esql;
+   private final ForkJoinPool _pool;
+   private final Semaphore _running = new Semaphore(1);
+
+   /**
+    * @param esql the database reported on
+    */
+   public Reports(PizzaStore esql) {
+      this._esql = esql;
+      this._pool = new ForkJoinPool(Integer.getInteger("pizzastore.reports.parallelism",
+                                                       Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+   }
+
+   /**
+    * @return the longest range of days a report may cover
+    */
+   public static int maxDays() {
+      return Integer.getInteger("pizzastore.reports.maxDays", 366);
+   }
+
+   /**
+    * Streams the orders of the range once and sums them in parallel.
+    *
+    * @param first the first day reported
+    * @param last the last day reported
+    * @param topItems how many items the top items section lists
+    * @return the report
+    * @throws java.sql.SQLException when the orders cannot be read
+    * @throws java.util.concurrent.RejectedExecutionException when another
+    *         report is running
+    */
+   public Report run(LocalDate first, LocalDate last, int topItems) throws SQLException {
+      if (!this._running.tryAcquire())
+         throw new RejectedExecutionException("A report is already running");
+      try {
+         Columns data = stream(first, last);
+         Partial sums = this._pool.invoke(new Aggregate(data, 0, data.orders + data.lines));
+         return report(first, last, topItems, data, sums);
+      } finally {
+         this._running.release();
+      }
+   }//end run
+
+   /**
+    * Computes the same report as run() with a GROUP BY query per section,
+    * all four in one snapshot.
+    *
+    * @param first the first day reported
+    * @param last the last day reported
+    * @param topItems how many items the top items section lists
+    * @return the report
+    * @throws java.sql.SQLException when a query fails
+    * @throws java.util.concurrent.RejectedExecutionException when another
+    *         report is running
+    */
+   public Report runWithSql(final LocalDate first, final LocalDate last, final int topItems) throws SQLException {
+      if (!this._running.tryAcquire())
+         throw new RejectedExecutionException("A report is already running");
+      try {
+         final Object[] range = range(first, last);
+         return this._esql.executeInTransaction(new PizzaStore.Transaction<Report>() {
+            public Report run(ConnectionPool.PooledConnection pc) throws SQLException {
+               Statement stmt = pc.connection().createStatement();
+               try {
+                  stmt.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+               } finally {
+                  stmt.close();
+               }
+
+               PizzaStore esql = Reports.this._esql;
+               final List<StoreDay> revenue = new ArrayList<StoreDay>();
+               esql.executeQuery(pc, REVENUE_QUERY, new PizzaStore.RowCallback() {
+                  public void row(ResultSet rs) throws SQLException {
+                     revenue.add(new StoreDay(rs.getInt(1), LocalDate.ofEpochDay(rs.getInt(2)), rs.getInt(3),
+                                              rs.getBigDecimal(4)));
+                  }
+               }, range);
+
+               final List<ItemTotal> items = new ArrayList<ItemTotal>();
+               esql.executeQuery(pc, TOP_ITEMS_QUERY, new PizzaStore.RowCallback() {
+                  public void row(ResultSet rs) throws SQLException {
+                     items.add(new ItemTotal(rs.getString(1), rs.getLong(2), rs.getInt(3)));
+                  }
+               }, range[0], range[1], topItems);
+
+               final List<StateAverage> averages = new ArrayList<StateAverage>();
+               esql.executeQuery(pc, AVERAGES_QUERY, new PizzaStore.RowCallback() {
+                  public void row(ResultSet rs) throws SQLException {
+                     averages.add(new StateAverage(rs.getString(1), rs.getInt(2), rs.getBigDecimal(3)));
+                  }
+               }, range);
+
+               final List<Completion> completion = new ArrayList<Completion>();
+               esql.executeQuery(pc, COMPLETION_QUERY, new PizzaStore.RowCallback() {
+                  public void row(ResultSet rs) throws SQLException {
+                     completion.add(new Completion(rs.getInt(1), rs.getInt(2), rs.getInt(3)));
+                  }
+               }, range);
+               return new Report(first, last, revenue, items, averages, completion);
+            }
+         });
+      } finally {
+         this._running.release();
+      }
+   }//end runWithSql
+
+   /**
+    * Stops the summing threads.
+    */
+   public void close() {
+      this._pool.shutdown();
+   }
+
+   // the orders of the range, read once
+   private Columns stream(LocalDate first, LocalDate last) throws SQLException {
+      final Columns data = new Columns();
+      final StoreLocator stores = this._esql.stores();
+      final LongSums seen = new LongSums(1);
+      final Map<String, Integer> itemNumbers = new HashMap<String, Integer>();
+      final Map<String, Integer> stateNumbers = new HashMap<String, Integer>();
+      this._esql.executeQueryStreaming(STREAM_QUERY, new PizzaStore.RowCallback() {
+         public void row(ResultSet rs) throws SQLException {
+            int orderID = rs.getInt(1);
+            int before = seen.size();
+            seen.add(orderID, 0, 1);
+            if (seen.size() > before) {
+               int storeID = rs.getInt(2);
+               Store store = stores.find(storeID);
+               data.addOrder(storeID, rs.getInt(3), rs.getLong(4), rs.getBoolean(5),
+                             store == null ? -1 : number(stateNumbers, data.states, store.state()));
+            }
+            String itemName = rs.getString(6);
+            if (itemName != null)
+               data.addLine(number(itemNumbers, data.itemNames, itemName), rs.getInt(7));
+         }
+      }, range(first, last));
+      return data;
+   }//end stream
+
+   // the number of a name, assigning the next one when it is new
+   private static int number(Map<String, Integer> numbers, List<String> names, String name) {
+      Integer n = numbers.get(name);
+      if (n == null) {
+         n = names.size();
+         numbers.put(name, n);
+         names.add(name);
+      }
+      return n;
+   }
+
+   private static Report report(LocalDate first, LocalDate last, int topItems, Columns data, Partial sums) {
+      List<StoreDay> revenue = new ArrayList<StoreDay>(sums.revenue.size());
+      for (int i = 0; i < sums.revenue.capacity(); ++i) {
+         if (sums.revenue.used(i)) {
+            long key = sums.revenue.key(i);
+            revenue.add(new StoreDay((int) (key >> 32), LocalDate.ofEpochDay((int) key),
+                                     (int) sums.revenue.sum(i, 0), BigDecimal.valueOf(sums.revenue.sum(i, 1), 2)));
+         }
+      }
+      Collections.sort(revenue, new Comparator<StoreDay>() {
+         public int compare(StoreDay a, StoreDay b) {
+            int c = Integer.compare(a.storeID(), b.storeID());
+            return c != 0 ? c : a.day().compareTo(b.day());
+         }
+      });
+
+      List<ItemTotal> items = new ArrayList<ItemTotal>(sums.items.size());
+      for (int i = 0; i < sums.items.capacity(); ++i)
+         if (sums.items.used(i))
+            items.add(new ItemTotal(data.itemNames.get((int) sums.items.key(i)), sums.items.sum(i, 0),
+                                    (int) sums.items.sum(i, 1)));
+      Collections.sort(items, BY_QUANTITY);
+      items = new ArrayList<ItemTotal>(items.subList(0, Math.min(topItems, items.size())));
+
+      List<StateAverage> averages = new ArrayList<StateAverage>(sums.states.size());
+      for (int i = 0; i < sums.states.capacity(); ++i) {
+         if (sums.states.used(i)) {
+            long orders = sums.states.sum(i, 0);
+            averages.add(new StateAverage(data.states.get((int) sums.states.key(i)), (int) orders,
+                                          BigDecimal.valueOf(sums.states.sum(i, 1), 2)
+                                             .divide(BigDecimal.valueOf(orders), 2, RoundingMode.HALF_UP)));
+         }
+      }
+      Collections.sort(averages, new Comparator<StateAverage>() {
+         public int compare(StateAverage a, StateAverage b) {
+            return a.state().compareTo(b.state());
+         }
+      });
+
+      List<Completion> completion = new ArrayList<Completion>(sums.completion.size());
+      for (int i = 0; i < sums.completion.capacity(); ++i)
+         if (sums.completion.used(i))
+            completion.add(new Completion((int) sums.completion.key(i), (int) sums.completion.sum(i, 0),
+                                          (int) sums.completion.sum(i, 1)));
+      Collections.sort(completion, new Comparator<Completion>() {
+         public int compare(Completion a, Completion b) {
+            return Integer.compare(a.storeID(), b.storeID());
+         }
+      });
+      return new Report(first, last, revenue, items, averages, completion);
+   }//end report
+
+   // the bind values of first 00:00 inclusive to the day after last exclusive
+   private static Object[] range(LocalDate first, LocalDate last) {
+      return new Object[] { Timestamp.valueOf(first.atStartOfDay()), Timestamp.valueOf(last.plusDays(1).atStartOfDay()) };
+   }
+}//end Reports
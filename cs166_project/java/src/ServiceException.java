@@ -0,0 +1,44 @@
+/**
+ * Thrown by PizzaStoreService when a request is refused: the caller lacks
+ * the role for it, it names something that does not exist, or its input is
+ * invalid.  The message is meant to be shown to the user as is.  Database
+ * failures are reported as SQLException instead.
+ */
+public class ServiceException extends Exception {
+
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Why a request was refused.
+    */
+   public enum Reason {
+      // the session's role does not allow the request, or it has ended
+      DENIED,
+      // the login, order, store or item named does not exist
+      NOT_FOUND,
+      // the input is malformed or breaks a business rule
+      INVALID,
+      // the request conflicts with the current state, e.g. a taken login
+      CONFLICT,
+      // the system is too busy to take the request now; it may be retried
+      BUSY
+   }
+
+   private final Reason _reason;
+
+   /**
+    * @param reason why the request was refused
+    * @param message the reason the request was refused, for the user
+    */
+   public ServiceException(Reason reason, String message) {
+      super(message);
+      this._reason = reason;
+   }
+
+   /**
+    * @return why the request was refused
+    */
+   public Reason reason() {
+      return this._reason;
+   }
+}//end ServiceException
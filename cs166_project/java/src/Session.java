@@ -0,0 +1,96 @@
+/**
+ * An authenticated user session.  LogIn builds it from a single credential
+ * query, and it carries the user's role, phone number and favorites so
+ * privileged actions can check the role without asking the database again.
+ *
+ * A session is marked stale when something changes the user's row (for
+ * example a manager changing their role); PizzaStore.checkSession then reloads
+ * it with one query before the next privileged check.
+ */
+public class Session {
+
+   private final String _login;
+   private volatile String _role;
+   private volatile String _phoneNum;
+   private volatile String _favoriteItems;
+   private volatile boolean _stale = false;
+   private volatile boolean _closed = false;
+
+   /**
+    * @param login the Users.login of the authenticated user
+    * @param role the Users.role, trimmed of its char(20) padding
+    * @param phoneNum the Users.phoneNum
+    * @param favoriteItems the Users.favoriteItems, may be null
+    */
+   public Session(String login, String role, String phoneNum, String favoriteItems) {
+      this._login = login;
+      this._role = role;
+      this._phoneNum = phoneNum;
+      this._favoriteItems = favoriteItems;
+   }
+
+   public String login() {
+      return this._login;
+   }
+
+   public String role() {
+      return this._role;
+   }
+
+   public String phoneNum() {
+      return this._phoneNum;
+   }
+
+   public String favoriteItems() {
+      return this._favoriteItems;
+   }
+
+   /**
+    * @return true for managers
+    */
+   public boolean isManager() {
+      return "manager".equalsIgnoreCase(this._role);
+   }
+
+   /**
+    * @return true for drivers and managers, who may update order status
+    */
+   public boolean canUpdateOrderStatus() {
+      return isManager() || "driver".equalsIgnoreCase(this._role);
+   }
+
+   /**
+    * @return true when the cached user data may be out of date
+    */
+   public boolean isStale() {
+      return this._stale;
+   }
+
+   /**
+    * @return true once the user logged out or no longer exists
+    */
+   public boolean isClosed() {
+      return this._closed;
+   }
+
+   /**
+    * Marks the cached user data as out of date.
+    */
+   void invalidate() {
+      this._stale = true;
+   }
+
+   /**
+    * Replaces the cached user data with freshly loaded values.
+    */
+   void reload(String role, String phoneNum, String favoriteItems) {
+      this._role = role;
+      this._phoneNum = phoneNum;
+      this._favoriteItems = favoriteItems;
+      this._stale = false;
+   }
+
+   void close() {
+      this._closed = true;
+   }
+}//end Session
@@ -0,0 +1,260 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Opt-in log of statements slower than a threshold.  Each entry has the
+ * statement's shape (the SQL with literals replaced by ? and IN lists
+ * collapsed), its bind values, duration and row count.  The first time a
+ * shape is logged its plan is captured too: EXPLAIN (ANALYZE, BUFFERS) for
+ * plain SELECTs, and plain EXPLAIN for everything else, including a WITH,
+ * which may write and so must not be run twice.
+ *
+ * The calling thread only checks the duration and queues the entry; a
+ * background thread formats it, runs the EXPLAIN and appends to the file,
+ * so a slow database never slows the caller further.  When the queue is
+ * full entries are dropped and counted.  Bind values of statements that
+ * mention a password are not logged.
+ *
+ * Settings:
+ *    pizzastore.slowQuery.thresholdMs   log statements at least this slow; unset turns the log off
+ *    pizzastore.slowQuery.file          the log file (default slow-queries.log)
+ *    pizzastore.slowQuery.maxBytes      roll the file over at this size (default 10 MB)
+ *    pizzastore.slowQuery.files         rolled files to keep, file.1 newest (default 5)
+ */
+public class SlowQueryLog {
+
+   private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+   private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+   private static final Pattern IN_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+   private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+   // most distinct shapes whose plan is captured
+   private static final int MAX_SHAPES = 10000;
+
+   /*
+    * One slow statement waiting to be written.
+    */
+   private static final class Entry {
+      final long at = System.currentTimeMillis();
+      final String sql;
+      final Object[] params;
+      final long nanos;
+      final long rows;
+
+      Entry(String sql, Object[] params, long nanos, long rows) {
+         this.sql = sql;
+         this.params = params;
+         this.nanos = nanos;
+         this.rows = rows;
+      }
+   }
+
+   private final PizzaStore _esql;
+   private final long _thresholdNanos;
+   private final File _file;
+   private final long _maxBytes;
+   private final int _files;
+   private final BlockingQueue<Entry> _queue = new ArrayBlockingQueue<Entry>(1000);
+   private final Set<String> _explained = ConcurrentHashMap.newKeySet();
+   private final AtomicLong _dropped = new AtomicLong();
+   private final Thread _writer;
+   private volatile boolean _closed = false;
+
+   /**
+    * @param esql the store to run EXPLAIN against
+    * @return the log configured by the pizzastore.slowQuery.* properties,
+    *         or null when pizzastore.slowQuery.thresholdMs is not set
+    */
+   public static SlowQueryLog fromProperties(PizzaStore esql) {
+      String threshold = System.getProperty("pizzastore.slowQuery.thresholdMs");
+      if (threshold == null)
+         return null;
+      return new SlowQueryLog(esql, Long.parseLong(threshold.trim()),
+                              new File(System.getProperty("pizzastore.slowQuery.file", "slow-queries.log")),
+                              Long.getLong("pizzastore.slowQuery.maxBytes", 10L * 1024 * 1024),
+                              Integer.getInteger("pizzastore.slowQuery.files", 5));
+   }//end fromProperties
+
+   /**
+    * Starts the background writer.
+    *
+    * @param esql the store to run EXPLAIN against
+    * @param thresholdMs log statements at least this slow
+    * @param file the log file
+    * @param maxBytes roll the file over at this size
+    * @param files rolled files to keep
+    */
+   public SlowQueryLog(PizzaStore esql, long thresholdMs, File file, long maxBytes, int files) {
+      this._esql = esql;
+      this._thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+      this._file = file;
+      this._maxBytes = maxBytes;
+      this._files = files;
+      this._writer = new Thread(new Runnable() {
+         public void run() {
+            write();
+         }
+      }, "slow-query-log");
+      this._writer.setDaemon(true);
+      this._writer.start();
+   }//end SlowQueryLog
+
+   /**
+    * Queues a statement for the log if it was slow.  Never blocks.
+    *
+    * @param sql the statement as run
+    * @param params its bind values
+    * @param nanos how long it took
+    * @param rows the rows it returned or changed
+    */
+   public void check(String sql, Object[] params, long nanos, long rows) {
+      if (nanos < this._thresholdNanos || this._closed)
+         return;
+      // the EXPLAINs run by this log are slow by design
+      if (Thread.currentThread() == this._writer)
+         return;
+      if (!this._queue.offer(new Entry(sql, params.clone(), nanos, rows)))
+         this._dropped.incrementAndGet();
+   }//end check
+
+   /**
+    * Writes what is queued and stops the writer.
+    */
+   public void close() {
+      this._closed = true;
+      this._writer.interrupt();
+      try {
+         this._writer.join(5000);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }//end close
+
+   /**
+    * @param sql a statement
+    * @return its shape: literals replaced by ?, IN lists collapsed to
+    *         "?, ...", whitespace collapsed
+    */
+   static String normalize(String sql) {
+      String s = STRING_LITERAL.matcher(sql).replaceAll("?");
+      s = NUMBER_LITERAL.matcher(s).replaceAll("?");
+      s = IN_LIST.matcher(s).replaceAll("?, ...");
+      s = WHITESPACE.matcher(s).replaceAll(" ").trim();
+      return s.endsWith(";") ? s.substring(0, s.length() - 1).trim() : s;
+   }
+
+   private void write() {
+      while (true) {
+         Entry entry;
+         try {
+            entry = this._closed ? this._queue.poll() : this._queue.take();
+         } catch (InterruptedException e) {
+            continue;
+         }
+         if (entry == null)
+            return;
+         try {
+            append(format(entry));
+         } catch (IOException e) {
+            System.err.println("Warning - Unable to write the slow query log: " + e.getMessage());
+         }
+      }
+   }//end write
+
+   private String format(Entry entry) {
+      String shape = normalize(entry.sql);
+      StringBuilder s = new StringBuilder();
+      s.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(entry.at)))
+       .append(String.format(" %.1f ms, %d rows", entry.nanos / 1e6, entry.rows));
+      long dropped = this._dropped.getAndSet(0);
+      if (dropped > 0)
+         s.append(", ").append(dropped).append(" earlier entries dropped");
+      s.append("\n  sql:   ").append(shape);
+      s.append("\n  binds: ").append(binds(shape, entry.params)).append('\n');
+
+      if (this._explained.size() < MAX_SHAPES && this._explained.add(shape)) {
+         s.append("  plan:\n");
+         try {
+            for (String line : explain(entry.sql, entry.params))
+               s.append("    ").append(line).append('\n');
+         } catch (SQLException e) {
+            s.append("    unavailable: ").append(e.getMessage()).append('\n');
+         }
+      }
+      return s.toString();
+   }//end format
+
+   private List<String> explain(final String sql, final Object[] params) throws SQLException {
+      String verb = sql.trim().split("\\s+", 2)[0].toUpperCase();
+      // EXPLAIN ANALYZE runs the statement; a data-modifying WITH would write twice
+      final String explain = (verb.equals("SELECT") ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + sql;
+      return this._esql.executeInTransaction(new PizzaStore.Transaction<List<String>>() {
+         public List<String> run(ConnectionPool.PooledConnection pc) throws SQLException {
+            List<String> plan = new ArrayList<String>();
+            ResultSet rs = PizzaStore.prepare(pc, explain, params).executeQuery();
+            try {
+               while (rs.next())
+                  plan.add(rs.getString(1));
+            } finally {
+               PizzaStore.closeQuietly(rs);
+            }
+            return plan;
+         }
+      });
+   }//end explain
+
+   private static String binds(String shape, Object[] params) {
+      if (shape.toLowerCase().contains("password"))
+         return "(not logged)";
+      StringBuilder s = new StringBuilder("[");
+      for (int i = 0; i < params.length; ++i) {
+         if (i > 0)
+            s.append(", ");
+         String value = String.valueOf(params[i]);
+         if (value.length() > 100)
+            value = value.substring(0, 100) + "...";
+         s.append(params[i] instanceof String ? "'" + value + "'" : value);
+      }
+      return s.append(']').toString();
+   }
+
+   private void append(String text) throws IOException {
+      if (this._file.length() >= this._maxBytes)
+         roll();
+      Writer out = new OutputStreamWriter(new FileOutputStream(this._file, true), StandardCharsets.UTF_8);
+      try {
+         out.write(text);
+      } finally {
+         out.close();
+      }
+   }
+
+   // file.N-1 becomes file.N and so on, the current file becomes file.1
+   private void roll() {
+      String name = this._file.getPath();
+      new File(name + "." + this._files).delete();
+      for (int i = this._files - 1; i >= 1; --i)
+         new File(name + "." + i).renameTo(new File(name + "." + (i + 1)));
+      if (this._files > 0)
+         this._file.renameTo(new File(name + ".1"));
+      else
+         this._file.delete();
+   }
+}//end SlowQueryLog
@@ -0,0 +1,110 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of PreparedStatements for a single physical connection,
+ * keyed by SQL text.
+ *
+ * With the bundled pg73 driver this saves only client-side work: creating
+ * and parsing the statement object on every call.  pg73 interpolates the
+ * parameters into the SQL text and sends it as a plain query, and its
+ * server-side prepare (PGStatement.setUseServerPrepare) is ignored on every
+ * server this schema supports, since the driver compares version strings
+ * and "13" sorts before "7.3".  So Postgres still parses and plans each
+ * execution.  With a pgjdbc 42.x driver on the classpath, a cached statement
+ * is reused often enough to pass its prepareThreshold (default 5), after
+ * which the driver keeps a named server-side statement and the parse and
+ * plan are skipped.
+ *
+ * The cache is not thread safe; callers must serialize access to the
+ * connection it belongs to.
+ */
+public class StatementCache {
+
+   // default number of distinct SQL shapes kept open per connection
+   public static final int DEFAULT_CAPACITY = 64;
+
+   private final Connection _connection;
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   /**
+    * Creates a statement cache for the given connection
+    *
+    * @param connection the connection statements are prepared on
+    * @param capacity the maximum number of statements kept open
+    */
+   public StatementCache(Connection connection, final int capacity) {
+      this._connection = connection;
+      // access-ordered so the eldest entry is the least recently used
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= capacity)
+               return false;
+            closeQuietly(eldest.getValue());
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns a prepared statement for the SQL text, preparing it on first use.
+    * Parameters left over from a previous use are cleared.
+    *
+    * @param sql the SQL text with '?' placeholders
+    * @return a ready-to-bind prepared statement
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get(sql);
+      if (stmt == null) {
+         stmt = this._connection.prepareStatement(sql);
+         this._statements.put(sql, stmt);
+      } else {
+         stmt.clearParameters();
+      }
+      return stmt;
+   }//end prepare
+
+   /**
+    * Drops a statement from the cache, e.g. after it failed and may be in a
+    * bad state.
+    *
+    * @param sql the SQL text the statement was prepared from
+    */
+   public void evict(String sql) {
+      closeQuietly(this._statements.remove(sql));
+   }//end evict
+
+   /**
+    * @return the number of statements currently cached
+    */
+   public int size() {
+      return this._statements.size();
+   }
+
+   /**
+    * Closes every cached statement.
+    */
+   public void close() {
+      Iterator<PreparedStatement> it = this._statements.values().iterator();
+      while (it.hasNext()) {
+         closeQuietly(it.next());
+         it.remove();
+      }
+   }//end close
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      if (stmt == null)
+         return;
+      try {
+         stmt.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }
+}//end StatementCache
@@ -0,0 +1,23 @@
+/**
+ * What a bulk order-status update did to one order.
+ *
+ * @param orderID the order
+ * @param outcome whether the order was updated, and if not why
+ * @param orderStatus the order's status after the update: the new status
+ *                    when UPDATED, the status someone else left it in when
+ *                    CONFLICT, null when NOT_FOUND
+ */
+public record StatusChange(int orderID, Outcome outcome, String orderStatus) {
+
+   /**
+    * The result for one order.
+    */
+   public enum Outcome {
+      // the status was changed
+      UPDATED,
+      // the order was not in the expected status, so it was left alone
+      CONFLICT,
+      // there is no such order
+      NOT_FOUND
+   }
+}//end StatusChange
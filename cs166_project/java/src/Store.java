@@ -0,0 +1,37 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A row of the Store table.
+ *
+ * @param storeID the store ID, primary key of Store
+ * @param address the street address
+ * @param city the city
+ * @param state the state
+ * @param open true when Store.isOpen is 'yes'
+ * @param reviewScore the review score, NaN when not rated
+ */
+public record Store(int storeID, String address, String city, String state,
+                    boolean open, double reviewScore) {
+
+   // column list MAPPER expects, in order
+   public static final String COLUMNS = "storeID, address, city, state, isOpen, reviewScore";
+
+   // maps a row selected with COLUMNS
+   public static final PizzaStore.RowMapper<Store> MAPPER = new PizzaStore.RowMapper<Store>() {
+      public Store map(ResultSet rs) throws SQLException {
+         double reviewScore = rs.getDouble(6);
+         if (rs.wasNull())
+            reviewScore = Double.NaN;
+         return new Store(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                          "yes".equalsIgnoreCase(rs.getString(5).trim()), reviewScore);
+      }
+   };
+
+   /**
+    * @return the Store.isOpen text, yes or no
+    */
+   public String isOpenText() {
+      return this.open ? "yes" : "no";
+   }
+}//end Store
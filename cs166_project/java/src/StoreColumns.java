@@ -0,0 +1,79 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Column-oriented copy of many Store rows.  Numeric columns live in primitive
+ * arrays, so a large listing costs a handful of arrays instead of one object
+ * per row.  Fill it by streaming a query that selects Store.COLUMNS into it.
+ */
+public class StoreColumns implements PizzaStore.RowCallback {
+
+   private int _size = 0;
+   private int[] _storeID;
+   private String[] _address;
+   private String[] _city;
+   private String[] _state;
+   private boolean[] _open;
+   private double[] _reviewScore;
+
+   public StoreColumns() {
+      this(64);
+   }
+
+   /**
+    * @param capacity the number of rows to allocate room for up front
+    */
+   public StoreColumns(int capacity) {
+      capacity = Math.max(1, capacity);
+      this._storeID = new int[capacity];
+      this._address = new String[capacity];
+      this._city = new String[capacity];
+      this._state = new String[capacity];
+      this._open = new boolean[capacity];
+      this._reviewScore = new double[capacity];
+   }
+
+   /**
+    * Appends the current row of a result set selected with Store.COLUMNS.
+    */
+   public void row(ResultSet rs) throws SQLException {
+      if (this._size == this._storeID.length)
+         grow();
+      int i = this._size++;
+      this._storeID[i] = rs.getInt(1);
+      this._address[i] = rs.getString(2);
+      this._city[i] = rs.getString(3);
+      this._state[i] = rs.getString(4);
+      this._open[i] = "yes".equalsIgnoreCase(rs.getString(5).trim());
+      double reviewScore = rs.getDouble(6);
+      this._reviewScore[i] = rs.wasNull() ? Double.NaN : reviewScore;
+   }//end row
+
+   public int size() { return this._size; }
+   public int storeID(int i) { return this._storeID[i]; }
+   public String address(int i) { return this._address[i]; }
+   public String city(int i) { return this._city[i]; }
+   public String state(int i) { return this._state[i]; }
+   public boolean open(int i) { return this._open[i]; }
+   public double reviewScore(int i) { return this._reviewScore[i]; }
+
+   /**
+    * @param i the row index
+    * @return row i as a Store record
+    */
+   public Store get(int i) {
+      return new Store(this._storeID[i], this._address[i], this._city[i], this._state[i],
+                       this._open[i], this._reviewScore[i]);
+   }
+
+   private void grow() {
+      int capacity = this._storeID.length * 2;
+      this._storeID = Arrays.copyOf(this._storeID, capacity);
+      this._address = Arrays.copyOf(this._address, capacity);
+      this._city = Arrays.copyOf(this._city, capacity);
+      this._state = Arrays.copyOf(this._state, capacity);
+      this._open = Arrays.copyOf(this._open, capacity);
+      this._reviewScore = Arrays.copyOf(this._reviewScore, capacity);
+   }
+}//end StoreColumns
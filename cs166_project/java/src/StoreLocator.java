@@ -0,0 +1,211 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process index of the Store table, so stores can be searched by state,
+ * city and open status and placeOrder can check a store without a query.
+ *
+ * Every store is filed under its state, its city, its state and city
+ * together, and the catch-all bucket; each bucket keeps all its stores and
+ * just the open ones, best reviewScore first.  A search is one hash lookup
+ * that returns a ready-sorted list.  States may be given by name or by
+ * postal abbreviation ("Riverside, CA").
+ *
+ * Like MenuCache the index is an immutable snapshot, loaded on first use
+ * and replaced wholesale by refresh().  It is also reloaded on the next
+ * lookup once it is older than pizzastore.stores.refreshMs (default 60s),
+ * since stores open and close without going through this program.
+ */
+public class StoreLocator {
+
+   private static final String STORE_QUERY = "SELECT " + Store.COLUMNS + " FROM Store";
+
+   // best reviewed first, unrated stores last, storeID breaking ties
+   private static final Comparator<Store> BY_REVIEW = new Comparator<Store>() {
+      public int compare(Store a, Store b) {
+         double x = Double.isNaN(a.reviewScore()) ? Double.NEGATIVE_INFINITY : a.reviewScore();
+         double y = Double.isNaN(b.reviewScore()) ? Double.NEGATIVE_INFINITY : b.reviewScore();
+         int c = Double.compare(y, x);
+         return c != 0 ? c : Integer.compare(a.storeID(), b.storeID());
+      }
+   };
+
+   private static final Map<String, String> STATES = new HashMap<String, String>();
+   static {
+      String[] states = {
+         "AL", "Alabama", "AK", "Alaska", "AZ", "Arizona", "AR", "Arkansas", "CA", "California",
+         "CO", "Colorado", "CT", "Connecticut", "DE", "Delaware", "DC", "District of Columbia",
+         "FL", "Florida", "GA", "Georgia", "HI", "Hawaii", "ID", "Idaho", "IL", "Illinois",
+         "IN", "Indiana", "IA", "Iowa", "KS", "Kansas", "KY", "Kentucky", "LA", "Louisiana",
+         "ME", "Maine", "MD", "Maryland", "MA", "Massachusetts", "MI", "Michigan", "MN", "Minnesota",
+         "MS", "Mississippi", "MO", "Missouri", "MT", "Montana", "NE", "Nebraska", "NV", "Nevada",
+         "NH", "New Hampshire", "NJ", "New Jersey", "NM", "New Mexico", "NY", "New York",
+         "NC", "North Carolina", "ND", "North Dakota", "OH", "Ohio", "OK", "Oklahoma", "OR", "Oregon",
+         "PA", "Pennsylvania", "RI", "Rhode Island", "SC", "South Carolina", "SD", "South Dakota",
+         "TN", "Tennessee", "TX", "Texas", "UT", "Utah", "VT", "Vermont", "VA", "Virginia",
+         "WA", "Washington", "WV", "West Virginia", "WI", "Wisconsin", "WY", "Wyoming"
+      };
+      for (int i = 0; i < states.length; i += 2)
+         STATES.put(states[i].toLowerCase(Locale.ROOT), states[i + 1].toLowerCase(Locale.ROOT));
+   }
+
+   /*
+    * The stores filed under one key, sorted with BY_REVIEW.
+    */
+   private static final class Bucket {
+      final List<Store> all;
+      final List<Store> open;
+
+      Bucket(List<Store> stores) {
+         Store[] sorted = stores.toArray(new Store[0]);
+         Arrays.sort(sorted, BY_REVIEW);
+         List<Store> open = new ArrayList<Store>();
+         for (Store store : sorted)
+            if (store.open())
+               open.add(store);
+         this.all = Collections.unmodifiableList(Arrays.asList(sorted));
+         this.open = Collections.unmodifiableList(open);
+      }
+   }
+
+   /*
+    * One complete load of the Store table.
+    */
+   private static final class Snapshot {
+      final Map<Integer, Store> byId;
+      final Map<String, Bucket> buckets;
+      final long loadedAt;
+
+      Snapshot(Map<Integer, Store> byId, Map<String, Bucket> buckets, long loadedAt) {
+         this.byId = byId;
+         this.buckets = buckets;
+         this.loadedAt = loadedAt;
+      }
+   }
+
+   private final PizzaStore _esql;
+   private final long _refreshMs = Long.getLong("pizzastore.stores.refreshMs", 60000L);
+   private volatile Snapshot _snapshot = null;
+   private final AtomicBoolean _refreshing = new AtomicBoolean(false);
+
+   /**
+    * Creates an empty locator; the stores are loaded on first use.
+    *
+    * @param esql the store the Store table is loaded from
+    */
+   public StoreLocator(PizzaStore esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * Reloads every store from the Store table.
+    *
+    * @throws java.sql.SQLException when the stores cannot be read
+    */
+   public void refresh() throws SQLException {
+      Map<Integer, Store> byId = new HashMap<Integer, Store>();
+      Map<String, List<Store>> filed = new HashMap<String, List<Store>>();
+      for (Store store : this._esql.executeQueryForList(STORE_QUERY, Store.MAPPER)) {
+         byId.put(store.storeID(), store);
+         String state = normalizeState(store.state());
+         String city = normalize(store.city());
+         file(filed, key(null, null), store);
+         file(filed, key(state, null), store);
+         file(filed, key(null, city), store);
+         file(filed, key(state, city), store);
+      }
+
+      Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+      for (Map.Entry<String, List<Store>> entry : filed.entrySet())
+         buckets.put(entry.getKey(), new Bucket(entry.getValue()));
+      this._snapshot = new Snapshot(byId, buckets, System.currentTimeMillis());
+   }//end refresh
+
+   /**
+    * Drops the index; the next lookup reloads it.
+    */
+   public void invalidate() {
+      this._snapshot = null;
+   }
+
+   /**
+    * @param storeID the store to look up
+    * @return the store, or null when there is no such store
+    * @throws java.sql.SQLException when the index has to be loaded and cannot be
+    */
+   public Store find(int storeID) throws SQLException {
+      return snapshot().byId.get(storeID);
+   }
+
+   /**
+    * Finds stores, best reviewed first.
+    *
+    * @param state a state name or postal abbreviation, or null for any state
+    * @param city a city name, or null for any city
+    * @param openOnly true to leave out closed stores
+    * @return the matching stores, best reviewScore first
+    * @throws java.sql.SQLException when the index has to be loaded and cannot be
+    */
+   public List<Store> search(String state, String city, boolean openOnly) throws SQLException {
+      Bucket bucket = snapshot().buckets.get(key(normalizeState(state), normalize(city)));
+      if (bucket == null)
+         return Collections.emptyList();
+      return openOnly ? bucket.open : bucket.all;
+   }
+
+   private Snapshot snapshot() throws SQLException {
+      Snapshot snapshot = this._snapshot;
+      if (snapshot == null) {
+         synchronized (this) {
+            if (this._snapshot == null)
+               refresh();
+            return this._snapshot;
+         }
+      }
+      // one caller reloads an old index while the others keep using it
+      if (System.currentTimeMillis() - snapshot.loadedAt > this._refreshMs
+          && this._refreshing.compareAndSet(false, true)) {
+         try {
+            refresh();
+            snapshot = this._snapshot;
+         } finally {
+            this._refreshing.set(false);
+         }
+      }
+      return snapshot;
+   }
+
+   private static void file(Map<String, List<Store>> filed, String key, Store store) {
+      List<Store> stores = filed.get(key);
+      if (stores == null) {
+         stores = new ArrayList<Store>();
+         filed.put(key, stores);
+      }
+      stores.add(store);
+   }
+
+   private static String key(String state, String city) {
+      return (state == null ? "" : state) + "|" + (city == null ? "" : city);
+   }
+
+   private static String normalize(String s) {
+      if (s == null)
+         return null;
+      s = s.trim().toLowerCase(Locale.ROOT);
+      return s.isEmpty() ? null : s;
+   }
+
+   private static String normalizeState(String state) {
+      String s = normalize(state);
+      String name = s == null ? null : STATES.get(s);
+      return name != null ? name : s;
+   }
+}//end StoreLocator
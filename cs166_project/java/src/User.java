@@ -0,0 +1,25 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A row of the Users table.
+ *
+ * @param login the user's login, primary key of Users
+ * @param password the user's password
+ * @param role customer, driver or manager, without the char(20) padding
+ * @param favoriteItems free text list of favorite items, may be null
+ * @param phoneNum the user's phone number
+ */
+public record User(String login, String password, String role, String favoriteItems, String phoneNum) {
+
+   // column list MAPPER expects, in order
+   public static final String COLUMNS = "login, password, role, favoriteItems, phoneNum";
+
+   // maps a row selected with COLUMNS
+   public static final PizzaStore.RowMapper<User> MAPPER = new PizzaStore.RowMapper<User>() {
+      public User map(ResultSet rs) throws SQLException {
+         return new User(rs.getString(1), rs.getString(2), rs.getString(3).trim(),
+                         rs.getString(4), rs.getString(5));
+      }
+   };
+}//end User
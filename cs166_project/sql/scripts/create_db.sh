@@ -5,3 +5,6 @@ cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/create_tables.sql
 cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/create_indexes.sql
 cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/load_data.sql
 
+
+#load_data.sql puts every order in FoodOrder_default; split them into
+#monthly partitions with java/scripts/partitions.sh
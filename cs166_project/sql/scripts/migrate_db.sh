@@ -0,0 +1,8 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+#brings a database created by an older create_tables.sql up to date
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/migrate_login_fkey.sql
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/migrate_item_fkey.sql
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/migrate_order_id_seq.sql
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/migrate_partition_foodorder.sql
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/migrate_user_item_stats.sql
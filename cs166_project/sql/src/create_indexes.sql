@@ -13,3 +13,6 @@ CREATE INDEX idx_itemsinorder_orderID ON ItemsInOrder(orderID);
 -- Reduces the number of rows scanned when checking available stores
 CREATE INDEX idx_store_storeID ON Store(storeID);
 
+-- Keyset pagination of a user's order history: newest orders first, orderID
+-- breaks ties, so every page is a short range scan at any depth
+CREATE INDEX idx_foodorder_login_timestamp ON FoodOrder(login, orderTimestamp DESC, orderID);
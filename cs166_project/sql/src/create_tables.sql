@@ -3,6 +3,11 @@ DROP TABLE IF EXISTS Items CASCADE;
 DROP TABLE IF EXISTS FoodOrder CASCADE;
 DROP TABLE IF EXISTS Store CASCADE;
 DROP TABLE IF EXISTS ItemsInOrder CASCADE;
+DROP TABLE IF EXISTS OrderIds CASCADE;
+DROP TABLE IF EXISTS UserItemStats CASCADE;
+DROP SEQUENCE IF EXISTS FoodOrder_orderID_seq;
+DROP FUNCTION IF EXISTS foodorder_order_ids() CASCADE;
+DROP FUNCTION IF EXISTS foodorder_keep_key() CASCADE;
 
 CREATE TABLE Users ( login varchar(50) NOT NULL,
                      password varchar(30) NOT NULL,
@@ -35,21 +40,97 @@ CREATE TABLE FoodOrder ( orderID integer NOT NULL,
                            totalPrice decimal(10,2) NOT NULL,
                            orderTimestamp timestamp NOT NULL,
                            orderStatus char(50),
-                           PRIMARY KEY(orderID),
+                           -- the key of a partitioned table must include the
+                           -- partition key; OrderIds below keeps orderIDs
+                           -- unique on their own
+                           PRIMARY KEY(orderID, orderTimestamp),
+                           -- renaming a login carries over to its orders in
+                           -- the same statement; see migrate_login_fkey.sql
+                           CONSTRAINT foodorder_login_fkey
                            FOREIGN KEY(login) REFERENCES Users(login)
-                           ON DELETE CASCADE,
+                           ON DELETE CASCADE ON UPDATE CASCADE,
                            FOREIGN KEY(storeID) REFERENCES Store(storeID)
                            ON DELETE CASCADE
-);
+) PARTITION BY RANGE (orderTimestamp);
 
+-- FoodOrder has one partition per month, FoodOrder_yYYYYmMM, created by
+-- PartitionMaintenance (java/scripts/partitions.sh) for the coming months
+-- and for recent months that hold orders; it also detaches and archives
+-- old months.  Orders of a month without a partition, including history
+-- older than partitions.history, stay here.
+CREATE TABLE FoodOrder_default PARTITION OF FoodOrder DEFAULT;
 
+-- one row per order, kept by the triggers below.  FoodOrder cannot have a
+-- key on orderID alone, so this is what keeps orderIDs unique, what
+-- ItemsInOrder references, and how a lookup by orderID finds the one
+-- partition the order is in
+CREATE TABLE OrderIds ( orderID integer NOT NULL,
+                        orderTimestamp timestamp NOT NULL,
+                        PRIMARY KEY(orderID)
+);
 
 CREATE TABLE ItemsInOrder ( orderID integer NOT NULL,
                            itemName varchar(50) NOT NULL,
                            quantity integer NOT NULL,
                            PRIMARY KEY(orderID, itemName),
-                           FOREIGN KEY(orderID) REFERENCES FoodOrder(orderID) ON DELETE CASCADE,
+                           FOREIGN KEY(orderID) REFERENCES OrderIds(orderID)
+                           ON DELETE CASCADE,
+                           -- renaming an item carries over to past orders;
+                           -- see migrate_item_fkey.sql
+                           CONSTRAINT itemsinorder_itemname_fkey
                            FOREIGN KEY(itemName) REFERENCES Items(itemName)
-                           ON DELETE CASCADE
+                           ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+-- inserting an order claims its orderID, failing on a duplicate; deleting
+-- it releases the orderID, which takes its items along.  Neither happens
+-- while PartitionMaintenance moves orders between partitions.
+CREATE FUNCTION foodorder_order_ids() RETURNS trigger AS $$
+BEGIN
+   IF current_setting('pizzastore.moving_orders', true) = 'on' THEN
+      RETURN NULL;
+   END IF;
+   IF TG_OP = 'INSERT' THEN
+      INSERT INTO OrderIds (orderID, orderTimestamp) VALUES (NEW.orderID, NEW.orderTimestamp);
+   ELSE
+      DELETE FROM OrderIds WHERE orderID = OLD.orderID;
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER foodorder_order_ids AFTER INSERT OR DELETE ON FoodOrder
+   FOR EACH ROW EXECUTE FUNCTION foodorder_order_ids();
+
+-- an order's orderID and orderTimestamp never change once placed; a
+-- change would leave OrderIds behind, or move the order to another
+-- partition as a delete that took its items along
+CREATE FUNCTION foodorder_keep_key() RETURNS trigger AS $$
+BEGIN
+   RAISE EXCEPTION 'orderID and orderTimestamp of order % cannot change', OLD.orderID;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER foodorder_keep_key BEFORE UPDATE OF orderID, orderTimestamp ON FoodOrder
+   FOR EACH ROW WHEN (NEW.orderID <> OLD.orderID OR NEW.orderTimestamp <> OLD.orderTimestamp)
+   EXECUTE FUNCTION foodorder_keep_key();
+
+-- how often each user has ordered each item, updated by every order write
+-- so "order my usual" never has to GROUP BY over ItemsInOrder
+CREATE TABLE UserItemStats ( login varchar(50) NOT NULL,
+                           itemName varchar(50) NOT NULL,
+                           timesOrdered integer NOT NULL,
+                           totalQuantity integer NOT NULL,
+                           lastOrdered timestamp NOT NULL,
+                           PRIMARY KEY(login, itemName),
+                           FOREIGN KEY(login) REFERENCES Users(login)
+                           ON DELETE CASCADE ON UPDATE CASCADE,
+                           -- a renamed item keeps its counts, see updateItem
+                           CONSTRAINT useritemstats_itemname_fkey
+                           FOREIGN KEY(itemName) REFERENCES Items(itemName)
+                           ON DELETE CASCADE ON UPDATE CASCADE
 );
 
+-- orderIDs are reserved by the application in blocks of 50 (see
+-- OrderIdAllocator.BLOCK_SIZE); load_data.sql seeds it past the loaded orders
+CREATE SEQUENCE FoodOrder_orderID_seq INCREMENT BY 50 MINVALUE 1 START WITH 1;
@@ -15,6 +15,15 @@ COPY FoodOrder
 FROM '/home/csmajs/hzhen066/cs166_project_phase3/data/foodorder.csv'
 WITH DELIMITER ',' CSV HEADER;
 
+/* Start handing out orderIDs after the highest loaded one */
+SELECT setval('FoodOrder_orderID_seq', (SELECT COALESCE(MAX(orderID), 0) + 1 FROM FoodOrder), false);
+
 COPY ItemsInOrder
 FROM '/home/csmajs/hzhen066/cs166_project_phase3/data/itemsinorder.csv'
 WITH DELIMITER ',' CSV HEADER;
+
+/* Per-user item counts of the loaded orders; kept current by the application from here on */
+INSERT INTO UserItemStats (login, itemName, timesOrdered, totalQuantity, lastOrdered)
+SELECT O.login, I.itemName, COUNT(*), SUM(I.quantity), MAX(O.orderTimestamp)
+FROM FoodOrder O JOIN ItemsInOrder I ON I.orderID = O.orderID
+GROUP BY O.login, I.itemName;
@@ -0,0 +1,17 @@
+-- Migrates an existing database to the item keys of create_tables.sql:
+-- ItemsInOrder.itemName follows Items.itemName through ON UPDATE CASCADE,
+-- so renaming an item is one UPDATE of Items and keeps the item in past
+-- orders, where a delete and insert would cascade them away.  Safe to run
+-- more than once.
+--
+-- As in migrate_login_fkey.sql the constraint is swapped NOT VALID in one
+-- short transaction and validated afterwards.
+
+BEGIN;
+ALTER TABLE ItemsInOrder DROP CONSTRAINT IF EXISTS itemsinorder_itemname_fkey;
+ALTER TABLE ItemsInOrder ADD CONSTRAINT itemsinorder_itemname_fkey
+   FOREIGN KEY(itemName) REFERENCES Items(itemName)
+   ON DELETE CASCADE ON UPDATE CASCADE NOT VALID;
+COMMIT;
+
+ALTER TABLE ItemsInOrder VALIDATE CONSTRAINT itemsinorder_itemname_fkey;
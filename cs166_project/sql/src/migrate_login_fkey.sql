@@ -0,0 +1,18 @@
+-- Migrates an existing database to the key model of create_tables.sql:
+-- FoodOrder.login follows Users.login through ON UPDATE CASCADE, so a login
+-- rename is one UPDATE of Users instead of dropping and re-adding the
+-- constraint.  Safe to run more than once.
+--
+-- The constraint is swapped in one short transaction and added NOT VALID,
+-- which skips the scan of FoodOrder while locks are held; VALIDATE then
+-- checks the existing rows under a lock that lets orders be read and
+-- written meanwhile.
+
+BEGIN;
+ALTER TABLE FoodOrder DROP CONSTRAINT IF EXISTS foodorder_login_fkey;
+ALTER TABLE FoodOrder ADD CONSTRAINT foodorder_login_fkey
+   FOREIGN KEY(login) REFERENCES Users(login)
+   ON DELETE CASCADE ON UPDATE CASCADE NOT VALID;
+COMMIT;
+
+ALTER TABLE FoodOrder VALIDATE CONSTRAINT foodorder_login_fkey;
@@ -0,0 +1,22 @@
+-- Adds the FoodOrder_orderID_seq sequence of create_tables.sql to an
+-- existing database and starts it after the orders already there, so
+-- OrderIdAllocator's first nextval hands out a free block.  Safe to run
+-- more than once: the sequence never moves back over blocks it already
+-- handed out.
+
+BEGIN;
+
+-- INCREMENT BY must match OrderIdAllocator.BLOCK_SIZE
+CREATE SEQUENCE IF NOT EXISTS FoodOrder_orderID_seq INCREMENT BY 50 MINVALUE 1 START WITH 1;
+ALTER SEQUENCE FoodOrder_orderID_seq INCREMENT BY 50;
+
+-- orders placed while this runs wait for it, so none takes an orderID past the new start
+LOCK TABLE FoodOrder IN SHARE MODE;
+
+SELECT setval('FoodOrder_orderID_seq',
+              GREATEST((SELECT COALESCE(MAX(orderID), 0) + 1 FROM FoodOrder),
+                       (SELECT CASE WHEN is_called THEN last_value + 50 ELSE last_value END
+                        FROM FoodOrder_orderID_seq)),
+              false);
+
+COMMIT;
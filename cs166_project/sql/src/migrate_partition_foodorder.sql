@@ -0,0 +1,89 @@
+-- Migrates an existing database to the partitioned FoodOrder of
+-- create_tables.sql.  Run after migrate_login_fkey.sql, once.
+--
+-- The existing table becomes the DEFAULT partition as is, so no order is
+-- copied here; PartitionMaintenance (java/scripts/partitions.sh) then moves
+-- the recent months' orders into monthly partitions, one month per
+-- transaction.  Needs PostgreSQL 13 or later for the BEFORE UPDATE trigger
+-- on FoodOrder.
+
+BEGIN;
+
+-- no order may be written between the OrderIds backfill below and the
+-- trigger that takes over at the end; this lock holds writers off until
+-- COMMIT and still lets orders be read
+LOCK TABLE FoodOrder IN SHARE ROW EXCLUSIVE MODE;
+
+-- ItemsInOrder can no longer reference FoodOrder(orderID), whose key will
+-- include orderTimestamp; it references OrderIds, one row per order, instead
+ALTER TABLE ItemsInOrder DROP CONSTRAINT IF EXISTS itemsinorder_orderid_fkey;
+
+CREATE TABLE OrderIds ( orderID integer NOT NULL,
+                        orderTimestamp timestamp NOT NULL,
+                        PRIMARY KEY(orderID)
+);
+INSERT INTO OrderIds (orderID, orderTimestamp) SELECT orderID, orderTimestamp FROM FoodOrder;
+
+ALTER TABLE ItemsInOrder ADD CONSTRAINT itemsinorder_orderid_fkey
+   FOREIGN KEY(orderID) REFERENCES OrderIds(orderID) ON DELETE CASCADE;
+
+-- the old table keeps its rows but gives its key, constraints and indexes
+-- up to the new parent, which declares them for every partition
+ALTER TABLE FoodOrder RENAME TO FoodOrder_default;
+ALTER TABLE FoodOrder_default DROP CONSTRAINT IF EXISTS foodorder_pkey;
+ALTER TABLE FoodOrder_default DROP CONSTRAINT IF EXISTS foodorder_login_fkey;
+ALTER TABLE FoodOrder_default DROP CONSTRAINT IF EXISTS foodorder_storeid_fkey;
+DROP INDEX IF EXISTS idx_foodorder_login;
+DROP INDEX IF EXISTS idx_foodorder_timestamp;
+DROP INDEX IF EXISTS idx_foodorder_login_timestamp;
+
+CREATE TABLE FoodOrder ( orderID integer NOT NULL,
+                           login varchar(50) NOT NULL, --places relationship
+                           storeID integer NOT NULL, --placedAt relationship
+                           totalPrice decimal(10,2) NOT NULL,
+                           orderTimestamp timestamp NOT NULL,
+                           orderStatus char(50),
+                           PRIMARY KEY(orderID, orderTimestamp),
+                           CONSTRAINT foodorder_login_fkey
+                           FOREIGN KEY(login) REFERENCES Users(login)
+                           ON DELETE CASCADE ON UPDATE CASCADE,
+                           FOREIGN KEY(storeID) REFERENCES Store(storeID)
+                           ON DELETE CASCADE
+) PARTITION BY RANGE (orderTimestamp);
+
+ALTER TABLE FoodOrder ATTACH PARTITION FoodOrder_default DEFAULT;
+
+-- the triggers of create_tables.sql that keep OrderIds in step
+CREATE FUNCTION foodorder_order_ids() RETURNS trigger AS $$
+BEGIN
+   IF current_setting('pizzastore.moving_orders', true) = 'on' THEN
+      RETURN NULL;
+   END IF;
+   IF TG_OP = 'INSERT' THEN
+      INSERT INTO OrderIds (orderID, orderTimestamp) VALUES (NEW.orderID, NEW.orderTimestamp);
+   ELSE
+      DELETE FROM OrderIds WHERE orderID = OLD.orderID;
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER foodorder_order_ids AFTER INSERT OR DELETE ON FoodOrder
+   FOR EACH ROW EXECUTE FUNCTION foodorder_order_ids();
+
+CREATE FUNCTION foodorder_keep_key() RETURNS trigger AS $$
+BEGIN
+   RAISE EXCEPTION 'orderID and orderTimestamp of order % cannot change', OLD.orderID;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER foodorder_keep_key BEFORE UPDATE OF orderID, orderTimestamp ON FoodOrder
+   FOR EACH ROW WHEN (NEW.orderID <> OLD.orderID OR NEW.orderTimestamp <> OLD.orderTimestamp)
+   EXECUTE FUNCTION foodorder_keep_key();
+
+-- the FoodOrder indexes of create_indexes.sql, now on every partition
+CREATE INDEX idx_foodorder_login ON FoodOrder(login);
+CREATE INDEX idx_foodorder_timestamp ON FoodOrder(orderTimestamp DESC);
+CREATE INDEX idx_foodorder_login_timestamp ON FoodOrder(login, orderTimestamp DESC, orderID);
+
+COMMIT;
@@ -0,0 +1,29 @@
+-- Adds the UserItemStats table of create_tables.sql to an existing
+-- database and fills it from the order history, once.  From then on the
+-- application updates it with every order.
+
+BEGIN;
+
+CREATE TABLE UserItemStats ( login varchar(50) NOT NULL,
+                           itemName varchar(50) NOT NULL,
+                           timesOrdered integer NOT NULL,
+                           totalQuantity integer NOT NULL,
+                           lastOrdered timestamp NOT NULL,
+                           PRIMARY KEY(login, itemName),
+                           FOREIGN KEY(login) REFERENCES Users(login)
+                           ON DELETE CASCADE ON UPDATE CASCADE,
+                           -- a renamed item keeps its counts, see updateItem
+                           CONSTRAINT useritemstats_itemname_fkey
+                           FOREIGN KEY(itemName) REFERENCES Items(itemName)
+                           ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+-- orders placed while this runs wait for it, so none are counted twice or missed
+LOCK TABLE FoodOrder IN SHARE MODE;
+
+INSERT INTO UserItemStats (login, itemName, timesOrdered, totalQuantity, lastOrdered)
+SELECT O.login, I.itemName, COUNT(*), SUM(I.quantity), MAX(O.orderTimestamp)
+FROM FoodOrder O JOIN ItemsInOrder I ON I.orderID = O.orderID
+GROUP BY O.login, I.itemName;
+
+COMMIT;